@@ -45,6 +45,18 @@
 #define alloca(x) _alloca(x)
 #endif
 
+/*
+ * SIMD implementation of GF(2^8) multiply is selected on runtime by reed_solomon_init.
+ * x86 uses SSSE3/AVX2 by function level target attribute, so no special compiler flag is needed.
+ * */
+#if defined(__GNUC__) && (defined(__x86_64__) || defined(__i386__))
+#define RS_SIMD_X86
+#include <immintrin.h>
+#elif defined(__ARM_NEON) || defined(__ARM_NEON__)
+#define RS_SIMD_NEON
+#include <arm_neon.h>
+#endif
+
 typedef unsigned char gf;
 
 #define GF_BITS  8
@@ -80,6 +92,18 @@ static gf __declspec(align (256)) gf_mul_table[(GF_SIZE + 1)*(GF_SIZE + 1)];
 static gf gf_mul_table[(GF_SIZE + 1)*(GF_SIZE + 1)] __attribute__((aligned (256)));
 #endif
 
+/*
+ * Split nibble tables for SIMD multiply.
+ * c * x = gf_mul_lo[c][x & 0x0f] ^ gf_mul_hi[c][x >> 4]
+ */
+#ifdef _MSC_VER
+static gf __declspec(align (32)) gf_mul_lo[(GF_SIZE + 1)*16];
+static gf __declspec(align (32)) gf_mul_hi[(GF_SIZE + 1)*16];
+#else
+static gf gf_mul_lo[(GF_SIZE + 1)*16] __attribute__((aligned (32)));
+static gf gf_mul_hi[(GF_SIZE + 1)*16] __attribute__((aligned (32)));
+#endif
+
 /*
  * modnn(x) computes x % GF_SIZE, where GF_SIZE is 2**GF_BITS - 1,
  * without a slow divide.
@@ -92,7 +116,7 @@ static inline gf modnn(int x) {
     return x;
 }
 
-static void addmul(gf *dst1, gf *src1, gf c, int sz) {
+static void addmul_scalar(gf *dst1, gf *src1, gf c, int sz) {
     USE_GF_MULC;
     if (c != 0) {
         register gf *dst = dst1, *src = src1;
@@ -104,7 +128,7 @@ static void addmul(gf *dst1, gf *src1, gf c, int sz) {
     }
 }
 
-static void mul(gf *dst1, gf *src1, gf c, int sz) {
+static void mul_scalar(gf *dst1, gf *src1, gf c, int sz) {
     USE_GF_MULC;
     if (c != 0) {
         register gf *dst = dst1, *src = src1;
@@ -113,7 +137,139 @@ static void mul(gf *dst1, gf *src1, gf c, int sz) {
         for (; dst < lim; dst++, src++)
             GF_MULC(*dst , *src);
     } else
-        memset(dst1, 0, c);
+        memset(dst1, 0, sz);
+}
+
+#ifdef RS_SIMD_X86
+__attribute__((target("ssse3")))
+static void mul_region_ssse3(gf *dst, gf *src, gf c, int sz, int add) {
+    int i = 0;
+    __m128i lo = _mm_load_si128((const __m128i*)&gf_mul_lo[c << 4]);
+    __m128i hi = _mm_load_si128((const __m128i*)&gf_mul_hi[c << 4]);
+    __m128i mask = _mm_set1_epi8(0x0f);
+
+    for (; i + 16 <= sz; i += 16) {
+        __m128i x = _mm_loadu_si128((const __m128i*)(src + i));
+        __m128i p = _mm_xor_si128(_mm_shuffle_epi8(lo, _mm_and_si128(x, mask)),
+                                  _mm_shuffle_epi8(hi, _mm_and_si128(_mm_srli_epi64(x, 4), mask)));
+        if (add)
+            p = _mm_xor_si128(p, _mm_loadu_si128((const __m128i*)(dst + i)));
+        _mm_storeu_si128((__m128i*)(dst + i), p);
+    }
+    if (add)
+        addmul_scalar(dst + i, src + i, c, sz - i);
+    else
+        mul_scalar(dst + i, src + i, c, sz - i);
+}
+
+__attribute__((target("avx2")))
+static void mul_region_avx2(gf *dst, gf *src, gf c, int sz, int add) {
+    int i = 0;
+    __m256i lo = _mm256_broadcastsi128_si256(_mm_load_si128((const __m128i*)&gf_mul_lo[c << 4]));
+    __m256i hi = _mm256_broadcastsi128_si256(_mm_load_si128((const __m128i*)&gf_mul_hi[c << 4]));
+    __m256i mask = _mm256_set1_epi8(0x0f);
+
+    for (; i + 32 <= sz; i += 32) {
+        __m256i x = _mm256_loadu_si256((const __m256i*)(src + i));
+        __m256i p = _mm256_xor_si256(_mm256_shuffle_epi8(lo, _mm256_and_si256(x, mask)),
+                                     _mm256_shuffle_epi8(hi, _mm256_and_si256(_mm256_srli_epi64(x, 4), mask)));
+        if (add)
+            p = _mm256_xor_si256(p, _mm256_loadu_si256((const __m256i*)(dst + i)));
+        _mm256_storeu_si256((__m256i*)(dst + i), p);
+    }
+    mul_region_ssse3(dst + i, src + i, c, sz - i, add);
+}
+
+__attribute__((target("ssse3")))
+static void addmul_ssse3(gf *dst, gf *src, gf c, int sz) {
+    if (c != 0)
+        mul_region_ssse3(dst, src, c, sz, 1);
+}
+
+__attribute__((target("ssse3")))
+static void mul_ssse3(gf *dst, gf *src, gf c, int sz) {
+    if (c != 0)
+        mul_region_ssse3(dst, src, c, sz, 0);
+    else
+        memset(dst, 0, sz);
+}
+
+__attribute__((target("avx2")))
+static void addmul_avx2(gf *dst, gf *src, gf c, int sz) {
+    if (c != 0)
+        mul_region_avx2(dst, src, c, sz, 1);
+}
+
+__attribute__((target("avx2")))
+static void mul_avx2(gf *dst, gf *src, gf c, int sz) {
+    if (c != 0)
+        mul_region_avx2(dst, src, c, sz, 0);
+    else
+        memset(dst, 0, sz);
+}
+#endif
+
+#ifdef RS_SIMD_NEON
+#ifdef __aarch64__
+#define NEON_TABLE uint8x16_t
+#define NEON_LOAD_TABLE(p) vld1q_u8(p)
+#define NEON_LOOKUP(t, x) vqtbl1q_u8(t, x)
+#else
+/* armv7 has only 8 byte table lookup */
+#define NEON_TABLE uint8x8x2_t
+static inline uint8x8x2_t neon_load_table(const gf *p) {
+    uint8x8x2_t t;
+    t.val[0] = vld1_u8(p);
+    t.val[1] = vld1_u8(p + 8);
+    return t;
+}
+#define NEON_LOAD_TABLE(p) neon_load_table(p)
+#define NEON_LOOKUP(t, x) vcombine_u8(vtbl2_u8(t, vget_low_u8(x)), vtbl2_u8(t, vget_high_u8(x)))
+#endif
+
+static void mul_region_neon(gf *dst, gf *src, gf c, int sz, int add) {
+    int i = 0;
+    NEON_TABLE lo = NEON_LOAD_TABLE(&gf_mul_lo[c << 4]);
+    NEON_TABLE hi = NEON_LOAD_TABLE(&gf_mul_hi[c << 4]);
+    uint8x16_t mask = vdupq_n_u8(0x0f);
+
+    for (; i + 16 <= sz; i += 16) {
+        uint8x16_t x = vld1q_u8(src + i);
+        uint8x16_t p = veorq_u8(NEON_LOOKUP(lo, vandq_u8(x, mask)), NEON_LOOKUP(hi, vshrq_n_u8(x, 4)));
+        if (add)
+            p = veorq_u8(p, vld1q_u8(dst + i));
+        vst1q_u8(dst + i, p);
+    }
+    if (add)
+        addmul_scalar(dst + i, src + i, c, sz - i);
+    else
+        mul_scalar(dst + i, src + i, c, sz - i);
+}
+
+static void addmul_neon(gf *dst, gf *src, gf c, int sz) {
+    if (c != 0)
+        mul_region_neon(dst, src, c, sz, 1);
+}
+
+static void mul_neon(gf *dst, gf *src, gf c, int sz) {
+    if (c != 0)
+        mul_region_neon(dst, src, c, sz, 0);
+    else
+        memset(dst, 0, sz);
+}
+#endif
+
+typedef void (*gf_mul_func)(gf *dst, gf *src, gf c, int sz);
+static gf_mul_func addmul_impl = addmul_scalar;
+static gf_mul_func mul_impl = mul_scalar;
+static const char* simd_name = "scalar";
+
+static inline void addmul(gf *dst, gf *src, gf c, int sz) {
+    addmul_impl(dst, src, c, sz);
+}
+
+static inline void mul(gf *dst, gf *src, gf c, int sz) {
+    mul_impl(dst, src, c, sz);
 }
 
 /* y = a.dot(b) */
@@ -148,6 +304,12 @@ static void init_mul_table(void) {
 
     for (j=0; j< GF_SIZE+1; j++)
         gf_mul_table[j] = gf_mul_table[j<<8] = 0;
+
+    for (i=0; i< GF_SIZE+1; i++)
+    for (j=0; j< 16; j++) {
+        gf_mul_lo[(i<<4)+j] = gf_mul_table[(i<<8)+j];
+        gf_mul_hi[(i<<4)+j] = gf_mul_table[(i<<8)+(j<<4)];
+    }
 }
 
 /*
@@ -372,6 +534,33 @@ static inline int code_some_shards(gf* matrixRows, gf** inputs, gf** outputs, in
 void reed_solomon_init(void) {
     generate_gf();
     init_mul_table();
+    reed_solomon_use_simd(1);
+}
+
+const char* reed_solomon_use_simd(int enable) {
+    addmul_impl = addmul_scalar;
+    mul_impl = mul_scalar;
+    simd_name = "scalar";
+    if (!enable)
+        return simd_name;
+
+#if defined(RS_SIMD_X86)
+    __builtin_cpu_init();
+    if (__builtin_cpu_supports("avx2")) {
+        addmul_impl = addmul_avx2;
+        mul_impl = mul_avx2;
+        simd_name = "avx2";
+    } else if (__builtin_cpu_supports("ssse3")) {
+        addmul_impl = addmul_ssse3;
+        mul_impl = mul_ssse3;
+        simd_name = "ssse3";
+    }
+#elif defined(RS_SIMD_NEON)
+    addmul_impl = addmul_neon;
+    mul_impl = mul_neon;
+    simd_name = "neon";
+#endif
+    return simd_name;
 }
 
 reed_solomon* reed_solomon_new(int data_shards, int parity_shards) {
@@ -390,6 +579,12 @@ reed_solomon* reed_solomon_new(int data_shards, int parity_shards) {
         rs->shards = (data_shards + parity_shards);
         rs->m = NULL;
         rs->parity = NULL;
+        rs->decode_cache = NULL;
+        memset(rs->decode_cache_keys, 0, sizeof(rs->decode_cache_keys));
+        memset(rs->decode_cache_stamps, 0, sizeof(rs->decode_cache_stamps));
+        rs->decode_cache_clock = 0;
+        rs->decode_cache_hits = 0;
+        rs->decode_cache_misses = 0;
 
         if (rs->shards > DATA_SHARDS_MAX || data_shards <= 0 || parity_shards <= 0) {
             err = 1;
@@ -435,6 +630,12 @@ reed_solomon* reed_solomon_new(int data_shards, int parity_shards) {
             break;
         }
 
+        rs->decode_cache = (gf*)malloc(DECODE_CACHE_SIZE * data_shards * data_shards);
+        if (NULL == rs->decode_cache) {
+            err = 6;
+            break;
+        }
+
         free(vm);
         free(top);
         vm = NULL;
@@ -457,6 +658,9 @@ reed_solomon* reed_solomon_new(int data_shards, int parity_shards) {
         if (NULL != rs->parity)
             free(rs->parity);
 
+        if (NULL != rs->decode_cache)
+            free(rs->decode_cache);
+
         free(rs);
     }
 
@@ -471,10 +675,47 @@ void reed_solomon_release(reed_solomon* rs) {
         if (NULL != rs->parity)
             free(rs->parity);
 
+        if (NULL != rs->decode_cache)
+            free(rs->decode_cache);
+
         free(rs);
     }
 }
 
+/*
+ * Look up inverted decode matrix for the set of shards used for decoding.
+ * Returns NULL on miss.
+ * */
+static gf* decode_cache_lookup(reed_solomon* rs, const unsigned char* key) {
+    int i;
+    for (i = 0; i < DECODE_CACHE_SIZE; i++) {
+        if (rs->decode_cache_stamps[i] != 0 && 0 == memcmp(rs->decode_cache_keys[i], key, DECODE_CACHE_KEY_SIZE)) {
+            rs->decode_cache_stamps[i] = ++rs->decode_cache_clock;
+            rs->decode_cache_hits++;
+            return rs->decode_cache + i * rs->data_shards * rs->data_shards;
+        }
+    }
+    rs->decode_cache_misses++;
+    return NULL;
+}
+
+/*
+ * Store decode matrix (rows rows) replacing least recently used entry.
+ * */
+static gf* decode_cache_store(reed_solomon* rs, const unsigned char* key, const gf* matrix, int rows) {
+    int i, lru = 0;
+    gf* entry;
+    for (i = 1; i < DECODE_CACHE_SIZE; i++) {
+        if (rs->decode_cache_stamps[i] < rs->decode_cache_stamps[lru])
+            lru = i;
+    }
+    entry = rs->decode_cache + lru * rs->data_shards * rs->data_shards;
+    memcpy(entry, matrix, rows * rs->data_shards);
+    memcpy(rs->decode_cache_keys[lru], key, DECODE_CACHE_KEY_SIZE);
+    rs->decode_cache_stamps[lru] = ++rs->decode_cache_clock;
+    return entry;
+}
+
 /**
  * decode one shard
  * input:
@@ -488,6 +729,9 @@ void reed_solomon_release(reed_solomon* rs) {
 static int reed_solomon_decode(reed_solomon* rs, unsigned char **data_blocks, int block_size, unsigned char **dec_fec_blocks, unsigned int *fec_block_nos, unsigned int *erased_blocks, int nr_fec_blocks) {
     /* use stack instead of malloc, define a small number of DATA_SHARDS_MAX to save memory */
     gf dataDecodeMatrix[DATA_SHARDS_MAX*DATA_SHARDS_MAX];
+    gf* decodeMatrix;
+    unsigned char key[DECODE_CACHE_KEY_SIZE];
+    int subRows[DATA_SHARDS_MAX];
     unsigned char* subShards[DATA_SHARDS_MAX];
     unsigned char* outputs[DATA_SHARDS_MAX];
     gf* m = rs->m;
@@ -513,6 +757,8 @@ static int reed_solomon_decode(reed_solomon* rs, unsigned char **data_blocks, in
             break;
     }
 
+    /* collect shards used for decoding. the bitmap of them is the key of decode matrix cache */
+    memset(key, 0, sizeof(key));
     j = 0;
     subMatrixRow = 0;
     nos = 0;
@@ -523,35 +769,47 @@ static int reed_solomon_decode(reed_solomon* rs, unsigned char **data_blocks, in
             j++;
         else {
             /* this row is ok */
-            for (c = 0; c < dataShards; c++)
-                dataDecodeMatrix[subMatrixRow*dataShards + c] = m[i*dataShards + c];
-
+            subRows[subMatrixRow] = i;
             subShards[subMatrixRow] = data_blocks[i];
             subMatrixRow++;
         }
     }
 
     for (i = 0; i < nr_fec_blocks && subMatrixRow < dataShards; i++) {
+        subRows[subMatrixRow] = dataShards + fec_block_nos[i];
         subShards[subMatrixRow] = dec_fec_blocks[i];
-        j = dataShards + fec_block_nos[i];
-        for (c = 0; c < dataShards; c++)
-            dataDecodeMatrix[subMatrixRow*dataShards + c] = m[j*dataShards + c];
-
         subMatrixRow++;
     }
 
     if (subMatrixRow < dataShards)
         return -1;
 
-    invert_mat(dataDecodeMatrix, dataShards);
+    for (i = 0; i < dataShards; i++)
+        key[subRows[i] >> 3] |= 1 << (subRows[i] & 7);
 
-    for (i = 0; i < nr_fec_blocks; i++) {
-        j = erased_blocks[i];
-        outputs[i] = data_blocks[j];
-        memmove(dataDecodeMatrix+i*dataShards, dataDecodeMatrix+j*dataShards, dataShards);
+    decodeMatrix = decode_cache_lookup(rs, key);
+    if (NULL == decodeMatrix) {
+        for (i = 0; i < dataShards; i++) {
+            j = subRows[i];
+            for (c = 0; c < dataShards; c++)
+                dataDecodeMatrix[i*dataShards + c] = m[j*dataShards + c];
+        }
+
+        if (0 != invert_mat(dataDecodeMatrix, dataShards))
+            return -1;
+
+        for (i = 0; i < nr_fec_blocks; i++) {
+            j = erased_blocks[i];
+            memmove(dataDecodeMatrix+i*dataShards, dataDecodeMatrix+j*dataShards, dataShards);
+        }
+
+        decodeMatrix = decode_cache_store(rs, key, dataDecodeMatrix, nr_fec_blocks);
     }
 
-    return code_some_shards(dataDecodeMatrix, subShards, outputs, dataShards, nr_fec_blocks, block_size);
+    for (i = 0; i < nr_fec_blocks; i++)
+        outputs[i] = data_blocks[erased_blocks[i]];
+
+    return code_some_shards(decodeMatrix, subShards, outputs, dataShards, nr_fec_blocks, block_size);
 }
 
 /**
@@ -619,7 +877,8 @@ int reed_solomon_reconstruct(reed_solomon* rs, unsigned char** shards, unsigned
             }
 
             if (dn == pn) {
-                reed_solomon_decode(rs, data_blocks, block_size, dec_fec_blocks, fec_block_nos, erased_blocks, dn);
+                if (0 != reed_solomon_decode(rs, data_blocks, block_size, dec_fec_blocks, fec_block_nos, erased_blocks, dn))
+                    err = -1;
             } else
                 err = -1;
         }
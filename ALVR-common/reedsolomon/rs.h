@@ -8,12 +8,24 @@ extern "C" {
 	/* use small value to save memory */
 #define DATA_SHARDS_MAX 255
 
+	/* number of inverted decode matrices kept per reed_solomon */
+#define DECODE_CACHE_SIZE 4
+#define DECODE_CACHE_KEY_SIZE ((DATA_SHARDS_MAX + 7) / 8)
+
 	typedef struct _reed_solomon {
 		int data_shards;
 		int parity_shards;
 		int shards;
 		unsigned char* m;
 		unsigned char* parity;
+
+		/* cache of inverted decode matrices keyed by bitmap of shards used for decoding */
+		unsigned char* decode_cache; /* [DECODE_CACHE_SIZE][data_shards*data_shards] */
+		unsigned char decode_cache_keys[DECODE_CACHE_SIZE][DECODE_CACHE_KEY_SIZE];
+		unsigned int decode_cache_stamps[DECODE_CACHE_SIZE]; /* 0 means empty entry */
+		unsigned int decode_cache_clock;
+		unsigned long decode_cache_hits;
+		unsigned long decode_cache_misses;
 	} reed_solomon;
 
 	/**
@@ -21,6 +33,13 @@ extern "C" {
 	 * */
 	void reed_solomon_init(void);
 
+	/**
+	 * select SIMD implementation of GF(2^8) multiply if enable != 0 and cpu supports it.
+	 * reed_solomon_init enables SIMD by default.
+	 * returns name of selected implementation.
+	 * */
+	const char* reed_solomon_use_simd(int enable);
+
 	reed_solomon* reed_solomon_new(int data_shards, int parity_shards);
 	void reed_solomon_release(reed_solomon* rs);
 
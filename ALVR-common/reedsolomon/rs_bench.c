@@ -0,0 +1,108 @@
+/*
+ * Micro benchmark of reed_solomon_reconstruct.
+ * Compares scalar and SIMD GF(2^8) multiply and checks that both produce same output.
+ *
+ * Build and run on host:
+ *   cc -O2 -o rs_bench rs.c rs_bench.c && ./rs_bench
+ * */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include "rs.h"
+
+/* Same as ALVR_MAX_VIDEO_BUFFER_SIZE */
+#define BLOCK_SIZE 1366
+#define FEC_PERCENTAGE 20
+#define MIN_BENCH_TIME 0.5
+
+static double now(void) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec + ts.tv_nsec * 1e-9;
+}
+
+/* Erase first parity_shards data shards and reconstruct them. Returns reconstructed bytes. */
+static long reconstruct_once(reed_solomon* rs, unsigned char* buf, unsigned char** shards,
+                             unsigned char* marks) {
+    int i, ds = rs->data_shards, ps = rs->parity_shards;
+    for (i = 0; i < ds + ps; i++)
+        marks[i] = 0;
+    for (i = 0; i < ps && i < ds; i++) {
+        marks[i] = 1;
+        memset(buf + i * BLOCK_SIZE, 0, BLOCK_SIZE);
+    }
+    if (0 != reed_solomon_reconstruct(rs, shards, marks, ds + ps, BLOCK_SIZE)) {
+        fprintf(stderr, "reconstruct failed. shards=%d:%d\n", ds, ps);
+        exit(1);
+    }
+    return (long)i * BLOCK_SIZE;
+}
+
+static double bench(reed_solomon* rs, unsigned char* buf, unsigned char** shards,
+                    unsigned char* marks) {
+    long bytes = 0;
+    double start = now(), elapsed;
+    do {
+        bytes += reconstruct_once(rs, buf, shards, marks);
+        elapsed = now() - start;
+    } while (elapsed < MIN_BENCH_TIME);
+    return bytes / elapsed / (1024 * 1024);
+}
+
+int main(void) {
+    int ds, i;
+    const char* simd;
+
+    reed_solomon_init();
+    simd = reed_solomon_use_simd(1);
+    printf("SIMD implementation: %s\n", simd);
+    printf("%12s %12s %14s %14s %8s\n", "dataShards", "parity", "scalar MB/s", "simd MB/s", "speedup");
+
+    for (ds = 2; ds <= 16; ds += 2) {
+        int ps = (ds * FEC_PERCENTAGE + 99) / 100;
+        int total = ds + ps;
+        reed_solomon* rs = reed_solomon_new(ds, ps);
+        unsigned char* buf = malloc(total * BLOCK_SIZE);
+        unsigned char* original = malloc(total * BLOCK_SIZE);
+        unsigned char* scalar_result = malloc(total * BLOCK_SIZE);
+        unsigned char** shards = malloc(total * sizeof(unsigned char*));
+        unsigned char* marks = malloc(total);
+        double scalar_speed, simd_speed;
+
+        srand(ds);
+        for (i = 0; i < ds * BLOCK_SIZE; i++)
+            buf[i] = rand();
+        for (i = 0; i < total; i++)
+            shards[i] = buf + i * BLOCK_SIZE;
+        reed_solomon_encode(rs, shards, total, BLOCK_SIZE);
+        memcpy(original, buf, total * BLOCK_SIZE);
+
+        reed_solomon_use_simd(0);
+        reconstruct_once(rs, buf, shards, marks);
+        memcpy(scalar_result, buf, total * BLOCK_SIZE);
+        reed_solomon_use_simd(1);
+        reconstruct_once(rs, buf, shards, marks);
+        if (0 != memcmp(scalar_result, buf, total * BLOCK_SIZE) || 0 != memcmp(original, buf, total * BLOCK_SIZE)) {
+            fprintf(stderr, "SIMD result differs from scalar. shards=%d:%d\n", ds, ps);
+            return 1;
+        }
+
+        reed_solomon_use_simd(0);
+        scalar_speed = bench(rs, buf, shards, marks);
+        reed_solomon_use_simd(1);
+        simd_speed = bench(rs, buf, shards, marks);
+
+        printf("%12d %12d %14.1f %14.1f %7.2fx\n", ds, ps, scalar_speed, simd_speed, simd_speed / scalar_speed);
+
+        reed_solomon_release(rs);
+        free(buf);
+        free(original);
+        free(scalar_result);
+        free(shards);
+        free(marks);
+    }
+    return 0;
+}
@@ -0,0 +1,115 @@
+package com.polygraphene.alvr;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares FrameMap with the previous LinkedList + LongSparseArray implementation.
+ * Runs on device because LongSparseArray is not available on JVM. Results are written to logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameMapBenchmark {
+    private static final String TAG = "FrameMapBenchmark";
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+    // Frames are looked up a few frames after put, as in OutputFrameQueue.
+    private static final int LOOKUP_DISTANCE = 3;
+
+    // Previous implementation of FrameMap.
+    private static class LegacyFrameMap {
+        private static final int MAX_FRAMES = 50;
+
+        private List<Long> mFrameHistory = new LinkedList<>();
+        private LongSparseArray<Long> mFrameHashMap = new LongSparseArray<>();
+
+        public synchronized void put(long presentationTime, long frameIndex) {
+            mFrameHistory.add(presentationTime);
+            mFrameHashMap.put(presentationTime, frameIndex);
+            if (mFrameHistory.size() > MAX_FRAMES) {
+                Long key = mFrameHistory.remove(0);
+                mFrameHashMap.remove(key);
+            }
+        }
+
+        public synchronized long find(long presentationTime) {
+            Long f = mFrameHashMap.get(presentationTime);
+            return f != null ? f : -1;
+        }
+    }
+
+    private interface Map {
+        void put(long presentationTime, long frameIndex);
+
+        long find(long presentationTime);
+    }
+
+    // Presentation time of frame i. Interval is about 1/72 sec with jitter.
+    private static long presentationTime(long i) {
+        return i * 13889 + (i * 7919) % 500;
+    }
+
+    private static long run(Map map, int iterations) {
+        long sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            map.put(presentationTime(i), i);
+            if (i >= LOOKUP_DISTANCE) {
+                sum += map.find(presentationTime(i - LOOKUP_DISTANCE));
+            }
+        }
+        return sum;
+    }
+
+    private static double measure(String name, Map map) {
+        run(map, WARMUP);
+        long start = System.nanoTime();
+        long sum = run(map, ITERATIONS);
+        double nsPerFrame = (double) (System.nanoTime() - start) / ITERATIONS;
+        Log.i(TAG, String.format("%s: %.1f ns/frame (put + find) checksum=%d", name, nsPerFrame, sum));
+        return nsPerFrame;
+    }
+
+    @Test
+    public void compare() throws Exception {
+        final LegacyFrameMap legacy = new LegacyFrameMap();
+        final FrameMap frameMap = new FrameMap();
+
+        double legacyNs = measure("LinkedList+LongSparseArray", new Map() {
+            @Override
+            public void put(long presentationTime, long frameIndex) {
+                legacy.put(presentationTime, frameIndex);
+            }
+
+            @Override
+            public long find(long presentationTime) {
+                return legacy.find(presentationTime);
+            }
+        });
+        double frameMapNs = measure("FrameMap", new Map() {
+            @Override
+            public void put(long presentationTime, long frameIndex) {
+                frameMap.put(presentationTime, frameIndex);
+            }
+
+            @Override
+            public long find(long presentationTime) {
+                return frameMap.find(presentationTime);
+            }
+        });
+        Log.i(TAG, String.format("speedup: %.2fx", legacyNs / frameMapNs));
+
+        // Both must agree including eviction.
+        assertEquals(ITERATIONS - 50, legacy.find(presentationTime(ITERATIONS - 50)));
+        assertEquals(ITERATIONS - 50, frameMap.find(presentationTime(ITERATIONS - 50)));
+        assertEquals(-1, legacy.find(presentationTime(ITERATIONS - 51)));
+        assertEquals(-1, frameMap.find(presentationTime(ITERATIONS - 51)));
+    }
+}
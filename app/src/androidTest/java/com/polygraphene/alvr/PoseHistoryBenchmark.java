@@ -0,0 +1,117 @@
+package com.polygraphene.alvr;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.util.Pair;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares PoseHistory with the previous ConcurrentHashMap + Pair frame tracker of DaydreamLayersActivity.
+ * Runs on device to measure with ART and its GC. Results are written to logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PoseHistoryBenchmark {
+    private static final String TAG = "PoseHistoryBenchmark";
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+    // Rendered frame comes back a few frames after its pose was tracked.
+    private static final int LOOKUP_DISTANCE = 5;
+
+    // Previous implementation in DaydreamLayersActivity.
+    private static class LegacyFrameTracker {
+        private final ConcurrentHashMap<Long, Pair<float[], Long>> frameTracker = new ConcurrentHashMap<Long, Pair<float[], Long>>();
+
+        public void put(long frameIndex, float[] matrix, long poseTime) {
+            frameTracker.put(frameIndex, Pair.create(matrix.clone(), poseTime));
+        }
+
+        public long get(long frameIndex, float[] matrix) {
+            Pair<float[], Long> p = frameTracker.get(frameIndex);
+            frameTracker.remove(frameIndex - 100);
+            if (p == null) {
+                return -1;
+            }
+            System.arraycopy(p.first, 0, matrix, 0, 16);
+            return p.second;
+        }
+    }
+
+    private interface Tracker {
+        void put(long frameIndex, float[] matrix, long poseTime);
+
+        long get(long frameIndex, float[] matrix);
+    }
+
+    private static long run(Tracker tracker, int iterations) {
+        float[] source = new float[16];
+        float[] matrix = new float[16];
+        long sum = 0;
+        for (int i = 1; i <= iterations; i++) {
+            source[0] = i;
+            tracker.put(i, source, i * 13889L);
+            if (i > LOOKUP_DISTANCE) {
+                sum += tracker.get(i - LOOKUP_DISTANCE, matrix) + (long) matrix[0];
+            }
+        }
+        return sum;
+    }
+
+    private static double measure(String name, Tracker tracker) {
+        run(tracker, WARMUP);
+        Runtime runtime = Runtime.getRuntime();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        long sum = run(tracker, ITERATIONS);
+        double nsPerFrame = (double) (System.nanoTime() - start) / ITERATIONS;
+        long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+        Log.i(TAG, String.format("%s: %.1f ns/frame (put + get) heapDelta=%dKB checksum=%d", name, nsPerFrame,
+                (usedAfter - usedBefore) / 1024, sum));
+        return nsPerFrame;
+    }
+
+    @Test
+    public void compare() throws Exception {
+        final LegacyFrameTracker legacy = new LegacyFrameTracker();
+        final PoseHistory history = new PoseHistory(128);
+
+        double legacyNs = measure("ConcurrentHashMap+Pair", new Tracker() {
+            @Override
+            public void put(long frameIndex, float[] matrix, long poseTime) {
+                legacy.put(frameIndex, matrix, poseTime);
+            }
+
+            @Override
+            public long get(long frameIndex, float[] matrix) {
+                return legacy.get(frameIndex, matrix);
+            }
+        });
+        double historyNs = measure("PoseHistory", new Tracker() {
+            @Override
+            public void put(long frameIndex, float[] matrix, long poseTime) {
+                history.put(frameIndex, matrix, poseTime);
+            }
+
+            @Override
+            public long get(long frameIndex, float[] matrix) {
+                return history.get(frameIndex, matrix);
+            }
+        });
+        Log.i(TAG, String.format("speedup: %.2fx", legacyNs / historyNs));
+
+        // Both return the same pose for recent frame.
+        float[] matrix = new float[16];
+        long frameIndex = ITERATIONS - LOOKUP_DISTANCE;
+        assertEquals(frameIndex * 13889L, legacy.get(frameIndex, matrix));
+        assertEquals(frameIndex, (long) matrix[0]);
+        assertEquals(frameIndex * 13889L, history.get(frameIndex, matrix));
+        assertEquals(frameIndex, (long) matrix[0]);
+        // Old frame is gone from PoseHistory.
+        assertEquals(-1, history.get(ITERATIONS - 200, matrix));
+    }
+}
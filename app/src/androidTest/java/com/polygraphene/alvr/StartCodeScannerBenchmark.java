@@ -0,0 +1,209 @@
+package com.polygraphene.alvr;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares StartCodeScanner with byte-by-byte scan on H.264 and H.265 frames. Results are written to logcat.
+ * Frames dumped by DecoderThread.debugIDRFrame (*.h264 in external media dir) are used if present,
+ * otherwise frames are synthesized.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartCodeScannerBenchmark {
+    private static final String TAG = "StartCodeScannerBench";
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 100;
+
+    private static final int CODEC_H264 = 0;
+    private static final int CODEC_H265 = 1;
+
+    private static class Frame {
+        final int codec;
+        final ByteBuffer buf;
+        final int length;
+
+        Frame(int codec, byte[] data, int length) {
+            this.codec = codec;
+            this.length = length;
+            // Same as NAL.buf
+            buf = ByteBuffer.allocateDirect(length);
+            buf.put(data, 0, length);
+        }
+    }
+
+    private interface Scanner {
+        int scan(Frame frame);
+    }
+
+    // Byte-by-byte scan as previous NALParser::findVPSSPS. Returns number of units.
+    private static int scanBytewise(Frame frame, int[] types) {
+        ByteBuffer buf = frame.buf;
+        int count = 0;
+        int zeroes = 0;
+        for (int i = 0; i + 1 < frame.length; i++) {
+            byte b = buf.get(i);
+            if (b == 0) {
+                zeroes++;
+            } else {
+                if (b == 1 && zeroes >= 2) {
+                    types[count & (types.length - 1)] = StartCodeScanner.nalType(buf.get(i + 1), frame.codec);
+                    count++;
+                }
+                zeroes = 0;
+            }
+        }
+        return count;
+    }
+
+    private static int appendNal(byte[] data, int pos, boolean longStartCode, int header, int size, Random random) {
+        if (longStartCode) {
+            data[pos++] = 0;
+        }
+        data[pos++] = 0;
+        data[pos++] = 0;
+        data[pos++] = 1;
+        data[pos++] = (byte) header;
+        for (int i = 0; i < size; i++) {
+            byte b = (byte) random.nextInt(256);
+            // Emulation prevention. 00 00 never appears in slice data.
+            if (b == 0 && data[pos - 1] == 0) {
+                b = 3;
+            }
+            data[pos++] = b;
+        }
+        return pos;
+    }
+
+    private static List<Frame> synthesize() {
+        List<Frame> frames = new ArrayList<>();
+        Random random = new Random(1);
+        byte[] data = new byte[300000];
+        for (int codec = CODEC_H264; codec <= CODEC_H265; codec++) {
+            for (int f = 0; f < 72; f++) {
+                boolean idr = f % 36 == 0;
+                int sliceSize = idr ? 60000 : 8000;
+                int pos = 0;
+                if (codec == CODEC_H264) {
+                    if (idr) {
+                        pos = appendNal(data, pos, true, 0x67, 20, random);
+                        pos = appendNal(data, pos, true, 0x68, 4, random);
+                    }
+                    for (int i = 0; i < 4; i++) {
+                        pos = appendNal(data, pos, i == 0, idr ? 0x65 : 0x41, sliceSize, random);
+                    }
+                } else {
+                    if (idr) {
+                        pos = appendNal(data, pos, true, 32 << 1, 20, random);
+                        pos = appendNal(data, pos, true, 33 << 1, 40, random);
+                        pos = appendNal(data, pos, true, 34 << 1, 6, random);
+                    }
+                    for (int i = 0; i < 4; i++) {
+                        pos = appendNal(data, pos, i == 0, (idr ? 19 : 1) << 1, sliceSize, random);
+                    }
+                }
+                frames.add(new Frame(codec, data, pos));
+            }
+        }
+        return frames;
+    }
+
+    // Dump of DecoderThread is H.264.
+    private static List<Frame> loadDumps() throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        File[] dirs = InstrumentationRegistry.getTargetContext().getExternalMediaDirs();
+        if (dirs.length == 0 || dirs[0] == null || dirs[0].listFiles() == null) {
+            return frames;
+        }
+        for (File file : dirs[0].listFiles()) {
+            if (!file.getName().endsWith(".h264")) {
+                continue;
+            }
+            byte[] data = new byte[(int) file.length()];
+            FileInputStream stream = new FileInputStream(file);
+            int length = 0;
+            int n;
+            while (length < data.length && (n = stream.read(data, length, data.length - length)) > 0) {
+                length += n;
+            }
+            stream.close();
+            frames.add(new Frame(CODEC_H264, data, length));
+        }
+        return frames;
+    }
+
+    private static long run(List<Frame> frames, Scanner scanner, int iterations) {
+        long sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (Frame frame : frames) {
+                sum += scanner.scan(frame);
+            }
+        }
+        return sum;
+    }
+
+    private static double measure(String name, List<Frame> frames, long bytes, Scanner scanner) {
+        run(frames, scanner, WARMUP);
+        long start = System.nanoTime();
+        long sum = run(frames, scanner, ITERATIONS);
+        long elapsed = System.nanoTime() - start;
+        double usPerFrame = elapsed / 1000.0 / ITERATIONS / frames.size();
+        Log.i(TAG, String.format("%s: %.2f us/frame %.1f MB/s checksum=%d", name, usPerFrame,
+                (double) bytes * ITERATIONS * 1000 / elapsed, sum));
+        return usPerFrame;
+    }
+
+    @Test
+    public void compare() throws Exception {
+        List<Frame> frames = loadDumps();
+        if (frames.isEmpty()) {
+            frames = synthesize();
+        }
+        long bytes = 0;
+        for (Frame frame : frames) {
+            bytes += frame.length;
+        }
+        Log.i(TAG, "Frames=" + frames.size() + " Bytes=" + bytes);
+
+        final int[] types = new int[64];
+        final StartCodeScanner startCodeScanner = new StartCodeScanner();
+
+        // Both must find same NAL units.
+        for (Frame frame : frames) {
+            int count = scanBytewise(frame, types);
+            assertEquals(count, startCodeScanner.scan(frame.buf, frame.length, frame.codec, Integer.MAX_VALUE));
+            if (count <= types.length) {
+                for (int i = 0; i < count; i++) {
+                    assertEquals(types[i], startCodeScanner.getType(i));
+                }
+            }
+        }
+
+        double bytewiseUs = measure("bytewise", frames, bytes, new Scanner() {
+            @Override
+            public int scan(Frame frame) {
+                return scanBytewise(frame, types);
+            }
+        });
+        double scannerUs = measure("StartCodeScanner", frames, bytes, new Scanner() {
+            @Override
+            public int scan(Frame frame) {
+                return startCodeScanner.scan(frame.buf, frame.length, frame.codec, Integer.MAX_VALUE);
+            }
+        });
+        Log.i(TAG, String.format("speedup: %.2fx", bytewiseUs / scannerUs));
+    }
+}
@@ -3,13 +3,152 @@
 #include <stdlib.h>
 #include "fec.h"
 #include "packet_types.h"
+#include "latency_collector.h"
+#include "frame_trace.h"
 #include "utils.h"
 
 bool FECQueue::reed_solomon_initialized = false;
 
+ReedSolomonCache::~ReedSolomonCache() {
+    for (auto &entry : m_entries) {
+        if (entry.rs != NULL) {
+            reed_solomon_release(entry.rs);
+        }
+    }
+}
+
+reed_solomon *ReedSolomonCache::get(int dataShards, int parityShards) {
+    Entry *lru = &m_entries[0];
+    for (auto &entry : m_entries) {
+        if (entry.rs != NULL && entry.dataShards == dataShards &&
+            entry.parityShards == parityShards) {
+            entry.lastUsed = ++m_clock;
+            m_hits++;
+            return entry.rs;
+        }
+        if (entry.lastUsed < lru->lastUsed) {
+            lru = &entry;
+        }
+    }
+    m_misses++;
+
+    reed_solomon *rs = reed_solomon_new(dataShards, parityShards);
+    if (rs == NULL) {
+        return NULL;
+    }
+    if (lru->rs != NULL) {
+        reed_solomon_release(lru->rs);
+    }
+    lru->dataShards = dataShards;
+    lru->parityShards = parityShards;
+    lru->lastUsed = ++m_clock;
+    lru->rs = rs;
+
+    LOGI("Created reed_solomon. shards=%d:%d cache hits=%" PRIu64 " misses=%" PRIu64, dataShards, parityShards,
+         m_hits, m_misses);
+    return rs;
+}
+
+uint64_t ReedSolomonCache::getHits() {
+    return m_hits;
+}
+
+uint64_t ReedSolomonCache::getMisses() {
+    return m_misses;
+}
+
+ReconstructWorkerPool::ReconstructWorkerPool(int threads) {
+    m_next = 0;
+    m_failed = false;
+
+    m_threads.resize(threads);
+    m_threadArgs.resize(threads);
+    for (int i = 0; i < threads; i++) {
+        m_threadArgs[i].pool = this;
+        m_threadArgs[i].worker = i;
+        pthread_create(&m_threads[i], NULL, threadMain, &m_threadArgs[i]);
+    }
+}
+
+ReconstructWorkerPool::~ReconstructWorkerPool() {
+    {
+        MutexLock lock(m_mutex);
+        m_stopped = true;
+        pthread_cond_broadcast(&m_startCond);
+    }
+    for (auto thread : m_threads) {
+        pthread_join(thread, NULL);
+    }
+    pthread_cond_destroy(&m_startCond);
+    pthread_cond_destroy(&m_doneCond);
+}
+
+int ReconstructWorkerPool::getWorkers() {
+    return m_threads.size() + 1;
+}
+
+bool ReconstructWorkerPool::run(Task task, void *context, int count) {
+    {
+        MutexLock lock(m_mutex);
+        m_task = task;
+        m_context = context;
+        m_count = count;
+        m_next = 0;
+        m_failed = false;
+        m_running = m_threads.size();
+        m_generation++;
+        pthread_cond_broadcast(&m_startCond);
+    }
+
+    // Calling thread works as the last worker.
+    execute(m_threads.size());
+
+    MutexLock lock(m_mutex);
+    while (m_running > 0) {
+        m_mutex.CondWait(&m_doneCond);
+    }
+    return !m_failed;
+}
+
+void *ReconstructWorkerPool::threadMain(void *arg) {
+    ThreadArg *threadArg = (ThreadArg *) arg;
+    threadArg->pool->workerLoop(threadArg->worker);
+    return NULL;
+}
+
+void ReconstructWorkerPool::workerLoop(int worker) {
+    uint64_t generation = 0;
+    while (true) {
+        {
+            MutexLock lock(m_mutex);
+            while (!m_stopped && m_generation == generation) {
+                m_mutex.CondWait(&m_startCond);
+            }
+            if (m_stopped) {
+                return;
+            }
+            generation = m_generation;
+        }
+
+        execute(worker);
+
+        MutexLock lock(m_mutex);
+        if (--m_running == 0) {
+            pthread_cond_signal(&m_doneCond);
+        }
+    }
+}
+
+void ReconstructWorkerPool::execute(int worker) {
+    int index;
+    while ((index = m_next.fetch_add(1)) < m_count) {
+        if (!m_task(m_context, worker, index)) {
+            m_failed = true;
+        }
+    }
+}
+
 FECQueue::FECQueue() {
-    m_currentFrame.frameIndex = UINT64_MAX;
-    m_recovered = true;
     m_fecFailure = false;
 
     if (!reed_solomon_initialized) {
@@ -19,209 +158,447 @@ FECQueue::FECQueue() {
 }
 
 FECQueue::~FECQueue() {
-    if (m_rs != NULL) {
-        reed_solomon_release(m_rs);
+}
+
+FECQueue::FrameSlot *FECQueue::findFrame(uint64_t frameIndex) {
+    for (auto &frame : m_frames) {
+        if (frame.used && frame.header.frameIndex == frameIndex) {
+            return &frame;
+        }
     }
+    return NULL;
 }
 
-// Add packet to queue. packet must point to buffer whose size=ALVR_MAX_PACKET_SIZE.
-void FECQueue::addVideoPacket(const VideoFrame *packet, int packetSize, bool &fecFailure) {
-    if (m_recovered && m_currentFrame.frameIndex == packet->frameIndex) {
-        return;
+// All packets of the frame have enough shards to be recovered.
+bool FECQueue::isComplete(FrameSlot *frame) {
+    if (frame->recovered) {
+        return true;
     }
-    if (m_currentFrame.frameIndex != packet->frameIndex) {
-        // New frame
-        if (!m_recovered) {
-            FrameLog(m_currentFrame.frameIndex,
-                     "Previous frame cannot be recovered. shards=%u:%u frameByteSize=%d fecPercentage=%d m_totalShards=%u m_shardPackets=%u m_blockSize=%u",
-                     m_totalDataShards,
-                     m_totalParityShards,
-                     m_currentFrame.frameByteSize, m_currentFrame.fecPercentage, m_totalShards,
-                     m_shardPackets, m_blockSize);
-            for (int packet = 0; packet < m_shardPackets; packet++) {
-                FrameLog(m_currentFrame.frameIndex,
-                         "packetIndex=%d, shards=%u:%u",
-                         packet, m_receivedDataShards[packet], m_receivedParityShards[packet]);
-            }
-            fecFailure = m_fecFailure = true;
+    for (int packet = 0; packet < frame->shardPackets; packet++) {
+        if (!frame->recoveredPacket[packet] &&
+            frame->receivedDataShards[packet] + frame->receivedParityShards[packet] < frame->totalDataShards) {
+            return false;
+        }
+    }
+    return true;
+}
+
+FECQueue::FrameSlot *FECQueue::getOldestFrame() {
+    FrameSlot *oldest = NULL;
+    for (auto &frame : m_frames) {
+        if (frame.used && (oldest == NULL || frame.header.frameIndex < oldest->header.frameIndex)) {
+            oldest = &frame;
+        }
+    }
+    return oldest;
+}
+
+void FECQueue::logFrameState(FrameSlot *frame, const char *message) {
+    FrameLog(frame->header.frameIndex,
+             "%s shards=%u:%u frameByteSize=%d fecPercentage=%d m_totalShards=%u m_shardPackets=%u m_blockSize=%u",
+             message,
+             frame->totalDataShards,
+             frame->totalParityShards,
+             frame->header.frameByteSize, frame->header.fecPercentage, frame->totalShards,
+             frame->shardPackets, frame->blockSize);
+    for (int packet = 0; packet < frame->shardPackets; packet++) {
+        FrameLog(frame->header.frameIndex,
+                 "packetIndex=%d, shards=%u:%u",
+                 packet, frame->receivedDataShards[packet], frame->receivedParityShards[packet]);
+    }
+}
+
+FECQueue::FrameSlot *FECQueue::startFrame(const VideoFrame *packet, bool &fecFailure) {
+    FrameSlot *frame = NULL;
+    for (auto &slot : m_frames) {
+        if (!slot.used) {
+            frame = &slot;
+        } else if (!slot.recovered && slot.header.frameIndex < packet->frameIndex) {
+            slot.overtaken = true;
         }
-        m_currentFrame = *packet;
-        m_recovered = false;
-        if (m_rs != NULL) {
-            reed_solomon_release(m_rs);
+    }
+    if (frame == NULL) {
+        // Window is full. Give up the oldest frame.
+        frame = getOldestFrame();
+        if (frame->header.frameIndex > packet->frameIndex) {
+            // Packet is older than all frames in the window.
+            FrameTrace::Instance().record(packet->frameIndex, TRACE_LATE_PACKET, packet->fecIndex);
+            return NULL;
         }
+        dropFrame(frame, fecFailure);
+    }
 
-        uint32_t fecDataPackets = (packet->frameByteSize + ALVR_MAX_VIDEO_BUFFER_SIZE - 1) /
-                                  ALVR_MAX_VIDEO_BUFFER_SIZE;
-        m_shardPackets = CalculateFECShardPackets(m_currentFrame.frameByteSize,
-                                                  m_currentFrame.fecPercentage);
-        m_blockSize = m_shardPackets * ALVR_MAX_VIDEO_BUFFER_SIZE;
+    frame->used = true;
+    frame->header = *packet;
+    frame->recovered = false;
+    frame->overtaken = false;
+    frame->reconstructTime = 0;
+    frame->nextFecIndex = 0;
+    frame->contiguousPackets = 0;
 
-        m_totalDataShards = (m_currentFrame.frameByteSize + m_blockSize - 1) / m_blockSize;
-        m_totalParityShards = CalculateParityShards(m_totalDataShards,
-                                                    m_currentFrame.fecPercentage);
-        m_totalShards = m_totalDataShards + m_totalParityShards;
+    uint32_t fecDataPackets = (packet->frameByteSize + ALVR_MAX_VIDEO_BUFFER_SIZE - 1) /
+                              ALVR_MAX_VIDEO_BUFFER_SIZE;
+    frame->dataPackets = fecDataPackets;
+    frame->shardPackets = CalculateFECShardPackets(packet->frameByteSize,
+                                                   packet->fecPercentage);
+    frame->blockSize = frame->shardPackets * ALVR_MAX_VIDEO_BUFFER_SIZE;
 
-        m_recoveredPacket.clear();
-        m_recoveredPacket.resize(m_shardPackets);
+    frame->totalDataShards = (packet->frameByteSize + frame->blockSize - 1) / frame->blockSize;
+    frame->totalParityShards = CalculateParityShards(frame->totalDataShards,
+                                                     packet->fecPercentage);
+    frame->totalShards = frame->totalDataShards + frame->totalParityShards;
 
-        m_receivedDataShards.clear();
-        m_receivedDataShards.resize(m_shardPackets);
-        m_receivedParityShards.clear();
-        m_receivedParityShards.resize(m_shardPackets);
+    frame->recoveredPacket.clear();
+    frame->recoveredPacket.resize(frame->shardPackets);
 
-        m_shards.resize(m_totalShards);
+    frame->receivedDataShards.clear();
+    frame->receivedDataShards.resize(frame->shardPackets);
+    frame->receivedParityShards.clear();
+    frame->receivedParityShards.resize(frame->shardPackets);
 
-        m_rs = reed_solomon_new(m_totalDataShards, m_totalParityShards);
-        if (m_rs == NULL) {
-            return;
-        }
+    if (m_shards.size() < frame->totalShards) {
+        m_shards.resize(frame->totalShards);
+    }
 
-        m_marks.resize(m_shardPackets);
-        for (int i = 0; i < m_shardPackets; i++) {
-            m_marks[i].resize(m_totalShards);
-            memset(&m_marks[i][0], 1, m_totalShards);
-        }
-
-        if (m_frameBuffer.size() < m_totalShards * m_blockSize) {
-            // Only expand buffer for performance reason.
-            m_frameBuffer.resize(m_totalShards * m_blockSize);
-        }
-        memset(&m_frameBuffer[0], 0, m_totalShards * m_blockSize);
-
-        // Padding packets are not sent, so we can fill bitmap by default.
-        size_t padding = (m_shardPackets - fecDataPackets % m_shardPackets) % m_shardPackets;
-        for (size_t i = 0; i < padding; i++) {
-            m_marks[m_shardPackets - i - 1][m_totalDataShards - 1] = 0;
-            m_receivedDataShards[m_shardPackets - i - 1]++;
-        }
-
-        // Calculate last packet counter of current frame to detect whole frame packet loss.
-        uint32_t startPacket;
-        uint32_t nextStartPacket;
-        if(m_currentFrame.fecIndex / m_shardPackets < m_totalDataShards) {
-            // First seen packet was data packet
-            startPacket = m_currentFrame.packetCounter - m_currentFrame.fecIndex;
-            nextStartPacket = m_currentFrame.packetCounter - m_currentFrame.fecIndex + m_totalShards * m_shardPackets - padding;
-        }else{
-            // was parity packet
-            startPacket = m_currentFrame.packetCounter - (m_currentFrame.fecIndex - padding);
-            uint64_t m_startOfParityPacket = m_currentFrame.packetCounter - (m_currentFrame.fecIndex - m_totalDataShards * m_shardPackets);
-            nextStartPacket = m_startOfParityPacket + m_totalParityShards * m_shardPackets;
-        }
-        if(m_firstPacketOfNextFrame != 0 && m_firstPacketOfNextFrame != startPacket) {
-            // Whole frame packet loss
-            FrameLog(m_currentFrame.frameIndex,
-                     "Previous frame was completely lost. shards=%u:%u frameByteSize=%d fecPercentage=%d m_totalShards=%u m_shardPackets=%u m_blockSize=%u",
-                     m_totalDataShards,
-                     m_totalParityShards,
-                     m_currentFrame.frameByteSize, m_currentFrame.fecPercentage, m_totalShards,
-                     m_shardPackets, m_blockSize);
-            for (int packet = 0; packet < m_shardPackets; packet++) {
-                FrameLog(m_currentFrame.frameIndex,
-                         "packetIndex=%d, shards=%u:%u",
-                         packet, m_receivedDataShards[packet], m_receivedParityShards[packet]);
-            }
-            fecFailure = m_fecFailure = true;
-        }
-        m_firstPacketOfNextFrame = nextStartPacket;
+    frame->rs = m_rsCache.get(frame->totalDataShards, frame->totalParityShards);
+    if (frame->rs == NULL) {
+        frame->used = false;
+        return NULL;
+    }
+
+    frame->marks.resize(frame->shardPackets);
+    for (int i = 0; i < frame->shardPackets; i++) {
+        frame->marks[i].resize(frame->totalShards);
+        memset(&frame->marks[i][0], 1, frame->totalShards);
+    }
+
+    if (frame->frameBuffer.size() < frame->totalShards * frame->blockSize) {
+        // Only expand buffer for performance reason.
+        frame->frameBuffer.resize(frame->totalShards * frame->blockSize);
+    }
+    memset(&frame->frameBuffer[0], 0, frame->totalShards * frame->blockSize);
+
+    // Padding packets are not sent, so we can fill bitmap by default.
+    size_t padding = (frame->shardPackets - fecDataPackets % frame->shardPackets) % frame->shardPackets;
+    for (size_t i = 0; i < padding; i++) {
+        frame->marks[frame->shardPackets - i - 1][frame->totalDataShards - 1] = 0;
+        frame->receivedDataShards[frame->shardPackets - i - 1]++;
+    }
+
+    // Calculate first packet counter of current and next frame to detect whole frame packet loss.
+    if (packet->fecIndex / frame->shardPackets < frame->totalDataShards) {
+        // First seen packet was data packet
+        frame->firstPacket = packet->packetCounter - packet->fecIndex;
+        frame->firstPacketOfNextFrame = packet->packetCounter - packet->fecIndex + frame->totalShards * frame->shardPackets - padding;
+    } else {
+        // was parity packet
+        frame->firstPacket = packet->packetCounter - (packet->fecIndex - padding);
+        uint64_t startOfParityPacket = packet->packetCounter - (packet->fecIndex - frame->totalDataShards * frame->shardPackets);
+        frame->firstPacketOfNextFrame = startOfParityPacket + frame->totalParityShards * frame->shardPackets;
+    }
 
-        FrameLog(m_currentFrame.frameIndex,
-                 "Start new frame. frameByteSize=%d fecPercentage=%d m_totalDataShards=%u m_totalParityShards=%u m_totalShards=%u m_shardPackets=%u m_blockSize=%u",
-                 m_currentFrame.frameByteSize, m_currentFrame.fecPercentage, m_totalDataShards,
-                 m_totalParityShards, m_totalShards, m_shardPackets, m_blockSize);
+    FrameTrace::Instance().record(packet->frameIndex, TRACE_FRAME_RECEIVE_START, packet->frameByteSize,
+                                  packet->fecPercentage);
+    return frame;
+}
+
+// Give up the frame which cannot be recovered.
+void FECQueue::dropFrame(FrameSlot *frame, bool &fecFailure) {
+    if (!frame->recovered) {
+        logFrameState(frame, "Previous frame cannot be recovered.");
+        fecFailure = m_fecFailure = true;
+    }
+    retireFrame(frame, fecFailure);
+}
+
+// Remove the frame from window. Frames must be retired in order of frameIndex.
+void FECQueue::retireFrame(FrameSlot *frame, bool &fecFailure) {
+    if (m_firstPacketOfNextFrame != 0 && m_firstPacketOfNextFrame != frame->firstPacket) {
+        // Whole frame packet loss
+        logFrameState(frame, "Previous frame was completely lost.");
+        fecFailure = m_fecFailure = true;
+    }
+    m_firstPacketOfNextFrame = frame->firstPacketOfNextFrame;
+    m_lastFrameIndex = frame->header.frameIndex;
+    frame->used = false;
+}
+
+// Add packet to queue. packet must point to buffer whose size=ALVR_MAX_PACKET_SIZE.
+void FECQueue::addVideoPacket(const VideoFrame *packet, int packetSize, bool &fecFailure) {
+    addVideoPacket(packet, ((const char *) packet) + sizeof(VideoFrame), packetSize, fecFailure);
+}
+
+void FECQueue::addVideoPacket(const VideoFrame *packet, const char *payload, int packetSize,
+                              bool &fecFailure) {
+    uint64_t latestFrameIndex = m_lastFrameIndex;
+    for (auto &slot : m_frames) {
+        if (slot.used && (latestFrameIndex == UINT64_MAX || slot.header.frameIndex > latestFrameIndex)) {
+            latestFrameIndex = slot.header.frameIndex;
+        }
+    }
+    if (latestFrameIndex != UINT64_MAX && packet->frameIndex + MAX_LATE_FRAMES < latestFrameIndex) {
+        LOGI("Frame index went back. Resetting FEC queue. frameIndex=%" PRIu64 " latest=%" PRIu64,
+             packet->frameIndex, latestFrameIndex);
+        reset();
+    }
+    if (m_lastFrameIndex != UINT64_MAX && packet->frameIndex <= m_lastFrameIndex) {
+        // Frame was already passed to decoder or dropped.
+        return;
+    }
+    FrameSlot *frame = findFrame(packet->frameIndex);
+    if (frame == NULL) {
+        // New frame
+        frame = startFrame(packet, fecFailure);
+        if (frame == NULL) {
+            return;
+        }
+    }
+    if (frame->recovered) {
+        return;
     }
-    size_t shardIndex = packet->fecIndex / m_shardPackets;
-    size_t packetIndex = packet->fecIndex % m_shardPackets;
-    if (m_marks[packetIndex][shardIndex] == 0) {
+    size_t shardIndex = packet->fecIndex / frame->shardPackets;
+    size_t packetIndex = packet->fecIndex % frame->shardPackets;
+    if (frame->marks[packetIndex][shardIndex] == 0) {
         // Duplicate packet.
         LOGI("Packet duplication. packetCounter=%d fecIndex=%d", packet->packetCounter,
              packet->fecIndex);
         return;
     }
-    m_marks[packetIndex][shardIndex] = 0;
-    if (shardIndex < m_totalDataShards) {
-        m_receivedDataShards[packetIndex]++;
+    frame->marks[packetIndex][shardIndex] = 0;
+    if (shardIndex < frame->totalDataShards) {
+        frame->receivedDataShards[packetIndex]++;
     } else {
-        m_receivedParityShards[packetIndex]++;
+        frame->receivedParityShards[packetIndex]++;
     }
 
-    char *p = &m_frameBuffer[packet->fecIndex * ALVR_MAX_VIDEO_BUFFER_SIZE];
-    char *payload = ((char *) packet) + sizeof(VideoFrame);
+    if (packet->fecIndex >= frame->nextFecIndex) {
+        frame->nextFecIndex = packet->fecIndex + 1;
+    }
+
+    char *p = &frame->frameBuffer[packet->fecIndex * ALVR_MAX_VIDEO_BUFFER_SIZE];
     int payloadSize = packetSize - sizeof(VideoFrame);
-    memcpy(p, payload, payloadSize);
+    if (payload != p) {
+        memcpy(p, payload, payloadSize);
+        LatencyCollector::Instance().memoryCopy(payloadSize);
+    } else {
+        // Payload was received into frame buffer directly.
+        LatencyCollector::Instance().zeroCopyPacket();
+    }
     if (payloadSize != ALVR_MAX_VIDEO_BUFFER_SIZE) {
         // Fill padding
         memset(p + payloadSize, 0, ALVR_MAX_VIDEO_BUFFER_SIZE - payloadSize);
     }
+
+    // Advance over data packets which can be passed to decoder before the frame is complete.
+    while (frame->contiguousPackets < frame->dataPackets &&
+           frame->marks[frame->contiguousPackets % frame->shardPackets][frame->contiguousPackets / frame->shardPackets] == 0) {
+        frame->contiguousPackets++;
+    }
 }
 
-bool FECQueue::reconstruct() {
-    if (m_recovered) {
+int FECQueue::predictPayloadPlacement(PayloadPlacement *placements, int count) {
+    // Packets are sent in order of fecIndex, so next packets probably belong to the newest frame.
+    FrameSlot *frame = NULL;
+    for (auto &slot : m_frames) {
+        if (slot.used && (frame == NULL || slot.header.frameIndex > frame->header.frameIndex)) {
+            frame = &slot;
+        }
+    }
+    if (frame == NULL || frame->recovered) {
+        return 0;
+    }
+
+    size_t totalPackets = frame->totalShards * frame->shardPackets;
+    size_t fecIndex = frame->nextFecIndex;
+    int predicted = 0;
+    for (; predicted < count; predicted++, fecIndex++) {
+        // Skip packets which we already have (padding packets are never sent).
+        while (fecIndex < totalPackets &&
+               frame->marks[fecIndex % frame->shardPackets][fecIndex / frame->shardPackets] == 0) {
+            fecIndex++;
+        }
+        if (fecIndex >= totalPackets) {
+            break;
+        }
+        placements[predicted].frameIndex = frame->header.frameIndex;
+        placements[predicted].fecIndex = fecIndex;
+        placements[predicted].buffer = &frame->frameBuffer[fecIndex * ALVR_MAX_VIDEO_BUFFER_SIZE];
+    }
+    return predicted;
+}
+
+bool FECQueue::reconstruct(bool &fecFailure) {
+    FrameSlot *frame = getOldestFrame();
+    if (frame == NULL) {
         return false;
     }
+    if (frame->recovered) {
+        return true;
+    }
+    if (!isComplete(frame)) {
+        // Packets of the oldest frame were sent before the newer frame, so the missing ones are lost
+        // once a newer frame is complete. Give up older frames without waiting for the window to fill.
+        FrameSlot *complete = NULL;
+        for (auto &slot : m_frames) {
+            if (slot.used && slot.header.frameIndex > frame->header.frameIndex && isComplete(&slot) &&
+                (complete == NULL || slot.header.frameIndex < complete->header.frameIndex)) {
+                complete = &slot;
+            }
+        }
+        if (complete == NULL) {
+            return false;
+        }
+        while ((frame = getOldestFrame()) != complete) {
+            dropFrame(frame, fecFailure);
+        }
+    }
 
     bool ret = true;
     // On server side, we encoded all buffer in one call of reed_solomon_encode.
     // But client side, we should split shards for more resilient recovery.
-    for (int packet = 0; packet < m_shardPackets; packet++) {
-        if (m_recoveredPacket[packet]) {
+    m_pendingPackets.clear();
+    for (int packet = 0; packet < frame->shardPackets; packet++) {
+        if (frame->recoveredPacket[packet]) {
             continue;
         }
-        if (m_receivedDataShards[packet] == m_totalDataShards) {
+        if (frame->receivedDataShards[packet] == frame->totalDataShards) {
             // We've received a full packet with no need for FEC.
-            //FrameLog(m_currentFrame.frameIndex, "No need for FEC. packetIndex=%d", packet);
-            m_recoveredPacket[packet] = true;
+            //FrameLog(frame->header.frameIndex, "No need for FEC. packetIndex=%d", packet);
+            frame->recoveredPacket[packet] = true;
             continue;
         }
-        m_rs->shards = m_receivedDataShards[packet] +
-                       m_receivedParityShards[packet]; //Don't let RS complain about missing parity packets
+        // reed_solomon is shared between frames by m_rsCache, so we must not modify it here.
+        size_t receivedShards = frame->receivedDataShards[packet] +
+                                frame->receivedParityShards[packet];
 
-        if (m_rs->shards < m_totalDataShards) {
+        if (receivedShards < frame->totalDataShards) {
             // Not enough parity data
             ret = false;
             continue;
         }
+        m_pendingPackets.push_back(packet);
+    }
 
-        FrameLog(m_currentFrame.frameIndex,
-                 "Recovering. packetIndex=%d receivedDataShards=%d/%d receivedParityShards=%d/%d",
-                 packet, m_receivedDataShards[packet], m_totalDataShards,
-                 m_receivedParityShards[packet], m_totalParityShards);
-
-        for (int i = 0; i < m_totalShards; i++) {
-            m_shards[i] = &m_frameBuffer[(i * m_shardPackets + packet) *
-                                         ALVR_MAX_VIDEO_BUFFER_SIZE];
+    if (!m_pendingPackets.empty()) {
+        uint64_t startTime = getTimestampUs();
+        bool result;
+        if (m_workerPool && m_pendingPackets.size() >= m_parallelThreshold) {
+            result = recoverPacketsParallel(frame);
+        } else {
+            result = true;
+            for (int packet : m_pendingPackets) {
+                result = recoverPacket(frame, packet, frame->rs, m_shards) && result;
+            }
+        }
+        frame->reconstructTime += getTimestampUs() - startTime;
+        for (int packet : m_pendingPackets) {
+            frame->recoveredPacket[packet] = true;
         }
-
-        int result = reed_solomon_reconstruct(m_rs, (unsigned char **) &m_shards[0],
-                                              &m_marks[packet][0],
-                                              m_totalShards, ALVR_MAX_VIDEO_BUFFER_SIZE);
-        m_recoveredPacket[packet] = true;
         // We should always provide enough parity to recover the missing data successfully.
         // If this fails, something is probably wrong with our FEC state.
-        if (result != 0) {
+        if (!result) {
             LOGE("reed_solomon_reconstruct failed.");
             return false;
         }
-        /*
-        for(int i = 0; i < m_totalShards * m_shardPackets; i++) {
-            char *p = &frameBuffer[ALVR_MAX_VIDEO_BUFFER_SIZE * i];
-            LOGI("Reconstructed packets. i=%d shardIndex=%d buffer=[%02X %02X %02X %02X %02X ...]", i, i / m_shardPackets, p[0], p[1], p[2], p[3], p[4]);
-        }*/
     }
     if (ret) {
-        m_recovered = true;
-        FrameLog(m_currentFrame.frameIndex, "Frame was successfully recovered by FEC.");
+        frame->recovered = true;
+        if (frame->overtaken) {
+            m_lateRecoveredFrames++;
+            LatencyCollector::Instance().lateRecovered();
+        }
+        if (frame->reconstructTime != 0) {
+            LatencyCollector::Instance().fecReconstructed(frame->header.frameIndex, frame->reconstructTime);
+        }
+        FrameTrace::Instance().record(frame->header.frameIndex, TRACE_FEC_RECOVERED, (int32_t) frame->reconstructTime,
+                                      frame->overtaken);
     }
     return ret;
 }
 
+// Recover single shard packet (column of shards) of the frame.
+bool FECQueue::recoverPacket(FrameSlot *frame, int packet, reed_solomon *rs, std::vector<char *> &shards) {
+    FrameTrace::Instance().record(frame->header.frameIndex, TRACE_FEC_RECOVERING, packet,
+                                  frame->receivedDataShards[packet]);
+
+    if (shards.size() < frame->totalShards) {
+        shards.resize(frame->totalShards);
+    }
+    for (int i = 0; i < frame->totalShards; i++) {
+        shards[i] = &frame->frameBuffer[(i * frame->shardPackets + packet) *
+                                        ALVR_MAX_VIDEO_BUFFER_SIZE];
+    }
+
+    int result = reed_solomon_reconstruct(rs, (unsigned char **) &shards[0],
+                                          &frame->marks[packet][0],
+                                          frame->totalShards, ALVR_MAX_VIDEO_BUFFER_SIZE);
+    return result == 0;
+}
+
+bool FECQueue::recoverPacketsParallel(FrameSlot *frame) {
+    for (auto &state : m_workerStates) {
+        state->frame = frame;
+    }
+    return m_workerPool->run(recoverPacketTask, this, m_pendingPackets.size());
+}
+
+bool FECQueue::recoverPacketTask(void *context, int worker, int index) {
+    FECQueue *queue = (FECQueue *) context;
+    WorkerState *state = queue->m_workerStates[worker].get();
+    FrameSlot *frame = state->frame;
+
+    reed_solomon *rs = state->rsCache.get(frame->totalDataShards, frame->totalParityShards);
+    if (rs == NULL) {
+        return false;
+    }
+    return queue->recoverPacket(frame, queue->m_pendingPackets[index], rs, state->shards);
+}
+
+void FECQueue::setParallelReconstruct(int threads, int minShardPackets) {
+    m_workerPool.reset();
+    m_workerStates.clear();
+    m_parallelThreshold = minShardPackets;
+    if (threads <= 0) {
+        return;
+    }
+    m_workerPool.reset(new ReconstructWorkerPool(threads));
+    for (int i = 0; i < m_workerPool->getWorkers(); i++) {
+        m_workerStates.push_back(std::unique_ptr<WorkerState>(new WorkerState()));
+    }
+    LOGI("Parallel FEC reconstruction enabled. threads=%d minShardPackets=%d", threads, minShardPackets);
+}
+
+bool FECQueue::getContiguousData(const char **buffer, int *contiguousBytes, int *frameByteSize,
+                                 uint64_t *frameIndex) {
+    FrameSlot *frame = getOldestFrame();
+    if (frame == NULL) {
+        return false;
+    }
+    *buffer = &frame->frameBuffer[0];
+    *contiguousBytes = std::min((int) (frame->contiguousPackets * ALVR_MAX_VIDEO_BUFFER_SIZE),
+                                (int) frame->header.frameByteSize);
+    *frameByteSize = frame->header.frameByteSize;
+    *frameIndex = frame->header.frameIndex;
+    return true;
+}
+
 const char *FECQueue::getFrameBuffer() {
-    return &m_frameBuffer[0];
+    return &getOldestFrame()->frameBuffer[0];
 }
 
 int FECQueue::getFrameByteSize() {
-    return m_currentFrame.frameByteSize;
+    return getOldestFrame()->header.frameByteSize;
+}
+
+uint64_t FECQueue::getFrameIndex() {
+    return getOldestFrame()->header.frameIndex;
+}
+
+void FECQueue::releaseFrame(bool &fecFailure) {
+    FrameSlot *frame = getOldestFrame();
+    if (frame != NULL) {
+        retireFrame(frame, fecFailure);
+    }
 }
 
 bool FECQueue::fecFailure() {
@@ -231,3 +608,16 @@ bool FECQueue::fecFailure() {
 void FECQueue::clearFecFailure() {
     m_fecFailure = false;
 }
+
+void FECQueue::reset() {
+    for (auto &frame : m_frames) {
+        frame.used = false;
+    }
+    m_lastFrameIndex = UINT64_MAX;
+    m_firstPacketOfNextFrame = 0;
+    m_fecFailure = false;
+}
+
+uint64_t FECQueue::getLateRecoveredFrames() {
+    return m_lateRecoveredFrames;
+}
@@ -3,8 +3,87 @@
 
 #include <list>
 #include <vector>
+#include <memory>
+#include <atomic>
+#include <pthread.h>
 #include "packet_types.h"
 #include "reedsolomon/rs.h"
+#include "utils.h"
+
+// LRU cache of reed_solomon instances keyed by shard geometry.
+// Creating reed_solomon builds encoding matrix, so we reuse it when geometry is repeated.
+class ReedSolomonCache {
+public:
+    ~ReedSolomonCache();
+
+    // Returned instance is owned by cache and valid until MAX_ENTRIES other geometries are requested.
+    reed_solomon *get(int dataShards, int parityShards);
+
+    uint64_t getHits();
+    uint64_t getMisses();
+
+    static const int MAX_ENTRIES = 8;
+private:
+    struct Entry {
+        int dataShards;
+        int parityShards;
+        uint64_t lastUsed;
+        reed_solomon *rs;
+    };
+    Entry m_entries[MAX_ENTRIES] = {};
+    uint64_t m_clock = 0;
+    uint64_t m_hits = 0;
+    uint64_t m_misses = 0;
+};
+
+// Predicted destination of video packet payload for zero-copy receive.
+struct PayloadPlacement {
+    uint64_t frameIndex;
+    uint32_t fecIndex;
+    // Destination with ALVR_MAX_VIDEO_BUFFER_SIZE bytes. NULL if no prediction.
+    char *buffer;
+};
+
+// Fixed pool of threads to run independent tasks of single frame in parallel.
+// Calling thread of run() also executes tasks as the last worker.
+class ReconstructWorkerPool {
+public:
+    // Returns false on failure.
+    typedef bool (*Task)(void *context, int worker, int index);
+
+    ReconstructWorkerPool(int threads);
+    ~ReconstructWorkerPool();
+
+    // Number of workers including calling thread.
+    int getWorkers();
+    // Call task for each index in [0, count) and wait for completion.
+    // Returns false if any task failed.
+    bool run(Task task, void *context, int count);
+private:
+    struct ThreadArg {
+        ReconstructWorkerPool *pool;
+        int worker;
+    };
+    static void *threadMain(void *arg);
+    void workerLoop(int worker);
+    void execute(int worker);
+
+    std::vector<pthread_t> m_threads;
+    std::vector<ThreadArg> m_threadArgs;
+
+    Mutex m_mutex;
+    pthread_cond_t m_startCond = PTHREAD_COND_INITIALIZER;
+    pthread_cond_t m_doneCond = PTHREAD_COND_INITIALIZER;
+    uint64_t m_generation = 0;
+    int m_running = 0;
+    bool m_stopped = false;
+
+    Task m_task = NULL;
+    void *m_context = NULL;
+    int m_count = 0;
+    std::atomic<int> m_next;
+    std::atomic<bool> m_failed;
+};
 
 class FECQueue {
 public:
@@ -12,32 +91,115 @@ public:
     ~FECQueue();
 
     void addVideoPacket(const VideoFrame *packet, int packetSize, bool &fecFailure);
-    bool reconstruct();
+    // payload may point to the destination returned by predictPayloadPlacement. Then no copy occurs.
+    void addVideoPacket(const VideoFrame *packet, const char *payload, int packetSize, bool &fecFailure);
+    // Predict where payloads of next count packets should be stored, assuming packets arrive in order.
+    // Returns number of predicted placements.
+    int predictPayloadPlacement(PayloadPlacement *placements, int count);
+    // Try to recover the oldest frame in the window. If it cannot be recovered yet but a newer frame is
+    // complete, frames older than the complete one are given up.
+    // Returns true when the oldest frame is complete and can be passed to decoder.
+    bool reconstruct(bool &fecFailure);
+    // Data of the oldest frame which has been received contiguously from the beginning.
+    // Returns false if there is no frame in the window. contiguousBytes can be less than frameByteSize.
+    bool getContiguousData(const char **buffer, int *contiguousBytes, int *frameByteSize, uint64_t *frameIndex);
+    // Accessors for the oldest frame. Valid only after reconstruct() returned true.
     const char *getFrameBuffer();
     int getFrameByteSize();
+    uint64_t getFrameIndex();
+    // Release the oldest frame and return its buffer to the pool.
+    void releaseFrame(bool &fecFailure);
 
     bool fecFailure();
     void clearFecFailure();
+    // Forget all frames for new stream. (Frame index restarts on reconnection)
+    void reset();
+
+    uint64_t getLateRecoveredFrames();
+
+    // Recover shard packets of a frame on worker threads when at least minShardPackets need recovery.
+    // threads=0 disables parallel reconstruction.
+    void setParallelReconstruct(int threads, int minShardPackets);
 private:
+    // Number of frames which can be reassembled concurrently.
+    // Packets of next frame may arrive before the last parity packets of current frame on Wi-Fi,
+    // so we keep a few frames in flight instead of giving up on the first packet of next frame.
+    static const int MAX_FRAMES_IN_FLIGHT = 3;
+    // Packet older than the last released frame by more than this is the start of new stream
+    // (server was restarted), not a late packet.
+    static const uint64_t MAX_LATE_FRAMES = 60;
+
+    struct FrameSlot {
+        bool used = false;
+        VideoFrame header;
+        size_t shardPackets;
+        size_t blockSize;
+        size_t totalDataShards;
+        size_t totalParityShards;
+        size_t totalShards;
+        // Packet counter of first packet of this frame and next frame.
+        // Used to detect whole frame packet loss.
+        uint32_t firstPacket;
+        uint32_t firstPacketOfNextFrame;
+        // Bitmap of missing shards for each shard packet. 1=missing 0=received.
+        std::vector<std::vector<unsigned char>> marks;
+        std::vector<char> frameBuffer;
+        std::vector<uint32_t> receivedDataShards;
+        std::vector<uint32_t> receivedParityShards;
+        std::vector<bool> recoveredPacket;
+        // fecIndex following the last received packet.
+        uint32_t nextFecIndex;
+        // Number of data packets (not padding) of this frame.
+        uint32_t dataPackets;
+        // Number of data packets received without gap from the first packet.
+        uint32_t contiguousPackets;
+        bool recovered;
+        // Packets of newer frame have arrived before this frame was recovered.
+        bool overtaken;
+        // Owned by m_rsCache.
+        reed_solomon *rs = NULL;
+        // Time spent for FEC recovery of this frame in microseconds.
+        uint64_t reconstructTime;
+    };
+
+    // Each worker of parallel reconstruction has own reed_solomon because reed_solomon is not thread safe.
+    struct WorkerState {
+        FrameSlot *frame;
+        ReedSolomonCache rsCache;
+        std::vector<char *> shards;
+    };
 
-    VideoFrame m_currentFrame;
-    size_t m_shardPackets;
-    size_t m_blockSize;
-    size_t m_totalDataShards;
-    size_t m_totalParityShards;
-    size_t m_totalShards;
+    FrameSlot *findFrame(uint64_t frameIndex);
+    FrameSlot *getOldestFrame();
+    bool isComplete(FrameSlot *frame);
+    FrameSlot *startFrame(const VideoFrame *packet, bool &fecFailure);
+    void dropFrame(FrameSlot *frame, bool &fecFailure);
+    void retireFrame(FrameSlot *frame, bool &fecFailure);
+    void logFrameState(FrameSlot *frame, const char *message);
+    bool recoverPacket(FrameSlot *frame, int packet, reed_solomon *rs, std::vector<char *> &shards);
+    bool recoverPacketsParallel(FrameSlot *frame);
+    static bool recoverPacketTask(void *context, int worker, int index);
+
+    FrameSlot m_frames[MAX_FRAMES_IN_FLIGHT];
+    // Frame index of last released (or dropped) frame. Packets of older frames are ignored.
+    uint64_t m_lastFrameIndex = UINT64_MAX;
     uint32_t m_firstPacketOfNextFrame = 0;
-    std::vector<std::vector<unsigned char>> m_marks;
-    std::vector<char> m_frameBuffer;
-    std::vector<uint32_t> m_receivedDataShards;
-    std::vector<uint32_t> m_receivedParityShards;
-    std::vector<bool> m_recoveredPacket;
     std::vector<char *> m_shards;
-    bool m_recovered;
+    ReedSolomonCache m_rsCache;
     bool m_fecFailure;
-    reed_solomon *m_rs = NULL;
+    uint64_t m_lateRecoveredFrames = 0;
+
+    std::vector<std::unique_ptr<WorkerState>> m_workerStates;
+    // Declared after m_workerStates so that worker threads are stopped first.
+    std::unique_ptr<ReconstructWorkerPool> m_workerPool;
+    int m_parallelThreshold = 0;
+    // Shard packets of current frame to be recovered.
+    std::vector<int> m_pendingPackets;
 
     static bool reed_solomon_initialized;
+
+    // Frames in flight must not lose their reed_solomon by eviction from the cache.
+    static_assert(MAX_FRAMES_IN_FLIGHT < ReedSolomonCache::MAX_ENTRIES, "ReedSolomonCache is too small");
 };
 
 #endif //ALVRCLIENT_FEC_H
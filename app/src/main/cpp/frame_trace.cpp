@@ -0,0 +1,118 @@
+#include <stdio.h>
+#include <string.h>
+#include <time.h>
+#include <jni.h>
+#include "frame_trace.h"
+#include "utils.h"
+
+FrameTrace FrameTrace::m_Instance;
+
+FrameTrace::FrameTrace() : m_head(0) {
+    memset(m_records, 0, sizeof(m_records));
+}
+
+FrameTrace &FrameTrace::Instance() {
+    return m_Instance;
+}
+
+static uint64_t monotonicNs() {
+    timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (uint64_t) ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+}
+
+// Writers claim a slot by m_head and publish it by sequence, as seqlock.
+// dump() copies a record only when its sequence is the expected one before and after the copy.
+void FrameTrace::record(uint64_t frameIndex, uint32_t event, int32_t arg1, int32_t arg2) {
+    uint64_t sequence = m_head.fetch_add(1, std::memory_order_relaxed);
+    FrameTraceRecord &record = m_records[sequence & (CAPACITY - 1)];
+
+    __atomic_store_n(&record.sequence, 0, __ATOMIC_RELAXED);
+    std::atomic_thread_fence(std::memory_order_release);
+
+    record.frameIndex = frameIndex;
+    record.time = monotonicNs();
+    record.event = event;
+    record.arg1 = arg1;
+    record.arg2 = arg2;
+    __atomic_store_n(&record.sequence, (uint32_t) (sequence + 1), __ATOMIC_RELEASE);
+}
+
+uint64_t FrameTrace::getRecordCount() const {
+    return m_head.load(std::memory_order_relaxed);
+}
+
+int64_t FrameTrace::dump(const char *path) {
+    FILE *fp = fopen(path, "wb");
+    if (fp == NULL) {
+        LOGE("Failed to open frame trace file. Path=%s", path);
+        return -1;
+    }
+
+    uint64_t head = m_head.load(std::memory_order_acquire);
+    uint64_t first = head > CAPACITY ? head - CAPACITY : 0;
+
+    FrameTraceFileHeader header;
+    memset(&header, 0, sizeof(header));
+    memcpy(header.magic, FRAME_TRACE_MAGIC, sizeof(header.magic));
+    header.version = FRAME_TRACE_VERSION;
+    header.recordSize = sizeof(FrameTraceRecord);
+    header.firstSequence = first;
+    // recordCount is written after records.
+    bool ok = fwrite(&header, sizeof(header), 1, fp) == 1;
+
+    // Records are written in chunks to keep dump off the heap.
+    FrameTraceRecord chunk[256];
+    int chunkCount = 0;
+    uint64_t count = 0;
+    for (uint64_t sequence = first; sequence < head && ok; sequence++) {
+        const FrameTraceRecord &record = m_records[sequence & (CAPACITY - 1)];
+        uint32_t expected = (uint32_t) (sequence + 1);
+        if (__atomic_load_n(&record.sequence, __ATOMIC_ACQUIRE) != expected) {
+            // Being written or already overwritten by newer record.
+            continue;
+        }
+        chunk[chunkCount] = record;
+        std::atomic_thread_fence(std::memory_order_acquire);
+        if (__atomic_load_n(&record.sequence, __ATOMIC_RELAXED) != expected) {
+            continue;
+        }
+        chunkCount++;
+        count++;
+        if (chunkCount == sizeof(chunk) / sizeof(chunk[0])) {
+            ok = fwrite(chunk, sizeof(chunk[0]), chunkCount, fp) == (size_t) chunkCount;
+            chunkCount = 0;
+        }
+    }
+    if (ok && chunkCount > 0) {
+        ok = fwrite(chunk, sizeof(chunk[0]), chunkCount, fp) == (size_t) chunkCount;
+    }
+
+    header.recordCount = count;
+    if (ok) {
+        ok = fseek(fp, 0, SEEK_SET) == 0 && fwrite(&header, sizeof(header), 1, fp) == 1;
+    }
+    if (fclose(fp) != 0) {
+        ok = false;
+    }
+    if (!ok) {
+        LOGE("Failed to write frame trace file. Path=%s", path);
+        return -1;
+    }
+    LOGI("Frame trace was dumped. Path=%s Records=%" PRIu64 " Sequence=%" PRIu64 "-%" PRIu64, path, count, first, head);
+    return count;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_polygraphene_alvr_FrameTrace_Record(JNIEnv *env, jclass type, jlong frameIndex, jint event,
+                                             jint arg1, jint arg2) {
+    FrameTrace::Instance().record((uint64_t) frameIndex, (uint32_t) event, arg1, arg2);
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_polygraphene_alvr_FrameTrace_Dump(JNIEnv *env, jclass type, jstring path_) {
+    std::string path = GetStringFromJNIString(env, path_);
+    return FrameTrace::Instance().dump(path.c_str());
+}
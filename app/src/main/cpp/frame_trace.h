@@ -0,0 +1,124 @@
+#ifndef ALVRCLIENT_FRAME_TRACE_H
+#define ALVRCLIENT_FRAME_TRACE_H
+
+#include <stdint.h>
+#include <atomic>
+
+// Per-frame events. Ids are written to dump file, so never renumber them.
+// Java events must match FrameTrace.java.
+enum FrameTraceEvent {
+    // Native (receiver thread)
+    TRACE_FRAME_RECEIVE_START = 1, // arg1=frameByteSize arg2=fecPercentage
+    TRACE_FRAME_RECEIVED = 2,      // Frame was completed. arg1=frameByteSize
+    TRACE_FEC_RECOVERING = 3,      // arg1=shard packet arg2=receivedDataShards
+    TRACE_FEC_RECOVERED = 4,       // arg1=reconstructTime(us) arg2=overtaken
+    TRACE_LATE_PACKET = 5,         // arg1=fecIndex
+    TRACE_NAL_PUSHED = 6,          // arg1=length arg2=partialFrame
+    TRACE_NAL_DROPPED = 7,         // arg1=length arg2=reason (NalDropReason in nal.h)
+    TRACE_STREAM_ABORTED = 8,      // arg1=streamed offset
+    TRACE_LATENCY = 9,             // arg1=transportLatency(us) arg2=decodeLatency(us)
+
+    // Java (DecoderThread, OutputFrameQueue)
+    TRACE_NAL_RECEIVED = 100,      // arg1=NAL type arg2=length
+    TRACE_FEED_CONFIG = 101,       // arg1=length
+    TRACE_FEED_FRAME = 102,        // arg1=length arg2=NAL type
+    TRACE_FEED_SLICE = 103,        // arg1=length arg2=last
+    TRACE_IGNORE_FRAME = 104,      // arg1=NAL type
+    TRACE_PARTIAL_INCOMPLETE = 105,
+    TRACE_INPUT_SPLIT = 106,       // arg1=length arg2=chunks
+    TRACE_DECODER_OUTPUT = 107,    // arg1=codec buffer index
+    TRACE_RENDER = 108,            // arg1=queue occupancy arg2=skipped frames
+};
+
+inline const char *FrameTraceEventName(uint32_t event) {
+    switch (event) {
+        case TRACE_FRAME_RECEIVE_START:
+            return "FrameReceiveStart";
+        case TRACE_FRAME_RECEIVED:
+            return "FrameReceived";
+        case TRACE_FEC_RECOVERING:
+            return "FecRecovering";
+        case TRACE_FEC_RECOVERED:
+            return "FecRecovered";
+        case TRACE_LATE_PACKET:
+            return "LatePacket";
+        case TRACE_NAL_PUSHED:
+            return "NalPushed";
+        case TRACE_NAL_DROPPED:
+            return "NalDropped";
+        case TRACE_STREAM_ABORTED:
+            return "StreamAborted";
+        case TRACE_LATENCY:
+            return "Latency";
+        case TRACE_NAL_RECEIVED:
+            return "NalReceived";
+        case TRACE_FEED_CONFIG:
+            return "FeedConfig";
+        case TRACE_FEED_FRAME:
+            return "FeedFrame";
+        case TRACE_FEED_SLICE:
+            return "FeedSlice";
+        case TRACE_IGNORE_FRAME:
+            return "IgnoreFrame";
+        case TRACE_PARTIAL_INCOMPLETE:
+            return "PartialIncomplete";
+        case TRACE_INPUT_SPLIT:
+            return "InputSplit";
+        case TRACE_DECODER_OUTPUT:
+            return "DecoderOutput";
+        case TRACE_RENDER:
+            return "Render";
+        default:
+            return "Unknown";
+    }
+}
+
+// Record layout of ring and dump file. (Little endian)
+struct FrameTraceRecord {
+    uint64_t frameIndex;
+    // CLOCK_MONOTONIC in nanosec. Same clock as System.nanoTime() on Java.
+    uint64_t time;
+    uint32_t event;
+    int32_t arg1;
+    int32_t arg2;
+    // Lower 32 bits of (record sequence + 1). 0 while record is being written.
+    uint32_t sequence;
+};
+
+struct FrameTraceFileHeader {
+    char magic[8]; // "ALVRTRC"
+    uint32_t version;
+    uint32_t recordSize;
+    uint64_t recordCount;
+    // Sequence of the first record in file. Gaps in sequence are overwritten or incomplete records.
+    uint64_t firstSequence;
+};
+
+static const char FRAME_TRACE_MAGIC[8] = "ALVRTRC";
+static const uint32_t FRAME_TRACE_VERSION = 1;
+
+// Fixed size ring of binary per-frame events, replacing formatted FrameLog on per-frame paths.
+// Any thread can record without lock, allocation or formatting. When the ring is full, the oldest
+// records are overwritten. Ring is dumped to file on demand (FrameTrace.dump on Java) and
+// decoded on host by frame_trace_decode.
+class FrameTrace {
+public:
+    static FrameTrace &Instance();
+
+    void record(uint64_t frameIndex, uint32_t event, int32_t arg1 = 0, int32_t arg2 = 0);
+    // Write snapshot of the ring to path. Returns number of records written or -1 on error.
+    int64_t dump(const char *path);
+    uint64_t getRecordCount() const;
+
+    // 2MB. About 40 seconds of events at 72fps.
+    static const uint32_t CAPACITY = 1 << 16;
+private:
+    FrameTrace();
+
+    static FrameTrace m_Instance;
+
+    std::atomic<uint64_t> m_head;
+    FrameTraceRecord m_records[CAPACITY];
+};
+
+#endif //ALVRCLIENT_FRAME_TRACE_H
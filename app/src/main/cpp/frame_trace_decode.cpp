@@ -0,0 +1,127 @@
+// Decodes frame trace dump (FrameTrace.dump) and prints per-frame timelines on host.
+// Time of each event is relative to the first event of the frame. Summary shows average time from the
+// first event of a frame to the first occurrence of each event type.
+//
+// Build and run on host (not part of native-lib):
+//   g++ -O2 -std=c++14 -o frame_trace_decode frame_trace_decode.cpp
+//   adb pull /sdcard/Android/media/com.polygraphene.alvr/frametrace-XXX.bin
+//   ./frame_trace_decode frametrace-XXX.bin [frameIndex]
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <stdint.h>
+#include <algorithm>
+#include <map>
+#include <vector>
+#include "frame_trace.h"
+
+struct EventStat {
+    uint64_t count = 0;
+    uint64_t totalNs = 0;
+    uint64_t maxNs = 0;
+};
+
+static bool readTrace(const char *path, FrameTraceFileHeader &header, std::vector<FrameTraceRecord> &records) {
+    FILE *fp = fopen(path, "rb");
+    if (fp == NULL) {
+        fprintf(stderr, "Cannot open %s\n", path);
+        return false;
+    }
+    bool ok = fread(&header, sizeof(header), 1, fp) == 1;
+    if (!ok || memcmp(header.magic, FRAME_TRACE_MAGIC, sizeof(header.magic)) != 0) {
+        fprintf(stderr, "Not a frame trace file: %s\n", path);
+        fclose(fp);
+        return false;
+    }
+    if (header.version != FRAME_TRACE_VERSION || header.recordSize != sizeof(FrameTraceRecord)) {
+        fprintf(stderr, "Unsupported frame trace version=%u recordSize=%u\n", header.version, header.recordSize);
+        fclose(fp);
+        return false;
+    }
+    records.resize(header.recordCount);
+    size_t n = fread(records.data(), sizeof(FrameTraceRecord), records.size(), fp);
+    fclose(fp);
+    if (n != records.size()) {
+        fprintf(stderr, "Truncated frame trace. Records=%zu/%zu\n", n, records.size());
+        records.resize(n);
+    }
+    return true;
+}
+
+static void printTimeline(uint64_t frameIndex, const std::vector<FrameTraceRecord> &events, uint64_t traceStart) {
+    uint64_t start = events[0].time;
+    printf("[Frame %llu] at %.3f ms\n", (unsigned long long) frameIndex, (start - traceStart) / 1e6);
+    for (const FrameTraceRecord &record : events) {
+        printf("  %+9.3f ms  %-18s %d %d\n", (record.time - start) / 1e6, FrameTraceEventName(record.event),
+               record.arg1, record.arg2);
+    }
+}
+
+int main(int argc, char **argv) {
+    if (argc < 2) {
+        fprintf(stderr, "Usage: %s trace.bin [frameIndex]\n", argv[0]);
+        return 1;
+    }
+    FrameTraceFileHeader header;
+    std::vector<FrameTraceRecord> records;
+    if (!readTrace(argv[1], header, records)) {
+        return 1;
+    }
+    bool filter = argc >= 3;
+    uint64_t filterFrame = filter ? strtoull(argv[2], NULL, 10) : 0;
+
+    // Records are in order of sequence. Missing sequences were overwritten or being written on dump.
+    uint64_t missing = 0;
+    for (size_t i = 1; i < records.size(); i++) {
+        missing += (uint32_t) (records[i].sequence - records[i - 1].sequence - 1);
+    }
+
+    std::map<uint64_t, std::vector<FrameTraceRecord>> frames;
+    for (const FrameTraceRecord &record : records) {
+        frames[record.frameIndex].push_back(record);
+    }
+
+    // Order frames by their first event.
+    std::vector<std::pair<uint64_t, uint64_t>> order;
+    for (auto &frame : frames) {
+        // Sequence is taken before timestamp, so records of different threads can be slightly out of order.
+        std::stable_sort(frame.second.begin(), frame.second.end(),
+                         [](const FrameTraceRecord &a, const FrameTraceRecord &b) { return a.time < b.time; });
+        order.push_back(std::make_pair(frame.second[0].time, frame.first));
+    }
+    std::sort(order.begin(), order.end());
+    uint64_t traceStart = order.empty() ? 0 : order[0].first;
+
+    std::map<uint32_t, EventStat> stats;
+    for (auto &item : order) {
+        const std::vector<FrameTraceRecord> &events = frames[item.second];
+        if (!filter || item.second == filterFrame) {
+            printTimeline(item.second, events, traceStart);
+        }
+        uint64_t start = events[0].time;
+        std::map<uint32_t, bool> seen;
+        for (const FrameTraceRecord &record : events) {
+            if (seen[record.event]) {
+                continue;
+            }
+            seen[record.event] = true;
+            EventStat &stat = stats[record.event];
+            uint64_t offset = record.time - start;
+            stat.count++;
+            stat.totalNs += offset;
+            stat.maxNs = std::max(stat.maxNs, offset);
+        }
+    }
+
+    printf("\nRecords=%llu FirstSequence=%llu Missing=%llu Frames=%zu Duration=%.3f s\n",
+           (unsigned long long) records.size(), (unsigned long long) header.firstSequence,
+           (unsigned long long) missing, frames.size(),
+           records.empty() ? 0.0 : (order.back().first - traceStart) / 1e9);
+    printf("%-18s %8s %12s %12s\n", "Event", "Frames", "Avg(ms)", "Max(ms)");
+    for (auto &item : stats) {
+        printf("%-18s %8llu %12.3f %12.3f\n", FrameTraceEventName(item.first), (unsigned long long) item.second.count,
+               item.second.totalNs / 1e6 / item.second.count, item.second.maxNs / 1e6);
+    }
+    return 0;
+}
@@ -1,6 +1,7 @@
 #include <jni.h>
 #include "latency_collector.h"
 #include "utils.h"
+#include "frame_trace.h"
 
 LatencyCollector LatencyCollector::m_Instance;
 
@@ -29,8 +30,33 @@ void LatencyCollector::receivedFirst(uint64_t frameIndex) {
 void LatencyCollector::receivedLast(uint64_t frameIndex) {
     getFrame(frameIndex).receivedLast = getTimestampUs();
 }
+void LatencyCollector::sliceStreamed(uint64_t frameIndex) {
+    getFrame(frameIndex).sliceStreamed = true;
+}
+// Called for each NAL of frame. Only the first one is recorded.
 void LatencyCollector::decoderInput(uint64_t frameIndex) {
-    getFrame(frameIndex).decoderInput = getTimestampUs();
+    auto &frame = getFrame(frameIndex);
+    if (frame.decoderInput != 0) {
+        return;
+    }
+    frame.decoderInput = getTimestampUs();
+    if (frame.receivedFirst == 0 || frame.decoderInput < frame.receivedFirst) {
+        return;
+    }
+
+    uint64_t current = getTimestampUs() / USECS_IN_SEC;
+    if(m_StatisticsTime != current){
+        m_StatisticsTime = current;
+        resetSecond();
+    }
+    uint64_t latency = frame.decoderInput - frame.receivedFirst;
+    uint64_t *stat = m_ReceiveToDecoder[frame.sliceStreamed ? 0 : 1];
+    // Total
+    stat[0] += latency;
+    // Max
+    stat[1] = std::max(stat[1], latency);
+    // Count
+    stat[2]++;
 }
 void LatencyCollector::decoderOutput(uint64_t frameIndex) {
     getFrame(frameIndex).decoderOutput = getTimestampUs();
@@ -42,18 +68,26 @@ void LatencyCollector::rendered2(uint64_t frameIndex) {
     getFrame(frameIndex).rendered2 = getTimestampUs();
 }
 
+// Called from render thread when frame was submitted to compositor.
 void LatencyCollector::submit(uint64_t frameIndex) {
-    FrameTimestamp timestamp = getFrame(frameIndex);
+    FrameTimestamp &timestamp = getFrame(frameIndex);
+    if (timestamp.tracking == 0 || timestamp.submit != 0) {
+        // Not tracked by this client (or already overwritten), or the frame is shown again.
+        return;
+    }
     timestamp.submit = getTimestampUs();
 
+    // Stages which were not recorded for the frame count as 0.
     uint64_t latency[3];
     latency[0] = timestamp.submit - timestamp.tracking;
-    latency[1] = timestamp.receivedLast - timestamp.estimatedSent;
-    latency[2] = timestamp.decoderOutput - timestamp.decoderInput;
+    latency[1] = timestamp.estimatedSent != 0 && timestamp.receivedLast >= timestamp.estimatedSent ?
+                 timestamp.receivedLast - timestamp.estimatedSent : 0;
+    latency[2] = timestamp.decoderInput != 0 && timestamp.decoderOutput >= timestamp.decoderInput ?
+                 timestamp.decoderOutput - timestamp.decoderInput : 0;
 
     updateLatency(latency);
 
-    FrameLog(frameIndex, "totalLatency=%llu transportLatency=%llu decodeLatency=%llu", latency[0], latency[1], latency[2]);
+    FrameTrace::Instance().record(frameIndex, TRACE_LATENCY, (int32_t) latency[1], (int32_t) latency[2]);
 }
 
 void LatencyCollector::updateLatency(uint64_t *latency) {
@@ -81,6 +115,9 @@ void LatencyCollector::resetAll() {
     m_FecFailureTotal = 0;
     m_FecFailureInSecond = 0;
     m_FecFailurePrevious = 0;
+    m_LateRecoveredTotal = 0;
+    m_LateRecoveredInSecond = 0;
+    m_LateRecoveredPrevious = 0;
     m_StatisticsTime = getTimestampUs() / USECS_IN_SEC;
 
     for(int i = 0; i < 3; i++) {
@@ -89,16 +126,40 @@ void LatencyCollector::resetAll() {
             m_PreviousLatency[i][j] = 0;
         }
     }
+    memset(m_FecReconstruct, 0, sizeof(m_FecReconstruct));
+    memset(m_PreviousFecReconstruct, 0, sizeof(m_PreviousFecReconstruct));
+    memset(m_RecvInSecond, 0, sizeof(m_RecvInSecond));
+    memset(m_RecvPrevious, 0, sizeof(m_RecvPrevious));
+    memset(m_CopyInSecond, 0, sizeof(m_CopyInSecond));
+    memset(m_CopyPrevious, 0, sizeof(m_CopyPrevious));
+    m_FrameQueueSize = 0;
+    m_FrameQueueUnderrunTotal = 0;
+    m_FrameQueueOverrunTotal = 0;
+    m_DecoderOutputJitter = 0;
+    m_TimeToFirstFrame = 0;
+    m_DecoderInputWait = 0;
+    memset(m_ReceiveToDecoder, 0, sizeof(m_ReceiveToDecoder));
+    memset(m_PreviousReceiveToDecoder, 0, sizeof(m_PreviousReceiveToDecoder));
 }
 
 void LatencyCollector::resetSecond(){
     memcpy(m_PreviousLatency, m_Latency, sizeof(m_Latency));
     memset(m_Latency, 0, sizeof(m_Latency));
+    memcpy(m_PreviousFecReconstruct, m_FecReconstruct, sizeof(m_FecReconstruct));
+    memset(m_FecReconstruct, 0, sizeof(m_FecReconstruct));
+    memcpy(m_RecvPrevious, m_RecvInSecond, sizeof(m_RecvInSecond));
+    memset(m_RecvInSecond, 0, sizeof(m_RecvInSecond));
+    memcpy(m_CopyPrevious, m_CopyInSecond, sizeof(m_CopyInSecond));
+    memset(m_CopyInSecond, 0, sizeof(m_CopyInSecond));
+    memcpy(m_PreviousReceiveToDecoder, m_ReceiveToDecoder, sizeof(m_ReceiveToDecoder));
+    memset(m_ReceiveToDecoder, 0, sizeof(m_ReceiveToDecoder));
 
     m_PacketsLostPrevious = m_PacketsLostInSecond;
     m_PacketsLostInSecond = 0;
     m_FecFailurePrevious = m_FecFailureInSecond;
     m_FecFailureInSecond = 0;
+    m_LateRecoveredPrevious = m_LateRecoveredInSecond;
+    m_LateRecoveredInSecond = 0;
 }
 
 void LatencyCollector::packetLoss(int64_t lost) {
@@ -119,6 +180,76 @@ void LatencyCollector::fecFailure() {
     m_FecFailureTotal++;
     m_FecFailureInSecond++;
 }
+// Frame was recovered after packets of following frame had arrived.
+void LatencyCollector::lateRecovered() {
+    uint64_t current = getTimestampUs() / USECS_IN_SEC;
+    if(m_StatisticsTime != current){
+        m_StatisticsTime = current;
+        resetSecond();
+    }
+    m_LateRecoveredTotal++;
+    m_LateRecoveredInSecond++;
+}
+// Time spent for reed solomon recovery of a frame which needed FEC.
+void LatencyCollector::fecReconstructed(uint64_t frameIndex, uint64_t duration) {
+    uint64_t current = getTimestampUs() / USECS_IN_SEC;
+    if(m_StatisticsTime != current){
+        m_StatisticsTime = current;
+        resetSecond();
+    }
+    getFrame(frameIndex).fecReconstruct = duration;
+
+    // Total
+    m_FecReconstruct[0] += duration;
+    // Max
+    m_FecReconstruct[1] = std::max(m_FecReconstruct[1], duration);
+    // Count
+    m_FecReconstruct[2]++;
+}
+// Receiver thread was woken up by select and received packets with syscalls.
+void LatencyCollector::recvWakeup(uint64_t packets, uint64_t syscalls) {
+    uint64_t current = getTimestampUs() / USECS_IN_SEC;
+    if(m_StatisticsTime != current){
+        m_StatisticsTime = current;
+        resetSecond();
+    }
+    m_RecvInSecond[0]++;
+    m_RecvInSecond[1] += packets;
+    m_RecvInSecond[2] += syscalls;
+}
+void LatencyCollector::memoryCopy(uint64_t bytes) {
+    uint64_t current = getTimestampUs() / USECS_IN_SEC;
+    if(m_StatisticsTime != current){
+        m_StatisticsTime = current;
+        resetSecond();
+    }
+    m_CopyInSecond[0]++;
+    m_CopyInSecond[1] += bytes;
+}
+// Packet payload was received into FEC frame buffer without copy.
+void LatencyCollector::zeroCopyPacket() {
+    uint64_t current = getTimestampUs() / USECS_IN_SEC;
+    if(m_StatisticsTime != current){
+        m_StatisticsTime = current;
+        resetSecond();
+    }
+    m_CopyInSecond[2]++;
+}
+// Called about once per second from render thread.
+void LatencyCollector::frameQueue(uint32_t queueSize, uint64_t underrunTotal, uint64_t overrunTotal, uint64_t jitter) {
+    m_FrameQueueSize = queueSize;
+    m_FrameQueueUnderrunTotal = underrunTotal;
+    m_FrameQueueOverrunTotal = overrunTotal;
+    m_DecoderOutputJitter = jitter;
+}
+// Called once per connection from render thread.
+void LatencyCollector::timeToFirstFrame(uint64_t duration) {
+    m_TimeToFirstFrame = duration;
+}
+// Called about once per second from decode thread.
+void LatencyCollector::decoderInputWait(uint64_t waitInSecond) {
+    m_DecoderInputWait = waitInSecond;
+}
 uint64_t LatencyCollector::getLatency(uint32_t i, uint32_t j) {
     if(j == 1 || j == 2) {
         // Min/Max
@@ -129,6 +260,58 @@ uint64_t LatencyCollector::getLatency(uint32_t i, uint32_t j) {
     }
     return m_PreviousLatency[i][0] / m_PreviousLatency[i][3];
 }
+uint64_t LatencyCollector::getFecReconstructTime(uint32_t j) {
+    if(j == 1) {
+        return m_PreviousFecReconstruct[1];
+    }
+    if(m_PreviousFecReconstruct[2] == 0) {
+        return 0;
+    }
+    return m_PreviousFecReconstruct[0] / m_PreviousFecReconstruct[2];
+}
+double LatencyCollector::getPacketsPerWakeup() {
+    if(m_RecvPrevious[0] == 0) {
+        return 0;
+    }
+    return (double) m_RecvPrevious[1] / m_RecvPrevious[0];
+}
+uint64_t LatencyCollector::getRecvSyscallsInSecond() {
+    return m_RecvPrevious[2];
+}
+uint64_t LatencyCollector::getMemoryCopiesInSecond() {
+    return m_CopyPrevious[0];
+}
+uint64_t LatencyCollector::getMemoryCopyBytesInSecond() {
+    return m_CopyPrevious[1];
+}
+uint64_t LatencyCollector::getZeroCopyPacketsInSecond() {
+    return m_CopyPrevious[2];
+}
+uint32_t LatencyCollector::getFrameQueueSize() {
+    return m_FrameQueueSize;
+}
+uint64_t LatencyCollector::getFrameQueueUnderrunTotal() {
+    return m_FrameQueueUnderrunTotal;
+}
+uint64_t LatencyCollector::getFrameQueueOverrunTotal() {
+    return m_FrameQueueOverrunTotal;
+}
+uint64_t LatencyCollector::getDecoderOutputJitter() {
+    return m_DecoderOutputJitter;
+}
+uint64_t LatencyCollector::getTimeToFirstFrame() {
+    return m_TimeToFirstFrame;
+}
+uint64_t LatencyCollector::getDecoderInputWaitInSecond() {
+    return m_DecoderInputWait;
+}
+uint64_t LatencyCollector::getReceiveToDecoderInput(uint32_t mode, uint32_t j) {
+    const uint64_t *stat = m_PreviousReceiveToDecoder[mode];
+    if (j == 0) {
+        return stat[2] == 0 ? 0 : stat[0] / stat[2];
+    }
+    return stat[j];
+}
 uint64_t LatencyCollector::getPacketsLostTotal() {
     return m_PacketsLostTotal;
 }
@@ -141,6 +324,12 @@ uint64_t LatencyCollector::getFecFailureTotal() {
 uint64_t LatencyCollector::getFecFailureInSecond() {
     return m_FecFailurePrevious;
 }
+uint64_t LatencyCollector::getLateRecoveredTotal() {
+    return m_LateRecoveredTotal;
+}
+uint64_t LatencyCollector::getLateRecoveredInSecond() {
+    return m_LateRecoveredPrevious;
+}
 
 LatencyCollector &LatencyCollector::Instance() {
     return m_Instance;
@@ -158,4 +347,34 @@ JNIEXPORT void JNICALL
 Java_com_polygraphene_alvr_LatencyCollector_DecoderOutput(JNIEnv *env, jclass type,
                                                           jlong frameIndex) {
     LatencyCollector::Instance().decoderOutput((uint64_t)frameIndex);
-}
\ No newline at end of file
+}
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_polygraphene_alvr_LatencyCollector_FrameQueue(JNIEnv *env, jclass type, jint queueSize,
+                                                       jlong underrunTotal, jlong overrunTotal,
+                                                       jlong jitter) {
+    LatencyCollector::Instance().frameQueue((uint32_t) queueSize, (uint64_t) underrunTotal,
+                                            (uint64_t) overrunTotal, (uint64_t) jitter);
+}
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_polygraphene_alvr_LatencyCollector_TimeToFirstFrame(JNIEnv *env, jclass type,
+                                                             jlong duration) {
+    LatencyCollector::Instance().timeToFirstFrame((uint64_t) duration);
+}
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_polygraphene_alvr_LatencyCollector_DecoderInputWait(JNIEnv *env, jclass type,
+                                                             jlong waitInSecond) {
+    LatencyCollector::Instance().decoderInputWait((uint64_t) waitInSecond);
+}
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_polygraphene_alvr_LatencyCollector_Submit(JNIEnv *env, jclass type, jlong frameIndex) {
+    LatencyCollector::Instance().submit((uint64_t) frameIndex);
+}
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_polygraphene_alvr_LatencyCollector_GetTotalLatency(JNIEnv *env, jclass type) {
+    return (jlong) LatencyCollector::Instance().getLatency(0, 0);
+}
@@ -13,14 +13,48 @@ public:
     uint64_t getPacketsLostInSecond();
     uint64_t getFecFailureTotal();
     uint64_t getFecFailureInSecond();
+    uint64_t getLateRecoveredTotal();
+    uint64_t getLateRecoveredInSecond();
+    // FEC reconstruction time of last second in microsec. j: 0=Average 1=Max
+    uint64_t getFecReconstructTime(uint32_t j);
+    // Average packets received by one wakeup of receiver thread in last second.
+    double getPacketsPerWakeup();
+    uint64_t getRecvSyscallsInSecond();
+    // Memory copies of packet payload on receive path in last second.
+    uint64_t getMemoryCopiesInSecond();
+    uint64_t getMemoryCopyBytesInSecond();
+    uint64_t getZeroCopyPacketsInSecond();
+    // Decoded frame queue state reported by OutputFrameQueue.
+    uint32_t getFrameQueueSize();
+    uint64_t getFrameQueueUnderrunTotal();
+    uint64_t getFrameQueueOverrunTotal();
+    // Jitter of decoder output interval in microsec.
+    uint64_t getDecoderOutputJitter();
+    // Time from connect to the first rendered frame of the last connection in microsec.
+    uint64_t getTimeToFirstFrame();
+    // Time decode thread waited for free codec input buffer in last second in microsec.
+    uint64_t getDecoderInputWaitInSecond();
+    // Latency from first packet received to first NAL passed to decoder in last second in microsec.
+    // mode: 0=Streamed by slice 1=Whole frame, j: 0=Average 1=Max 2=Count
+    uint64_t getReceiveToDecoderInput(uint32_t mode, uint32_t j);
 
     void packetLoss(int64_t lost);
     void fecFailure();
+    void lateRecovered();
+    void fecReconstructed(uint64_t frameIndex, uint64_t duration);
+    void recvWakeup(uint64_t packets, uint64_t syscalls);
+    void memoryCopy(uint64_t bytes);
+    void zeroCopyPacket();
+    void frameQueue(uint32_t queueSize, uint64_t underrunTotal, uint64_t overrunTotal, uint64_t jitter);
+    void timeToFirstFrame(uint64_t duration);
+    void decoderInputWait(uint64_t waitInSecond);
 
     void tracking(uint64_t frameIndex);
     void estimatedSent(uint64_t frameIndex, uint64_t offset);
     void receivedFirst(uint64_t frameIndex);
     void receivedLast(uint64_t frameIndex);
+    // First NAL of the frame was passed before whole frame was received.
+    void sliceStreamed(uint64_t frameIndex);
     void decoderInput(uint64_t frameIndex);
     void decoderOutput(uint64_t frameIndex);
     void rendered1(uint64_t frameIndex);
@@ -49,6 +83,11 @@ private:
         uint64_t rendered1;
         uint64_t rendered2;
         uint64_t submit;
+
+        // Duration in microsec.
+        uint64_t fecReconstruct;
+
+        bool sliceStreamed;
     };
     static const int MAX_FRAMES = 1024;
     std::vector<FrameTimestamp> m_Frames = std::vector<FrameTimestamp>(MAX_FRAMES);
@@ -60,6 +99,22 @@ private:
     uint64_t m_FecFailureTotal = 0;
     uint64_t m_FecFailureInSecond = 0;
     uint64_t m_FecFailurePrevious = 0;
+    uint64_t m_LateRecoveredTotal = 0;
+    uint64_t m_LateRecoveredInSecond = 0;
+    uint64_t m_LateRecoveredPrevious = 0;
+    // Wakeups/Packets/Syscalls of receiver thread
+    uint64_t m_RecvInSecond[3] = {};
+    uint64_t m_RecvPrevious[3] = {};
+    // Copies/CopiedBytes/ZeroCopyPackets on receive path
+    uint64_t m_CopyInSecond[3] = {};
+    uint64_t m_CopyPrevious[3] = {};
+    // Latest report of decoded frame queue.
+    uint32_t m_FrameQueueSize = 0;
+    uint64_t m_FrameQueueUnderrunTotal = 0;
+    uint64_t m_FrameQueueOverrunTotal = 0;
+    uint64_t m_DecoderOutputJitter = 0;
+    uint64_t m_TimeToFirstFrame = 0;
+    uint64_t m_DecoderInputWait = 0;
 
     // Total/Transport/Decode latency
     // Total/Max/Min/Count
@@ -67,6 +122,14 @@ private:
 
     uint64_t m_PreviousLatency[3][4];
 
+    // Total/Max/Count of FEC reconstruction time
+    uint64_t m_FecReconstruct[3];
+    uint64_t m_PreviousFecReconstruct[3];
+
+    // Streamed/Whole frame, Total/Max/Count of latency from first packet to decoder input
+    uint64_t m_ReceiveToDecoder[2][3] = {};
+    uint64_t m_PreviousReceiveToDecoder[2][3] = {};
+
     FrameTimestamp & getFrame(uint64_t frameIndex);
 };
 
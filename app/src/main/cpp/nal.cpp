@@ -8,251 +8,483 @@
 #include <pthread.h>
 #include "nal.h"
 #include "packet_types.h"
+#include "latency_collector.h"
+#include "frame_trace.h"
 
 static const int MAXIMUM_NAL_BUFFER = 10;
-static const int MAXIMUM_NAL_OBJECT = 20;
 
+static const int NAL_TYPE_IDR = 5;
 static const int NAL_TYPE_SPS = 7;
+static const int NAL_TYPE_PPS = 8;
 
+static const int H265_NAL_TYPE_IDR_W_RADL = 19;
+static const int H265_NAL_TYPE_IDR_N_LP = 20;
 static const int H265_NAL_TYPE_VPS = 32;
+static const int H265_NAL_TYPE_PPS = 34;
 
+// Indexed by NalDropReason.
+static const char *NAL_DROP_REASON_NAMES[] = {"WaitIDR", "QueueFull", "PoolExhausted", "ExpandFailed", "QueueCapacity"};
 
-NALParser::NALParser(JNIEnv *env) {
+
+NALParser::NALParser(JNIEnv *env, int poolSize, int bufferSize)
+        : m_nalQueue(poolSize), m_nalRecycleQueue(poolSize) {
     LOGE("NALParser initialized %p", this);
-    pthread_cond_init(&m_cond_nonzero, NULL);
 
     m_env = env;
-    m_stopped = false;
+    m_flushRequested = false;
+    m_dropReportPending = false;
 
     jclass NAL_clazz = env->FindClass("com/polygraphene/alvr/NAL");
-    jmethodID NAL_ctor = env->GetMethodID(NAL_clazz, "<init>", "()V");
+    jmethodID NAL_ctor = env->GetMethodID(NAL_clazz, "<init>", "(II)V");
 
     NAL_length = env->GetFieldID(NAL_clazz, "length", "I");
     NAL_frameIndex = env->GetFieldID(NAL_clazz, "frameIndex", "J");
-    NAL_buf = env->GetFieldID(NAL_clazz, "buf", "[B");
-
-    for (int i = 0; i < MAXIMUM_NAL_OBJECT; i++) {
-        jobject nal = env->NewObject(NAL_clazz, NAL_ctor);
-        jobject tmp = nal;
-        nal = env->NewGlobalRef(nal);
-        env->DeleteLocalRef(tmp);
+    NAL_partialFrame = env->GetFieldID(NAL_clazz, "partialFrame", "Z");
+    NAL_buf = env->GetFieldID(NAL_clazz, "buf", "Ljava/nio/ByteBuffer;");
+    NAL_poolIndex = env->GetFieldID(NAL_clazz, "poolIndex", "I");
+    NAL_expand = env->GetMethodID(NAL_clazz, "expand", "(I)V");
+
+    m_nalBuffers.resize(poolSize);
+    for (int i = 0; i < poolSize; i++) {
+        jobject nal = env->NewObject(NAL_clazz, NAL_ctor, i, bufferSize);
+        if (!updateNalBuffer(nal, i)) {
+            LOGE("Failed to get address of direct buffer. index=%d", i);
+        }
+        m_nalObjects.push_back(env->NewGlobalRef(nal));
+        env->DeleteLocalRef(nal);
 
-        m_nalRecycleList.push_back(nal);
+        m_nalFreeList.push_back(i);
     }
+    env->DeleteLocalRef(NAL_clazz);
+    LOGI("NAL pool allocated. poolSize=%d bufferSize=%d", poolSize, bufferSize);
+}
+
+// Cache address of direct buffer of the NAL object.
+bool NALParser::updateNalBuffer(jobject nal, int poolIndex) {
+    jobject buf = m_env->GetObjectField(nal, NAL_buf);
+    NalBuffer &nalBuffer = m_nalBuffers[poolIndex];
+    nalBuffer.address = (char *) m_env->GetDirectBufferAddress(buf);
+    nalBuffer.capacity = nalBuffer.address == NULL ? 0 : (int) m_env->GetDirectBufferCapacity(buf);
+    m_env->DeleteLocalRef(buf);
+    return nalBuffer.address != NULL;
 }
 
 NALParser::~NALParser() {
     notifyWaitingThread(m_env);
-    clearNalList(m_env);
 
-    for (auto nal : m_nalRecycleList) {
+    for (auto nal : m_nalObjects) {
         m_env->DeleteGlobalRef(nal);
     }
-    m_nalRecycleList.clear();
-    m_stopped = true;
-    pthread_cond_destroy(&m_cond_nonzero);
+    m_nalObjects.clear();
 }
 
 void NALParser::setCodec(int codec) {
     m_codec = codec;
 }
 
+// Called on connection. Frame index of new stream restarts from a low value.
+void NALParser::reset() {
+    m_queue.reset();
+    m_streamFrameIndex = UINT64_MAX;
+    m_streamOffset = 0;
+    m_streamCodecConfig = false;
+}
+
+int NALParser::predictPayloadPlacement(PayloadPlacement *placements, int count) {
+    return m_queue.predictPayloadPlacement(placements, count);
+}
+
+void NALParser::setParallelReconstruct(int threads, int minShardPackets) {
+    m_queue.setParallelReconstruct(threads, minShardPackets);
+}
+
+void NALParser::setSliceStreaming(bool enabled) {
+    m_sliceStreaming = enabled;
+    LOGI("Slice streaming %s.", enabled ? "enabled" : "disabled");
+}
+
 bool NALParser::processPacket(VideoFrame *packet, int packetSize, bool &fecFailure) {
-    m_queue.addVideoPacket(packet, packetSize, fecFailure);
+    return processPacket(packet, ((const char *) packet) + sizeof(VideoFrame), packetSize, fecFailure);
+}
 
-    bool result = m_queue.reconstruct();
-    if (result) {
-        // Reconstructed
-        const char *frameBuffer = m_queue.getFrameBuffer();
-        int frameByteSize = m_queue.getFrameByteSize();
+bool NALParser::processPacket(VideoFrame *packet, const char *payload, int packetSize,
+                              bool &fecFailure) {
+    m_queue.addVideoPacket(packet, payload, packetSize, fecFailure);
 
-        int NALType;
-        if (m_codec == ALVR_CODEC_H264) {
-            NALType = frameBuffer[4] & 0x1F;
+    // Frames are passed to decoder in order of frameIndex.
+    // Single packet can complete multiple frames when it completes the oldest frame in the window.
+    bool result = false;
+    while (m_queue.reconstruct(fecFailure)) {
+        // Reconstructed
+        uint64_t frameIndex = m_queue.getFrameIndex();
+        LatencyCollector::Instance().receivedLast(frameIndex);
+        FrameTrace::Instance().record(frameIndex, TRACE_FRAME_RECEIVED, m_queue.getFrameByteSize());
+
+        checkAbortedStream(frameIndex);
+        bool idr;
+        if (m_streamFrameIndex == frameIndex && m_streamOffset != 0) {
+            // Push the rest of streamed frame.
+            idr = pushSlices(m_queue.getFrameBuffer(), m_queue.getFrameByteSize(), frameIndex, true);
         } else {
-            NALType = (frameBuffer[4] >> 1) & 0x3F;
+            // Whole frame. (Slice streaming is disabled or the first NAL was not complete before recovery)
+            m_streamFrameIndex = UINT64_MAX;
+            m_wholeFrames++;
+            idr = processFrame(m_queue.getFrameBuffer(), m_queue.getFrameByteSize(), frameIndex);
         }
+        m_queue.releaseFrame(fecFailure);
+        if (idr) {
+            m_queue.clearFecFailure();
+        }
+        result = true;
+    }
+    if (m_sliceStreaming) {
+        streamFrame();
+    }
+    return result;
+}
 
-        if ((m_codec == ALVR_CODEC_H264 && NALType == NAL_TYPE_SPS) ||
-                (m_codec == ALVR_CODEC_H265 && NALType == H265_NAL_TYPE_VPS)) {
-            // This frame contains (VPS + )SPS + PPS + IDR on NVENC H.264 (H.265) stream.
-            // (VPS + )SPS + PPS has short size (8bytes + 28bytes in some environment), so we can assume SPS + PPS is contained in first fragment.
+// Push complete NALs in contiguously received part of the oldest incomplete frame.
+void NALParser::streamFrame() {
+    const char *frameBuffer;
+    int available;
+    int frameByteSize;
+    uint64_t frameIndex;
+    if (!m_queue.getContiguousData(&frameBuffer, &available, &frameByteSize, &frameIndex)) {
+        return;
+    }
+    checkAbortedStream(frameIndex);
+    if (m_streamFrameIndex != frameIndex) {
+        if (available < 5) {
+            return;
+        }
+        m_streamFrameIndex = frameIndex;
+        m_streamOffset = 0;
+        m_streamCodecConfig = false;
+    }
+    int offset = m_streamOffset;
+    pushSlices(frameBuffer, available, frameIndex, false);
+    if (offset == 0 && m_streamOffset != 0) {
+        m_streamedFrames++;
+        LatencyCollector::Instance().sliceStreamed(frameIndex);
+    }
+}
 
-            int end = findVPSSPS(frameBuffer, frameByteSize);
+// Push NALs of the frame from m_streamOffset. Only NALs followed by next start code in available bytes are pushed,
+// unless the frame is complete. Returns true if the frame contains codec config.
+bool NALParser::pushSlices(const char *frameBuffer, int available, uint64_t frameIndex, bool complete) {
+    if (m_streamOffset == 0) {
+        int NALType = StartCodeScanner::firstNalType(frameBuffer, available, m_codec);
+        if ((m_codec == ALVR_CODEC_H264 && NALType == NAL_TYPE_SPS) ||
+            (m_codec == ALVR_CODEC_H265 && NALType == H265_NAL_TYPE_VPS)) {
+            // (VPS + )SPS + PPS is passed as one NAL as in processFrame.
+            int end = findCodecConfigEnd(frameBuffer, available);
             if (end == -1) {
-                // Invalid frame.
-                LOG("Got invalid frame. Too large SPS or PPS?");
+                if (complete) {
+                    LOG("Got invalid frame. Too large SPS or PPS?");
+                    m_streamFrameIndex = UINT64_MAX;
+                }
                 return false;
             }
-            LOGI("Got frame=%d %d, Codec=%d", NALType, end, m_codec);
-            push(&frameBuffer[0], end, packet->frameIndex);
-            push(&frameBuffer[end], frameByteSize - end, packet->frameIndex);
-
-            m_queue.clearFecFailure();
-        } else {
-            push(&frameBuffer[0], frameByteSize, packet->frameIndex);
+            push(&frameBuffer[0], end, frameIndex);
+            m_streamOffset = end;
+            m_streamCodecConfig = true;
         }
-        return true;
     }
-    return false;
-}
-
-jobject NALParser::wait(JNIEnv *env) {
-    jobject nal;
 
     while (true) {
-        MutexLock lock(m_nalMutex);
-        if (m_stopped) {
-            return NULL;
-        }
-        if (m_nalList.size() != 0) {
-            nal = m_nalList.front();
-            jobject tmp = nal;
-            nal = env->NewLocalRef(nal);
-            env->DeleteGlobalRef(tmp);
-            m_nalList.pop_front();
+        // Skip start code of current NAL.
+        int next = StartCodeScanner::findStartCode(frameBuffer, m_streamOffset + 3, available);
+        if (next == -1) {
             break;
         }
-        m_nalMutex.CondWait(&m_cond_nonzero);
+        push(&frameBuffer[m_streamOffset], next - m_streamOffset, frameIndex, true);
+        m_streamOffset = next;
     }
 
-    return nal;
+    bool codecConfig = m_streamCodecConfig;
+    if (complete) {
+        push(&frameBuffer[m_streamOffset], available - m_streamOffset, frameIndex);
+        m_streamFrameIndex = UINT64_MAX;
+        m_streamOffset = 0;
+        m_streamCodecConfig = false;
+    }
+    return codecConfig;
 }
 
-jobject NALParser::get(JNIEnv *env) {
-    jobject nal;
-    {
-        MutexLock lock(m_nalMutex);
-        if (m_nalList.size() == 0) {
-            return NULL;
+// Streamed frame was dropped by FECQueue before completion. Decoder has to discard its slices.
+void NALParser::checkAbortedStream(uint64_t frameIndex) {
+    if (m_streamFrameIndex != UINT64_MAX && m_streamFrameIndex != frameIndex) {
+        if (m_streamOffset != 0) {
+            m_abortedStreamFrames++;
+            FrameTrace::Instance().record(m_streamFrameIndex, TRACE_STREAM_ABORTED, m_streamOffset);
         }
-        nal = m_nalList.front();
-        jobject tmp = nal;
-        nal = env->NewLocalRef(nal);
-        env->DeleteGlobalRef(tmp);
-        m_nalList.pop_front();
+        m_streamFrameIndex = UINT64_MAX;
+        m_streamOffset = 0;
+        m_streamCodecConfig = false;
     }
+}
+
+// Push reconstructed frame to NAL queue. Returns true if the frame contains codec config.
+bool NALParser::processFrame(const char *frameBuffer, int frameByteSize, uint64_t frameIndex) {
+    int NALType = StartCodeScanner::firstNalType(frameBuffer, frameByteSize, m_codec);
 
-    return nal;
+    if ((m_codec == ALVR_CODEC_H264 && NALType == NAL_TYPE_SPS) ||
+            (m_codec == ALVR_CODEC_H265 && NALType == H265_NAL_TYPE_VPS)) {
+        // This frame contains (VPS + )SPS + PPS + IDR on NVENC H.264 (H.265) stream.
+        // (VPS + )SPS + PPS has short size (8bytes + 28bytes in some environment), so we can assume SPS + PPS is contained in first fragment.
+
+        int end = findCodecConfigEnd(frameBuffer, frameByteSize);
+        if (end == -1) {
+            // Invalid frame.
+            LOG("Got invalid frame. Too large SPS or PPS?");
+            return false;
+        }
+        LOGI("Got frame=%d %d, Codec=%d", NALType, end, m_codec);
+        push(&frameBuffer[0], end, frameIndex);
+        push(&frameBuffer[end], frameByteSize - end, frameIndex);
+        return true;
+    } else {
+        push(&frameBuffer[0], frameByteSize, frameIndex);
+    }
+    return false;
 }
 
-void NALParser::recycle(JNIEnv *env, jobject nal) {
+// Called from DecoderThread.
+// Returned references are global references of NAL pool. Java side must not keep them after recycle.
+jobject NALParser::wait(JNIEnv *env) {
+    clearNalList();
 
-    MutexLock lock(m_nalMutex);
-    m_nalRecycleList.push_front(env->NewGlobalRef(nal));
+    int poolIndex;
+    if (!m_nalQueue.waitPop(poolIndex)) {
+        return NULL;
+    }
+    return m_nalObjects[poolIndex];
+}
+
+jobject NALParser::get(JNIEnv *env) {
+    clearNalList();
 
+    int poolIndex;
+    if (m_nalQueue.isInterrupted() || !m_nalQueue.pop(poolIndex)) {
+        return NULL;
+    }
+    return m_nalObjects[poolIndex];
 }
 
-int NALParser::getQueueSize(JNIEnv *env) {
-    MutexLock lock(m_nalMutex);
-    return m_nalList.size();
+void NALParser::recycle(JNIEnv *env, jobject nal) {
+    int poolIndex = env->GetIntField(nal, NAL_poolIndex);
+    m_nalRecycleQueue.push(poolIndex);
 }
 
+int NALParser::getQueueSize(JNIEnv *env) {
+    return m_nalQueue.size();
+}
 
+// Queued NALs are recycled by DecoderThread on next wait/get because only it can pop the queue.
 void NALParser::flush(JNIEnv *env) {
-    MutexLock lock(m_nalMutex);
-    clearNalList(env);
+    m_flushRequested = true;
 }
 
 void NALParser::notifyWaitingThread(JNIEnv *env) {
-    MutexLock lock(m_nalMutex);
-    clearNalList(env);
+    m_flushRequested = true;
+    m_nalQueue.interrupt();
+}
 
-    m_stopped = true;
+void NALParser::clearStopped() {
+    m_nalQueue.clearInterrupt();
+}
 
-    pthread_cond_broadcast(&m_cond_nonzero);
+// Called from DecoderThread.
+void NALParser::clearNalList() {
+    if (!m_flushRequested.exchange(false)) {
+        return;
+    }
+    int poolIndex;
+    while (m_nalQueue.pop(poolIndex)) {
+        m_nalRecycleQueue.push(poolIndex);
+    }
 }
 
-void NALParser::clearStopped() {
-    m_stopped = false;
+// Parameter sets and IDR, which make decoder independent of dropped NALs.
+bool NALParser::isKeyNal(const char *buffer, int length) {
+    int NALType = StartCodeScanner::firstNalType(buffer, length, m_codec);
+    if (NALType == -1) {
+        return false;
+    }
+    if (m_codec == ALVR_CODEC_H264) {
+        return NALType == NAL_TYPE_IDR || NALType == NAL_TYPE_SPS || NALType == NAL_TYPE_PPS;
+    } else {
+        return NALType == H265_NAL_TYPE_IDR_W_RADL || NALType == H265_NAL_TYPE_IDR_N_LP ||
+               (NALType >= H265_NAL_TYPE_VPS && NALType <= H265_NAL_TYPE_PPS);
+    }
 }
 
-void NALParser::clearNalList(JNIEnv *env) {
-    for (auto it = m_nalList.begin();
-         it != m_nalList.end(); ++it) {
-        m_nalRecycleList.push_back(*it);
+void NALParser::dropNal(uint64_t frameIndex, int length, NalDropReason reason) {
+    m_droppedNals++;
+    if (frameIndex != m_lastDroppedFrame) {
+        m_lastDroppedFrame = frameIndex;
+        m_droppedFrames++;
     }
-    m_nalList.clear();
+    if (!m_waitIdr) {
+        m_waitIdr = true;
+        m_waitIdrStart = getTimestampUs();
+        m_dropReportPending = true;
+        LOGI("Dropped NAL. Waiting for next IDR. Reason=%s frameIndex=%" PRIu64 " QueueSize=%zu",
+             NAL_DROP_REASON_NAMES[reason], frameIndex, m_nalQueue.size());
+    }
+    FrameTrace::Instance().record(frameIndex, TRACE_NAL_DROPPED, length, reason);
 }
 
-void NALParser::push(const char *buffer, int length, uint64_t frameIndex) {
-    jobject nal;
-    jbyteArray buf;
-    {
-        MutexLock lock(m_nalMutex);
+void NALParser::push(const char *buffer, int length, uint64_t frameIndex, bool partialFrame) {
+    bool keyNal = isKeyNal(buffer, length);
+    if (m_waitIdr) {
+        if (!keyNal) {
+            dropNal(frameIndex, length, NAL_DROP_WAIT_IDR);
+            return;
+        }
+        uint64_t waitTime = getTimestampUs() - m_waitIdrStart;
+        m_waitIdrTime += waitTime;
+        m_waitIdr = false;
+        LOGI("Got IDR after dropping NALs. frameIndex=%" PRIu64 " WaitTime=%" PRIu64 " us DroppedFrames=%" PRIu64, frameIndex,
+             waitTime, m_droppedFrames);
+    }
+    if (!keyNal && m_nalQueue.size() >= MAXIMUM_NAL_BUFFER) {
+        // DecoderThread is behind. Drop this frame and the rest of GOP.
+        dropNal(frameIndex, length, NAL_DROP_QUEUE_FULL);
+        return;
+    }
 
-        if (m_nalRecycleList.size() == 0) {
+    int poolIndex;
+    if (m_nalFreeList.empty()) {
+        if (!m_nalRecycleQueue.pop(poolIndex)) {
+            m_poolExhaustedCount++;
             LOGE("NAL Queue is full (nalRecycleList is empty).");
+            dropNal(frameIndex, length, NAL_DROP_POOL_EXHAUSTED);
             return;
         }
-        nal = m_nalRecycleList.front();
-        m_nalRecycleList.pop_front();
+    } else {
+        poolIndex = m_nalFreeList.back();
+        m_nalFreeList.pop_back();
     }
 
-    buf = (jbyteArray) m_env->GetObjectField(nal, NAL_buf);
-    if (buf == NULL) {
-        buf = m_env->NewByteArray(length);
-        m_env->SetObjectField(nal, NAL_buf, buf);
-    } else {
-        if (m_env->GetArrayLength(buf) < length) {
-            // Expand array
-            m_env->DeleteLocalRef(buf);
-            buf = m_env->NewByteArray(length);
-            m_env->SetObjectField(nal, NAL_buf, buf);
+    int used = m_nalObjects.size() - m_nalFreeList.size() - m_nalRecycleQueue.size();
+    if (used > m_poolHighWaterMark) {
+        m_poolHighWaterMark = used;
+    }
+
+    jobject nal = m_nalObjects[poolIndex];
+    if (m_nalBuffers[poolIndex].capacity < length) {
+        // Expand buffer. This should be rare if pool buffer size is enough for IDR frames.
+        m_poolExpandedCount++;
+        LOGI("Expanding NAL buffer. poolIndex=%d capacity=%d length=%d", poolIndex,
+             m_nalBuffers[poolIndex].capacity, length);
+        m_env->CallVoidMethod(nal, NAL_expand, length);
+        if (m_env->ExceptionCheck()) {
+            // OutOfMemoryError. Old buffer is still valid.
+            m_env->ExceptionClear();
+        }
+        if (!updateNalBuffer(nal, poolIndex) || m_nalBuffers[poolIndex].capacity < length) {
+            LOGE("Failed to expand NAL buffer. length=%d", length);
+            m_nalFreeList.push_back(poolIndex);
+            dropNal(frameIndex, length, NAL_DROP_EXPAND_FAILED);
+            return;
         }
     }
 
     m_env->SetIntField(nal, NAL_length, length);
     m_env->SetLongField(nal, NAL_frameIndex, frameIndex);
+    m_env->SetBooleanField(nal, NAL_partialFrame, (jboolean) partialFrame);
 
-    char *cbuf = (char *) m_env->GetByteArrayElements(buf, NULL);
+    memcpy(m_nalBuffers[poolIndex].address, buffer, length);
+    LatencyCollector::Instance().memoryCopy(length);
 
-    memcpy(cbuf, buffer, length);
-    m_env->ReleaseByteArrayElements(buf, (jbyte *) cbuf, 0);
-    m_env->DeleteLocalRef(buf);
+    if (!pushNal(poolIndex)) {
+        dropNal(frameIndex, length, NAL_DROP_QUEUE_CAPACITY);
+        return;
+    }
+    FrameTrace::Instance().record(frameIndex, TRACE_NAL_PUSHED, length, partialFrame);
+}
 
-    pushNal(nal);
+// Soft limit (MAXIMUM_NAL_BUFFER) is checked by push. This fails only when whole pool is queued.
+bool NALParser::pushNal(int poolIndex) {
+    if (!m_nalQueue.push(poolIndex)) {
+        m_nalFreeList.push_back(poolIndex);
+        return false;
+    }
+    return true;
 }
 
-void NALParser::pushNal(jobject nal) {
-    MutexLock lock(m_nalMutex);
+int NALParser::getPoolSize() {
+    return m_nalBuffers.size();
+}
 
-    if (m_nalList.size() < MAXIMUM_NAL_BUFFER) {
-        m_nalList.push_back(nal);
+int NALParser::getPoolHighWaterMark() {
+    return m_poolHighWaterMark;
+}
 
-        pthread_cond_broadcast(&m_cond_nonzero);
-    } else {
-        // Discard buffer
-        LOG("NAL Queue is too large. Discard. Size=%lu Limit=%d", m_nalList.size(),
-            MAXIMUM_NAL_BUFFER);
-        m_nalRecycleList.push_front(nal);
+uint64_t NALParser::getPoolExhaustedCount() {
+    return m_poolExhaustedCount;
+}
+
+uint64_t NALParser::getPoolExpandedCount() {
+    return m_poolExpandedCount;
+}
+
+uint64_t NALParser::getStreamedFrames() {
+    return m_streamedFrames;
+}
+
+uint64_t NALParser::getWholeFrames() {
+    return m_wholeFrames;
+}
+
+uint64_t NALParser::getAbortedStreamFrames() {
+    return m_abortedStreamFrames;
+}
+
+uint64_t NALParser::getDroppedFrames() {
+    return m_droppedFrames;
+}
+
+uint64_t NALParser::getDroppedNals() {
+    return m_droppedNals;
+}
+
+uint64_t NALParser::getWaitIdrTime() {
+    if (m_waitIdr) {
+        return m_waitIdrTime + getTimestampUs() - m_waitIdrStart;
     }
+    return m_waitIdrTime;
+}
+
+bool NALParser::isWaitingIdr() {
+    return m_waitIdr;
+}
+
+bool NALParser::takeDropReport() {
+    return m_dropReportPending.exchange(false);
 }
 
+// Reported by every TimeSync, so that server keeps being asked for IDR while NALs are dropped,
+// even if the packet error report sent on the first drop was lost.
 bool NALParser::fecFailure() {
-    return m_queue.fecFailure();
-}
-
-int NALParser::findVPSSPS(const char *frameBuffer, int frameByteSize) {
-    int zeroes = 0;
-    int foundNals = 0;
-    for (int i = 0; i < frameByteSize; i++) {
-        if (frameBuffer[i] == 0) {
-            zeroes++;
-        } else if (frameBuffer[i] == 1) {
-            if (zeroes == 3) {
-                foundNals++;
-                if (m_codec == ALVR_CODEC_H264 && foundNals >= 3) {
-                    // Find end of SPS+PPS on H.264.
-                    return i - 3;
-                } else if (m_codec == ALVR_CODEC_H265 && foundNals >= 4) {
-                    // Find end of VPS+SPS+PPS on H.264.
-                    return i - 3;
-                }
-            }
-            zeroes = 0;
+    return m_queue.fecFailure() || m_waitIdr;
+}
+
+// Returns end of (VPS + )SPS + PPS at the head of frame, which is start of the first other NAL, or -1 if it is not found.
+int NALParser::findCodecConfigEnd(const char *frameBuffer, int frameByteSize) {
+    // VPS, SPS, PPS and following NAL.
+    int count = m_scanner.scan(frameBuffer, frameByteSize, m_codec, 4);
+    for (int i = 0; i < count; i++) {
+        const NalUnitInfo &unit = m_scanner.get(i);
+        bool config;
+        if (m_codec == ALVR_CODEC_H264) {
+            config = unit.type == NAL_TYPE_SPS || unit.type == NAL_TYPE_PPS;
         } else {
-            zeroes = 0;
+            config = unit.type >= H265_NAL_TYPE_VPS && unit.type <= H265_NAL_TYPE_PPS;
+        }
+        if (!config) {
+            return i == 0 ? -1 : unit.start;
         }
     }
     return -1;
@@ -2,19 +2,39 @@
 #define ALVRCLIENT_NAL_H
 
 #include <jni.h>
-#include <list>
+#include <vector>
+#include <atomic>
 #include "utils.h"
 #include "fec.h"
+#include "spsc_queue.h"
+#include "start_code.h"
 
+// Reason of NAL drop. Recorded in frame trace, so never renumber them.
+enum NalDropReason {
+    NAL_DROP_WAIT_IDR = 0,
+    NAL_DROP_QUEUE_FULL = 1,
+    NAL_DROP_POOL_EXHAUSTED = 2,
+    NAL_DROP_EXPAND_FAILED = 3,
+    NAL_DROP_QUEUE_CAPACITY = 4,
+};
 
 class NALParser {
 public:
-    NALParser(JNIEnv *env);
+    // poolSize NAL objects with direct buffer of bufferSize bytes are allocated on initialization.
+    NALParser(JNIEnv *env, int poolSize, int bufferSize);
     ~NALParser();
 
     void setCodec(int codec);
+    // Forget frames of previous stream.
+    void reset();
+    void setParallelReconstruct(int threads, int minShardPackets);
+    // Pass each NAL (slice) of the oldest frame to decoder as soon as it is received contiguously,
+    // instead of waiting for the whole frame. Frames with gaps are passed after FEC recovery.
+    void setSliceStreaming(bool enabled);
 
     bool processPacket(VideoFrame *packet, int packetSize, bool &fecFailure);
+    bool processPacket(VideoFrame *packet, const char *payload, int packetSize, bool &fecFailure);
+    int predictPayloadPlacement(PayloadPlacement *placements, int count);
 
     jobject wait(JNIEnv *env);
     jobject get(JNIEnv *env);
@@ -24,30 +44,102 @@ public:
     void notifyWaitingThread(JNIEnv *env);
     void clearStopped();
 
+    // True while server should send IDR. (FEC failure or waiting for IDR after NAL drop)
     bool fecFailure();
+
+    // NAL pool statistics.
+    int getPoolSize();
+    int getPoolHighWaterMark();
+    uint64_t getPoolExhaustedCount();
+    uint64_t getPoolExpandedCount();
+
+    // Slice streaming statistics.
+    // Frames whose first NAL was pushed before the frame was complete.
+    uint64_t getStreamedFrames();
+    // Frames pushed after they were complete.
+    uint64_t getWholeFrames();
+    // Streamed frames which were dropped before their last NAL was pushed.
+    uint64_t getAbortedStreamFrames();
+
+    // NAL drop policy statistics.
+    uint64_t getDroppedFrames();
+    uint64_t getDroppedNals();
+    // Total time spent in wait-for-IDR state in microsec, including current wait.
+    uint64_t getWaitIdrTime();
+    bool isWaitingIdr();
+    // Returns true once after NALs were dropped. Caller should request IDR from server.
+    bool takeDropReport();
 private:
-    void clearNalList(JNIEnv *env);
-    void push(const char *buffer, int length, uint64_t frameIndex);
-    void pushNal(jobject nal);
-    int findVPSSPS(const char *frameBuffer, int frameByteSize);
+    // Native view of direct ByteBuffer of NAL object. Indexed by NAL.poolIndex.
+    struct NalBuffer {
+        char *address;
+        int capacity;
+    };
 
-    bool m_stopped = false;
+    void clearNalList();
+    bool processFrame(const char *frameBuffer, int frameByteSize, uint64_t frameIndex);
+    void streamFrame();
+    bool pushSlices(const char *frameBuffer, int available, uint64_t frameIndex, bool complete);
+    void checkAbortedStream(uint64_t frameIndex);
+    bool isKeyNal(const char *buffer, int length);
+    void dropNal(uint64_t frameIndex, int length, NalDropReason reason);
+    // partialFrame: Following NALs of the frame will be pushed later.
+    void push(const char *buffer, int length, uint64_t frameIndex, bool partialFrame = false);
+    bool pushNal(int poolIndex);
+    int findCodecConfigEnd(const char *frameBuffer, int frameByteSize);
 
     FECQueue m_queue;
+    StartCodeScanner m_scanner;
 
     int m_codec = 1;
 
+    // Changed by decoder thread while receiver thread is parsing.
+    std::atomic<bool> m_sliceStreaming{false};
+    // Frame being streamed and offset of its first NAL which is not pushed yet.
+    uint64_t m_streamFrameIndex = UINT64_MAX;
+    int m_streamOffset = 0;
+    bool m_streamCodecConfig = false;
+    uint64_t m_streamedFrames = 0;
+    uint64_t m_wholeFrames = 0;
+    uint64_t m_abortedStreamFrames = 0;
+
+    // Drop policy. After a NAL is dropped, following frames reference it, so all NALs are dropped
+    // until next parameter sets or IDR (wait-for-IDR). Parameter sets and IDR can exceed MAXIMUM_NAL_BUFFER.
+    bool m_waitIdr = false;
+    uint64_t m_waitIdrStart = 0;
+    uint64_t m_waitIdrTime = 0;
+    uint64_t m_lastDroppedFrame = UINT64_MAX;
+    uint64_t m_droppedFrames = 0;
+    uint64_t m_droppedNals = 0;
+    std::atomic<bool> m_dropReportPending;
+
     JNIEnv *m_env;
 
 // Parsed NAL queue
-    std::list<jobject> m_nalList;
-    std::list<jobject> m_nalRecycleList;
-    Mutex m_nalMutex;
+    // NAL objects are referenced by poolIndex in queues. Global references are kept until destruction.
+    std::vector<jobject> m_nalObjects;
+    // Receiver thread -> DecoderThread
+    BlockingSpscQueue<int> m_nalQueue;
+    // DecoderThread -> Receiver thread
+    SpscQueue<int> m_nalRecycleQueue;
+    // NAL objects discarded by receiver thread. Only accessed from receiver thread.
+    std::vector<int> m_nalFreeList;
+    // Set when queued NALs must be recycled by DecoderThread before it gets next NAL.
+    std::atomic<bool> m_flushRequested;
 
-    pthread_cond_t m_cond_nonzero = PTHREAD_COND_INITIALIZER;
+    std::vector<NalBuffer> m_nalBuffers;
+    // Maximum number of NAL objects used at once.
+    int m_poolHighWaterMark = 0;
+    uint64_t m_poolExhaustedCount = 0;
+    uint64_t m_poolExpandedCount = 0;
 
     jfieldID NAL_length;
     jfieldID NAL_frameIndex;
+    jfieldID NAL_partialFrame;
     jfieldID NAL_buf;
+    jfieldID NAL_poolIndex;
+    jmethodID NAL_expand;
+
+    bool updateNalBuffer(jobject nal, int poolIndex);
 };
 #endif //ALVRCLIENT_NAL_H
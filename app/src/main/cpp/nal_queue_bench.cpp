@@ -0,0 +1,151 @@
+// Micro benchmark of NAL handoff latency between receiver thread and DecoderThread.
+// Compares the previous std::list + mutex/condvar queue with BlockingSpscQueue.
+// JNI reference handling of the previous queue is not included.
+//
+// Build and run on host or device (not part of native-lib):
+//   g++ -O2 -std=c++14 -o nal_queue_bench nal_queue_bench.cpp -lpthread && ./nal_queue_bench
+
+#include <stdio.h>
+#include <stdint.h>
+#include <time.h>
+#include <pthread.h>
+#include <list>
+#include <vector>
+#include <algorithm>
+#include "spsc_queue.h"
+
+static const int POOL_SIZE = 20;
+static const int ITERATIONS = 100000;
+
+static uint64_t nowNs() {
+    timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (uint64_t) ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+}
+
+static void spinUntil(uint64_t deadline) {
+    while (nowNs() < deadline) {
+    }
+}
+
+// Same structure as the previous NALParser queue.
+class ListQueue {
+public:
+    ListQueue(size_t capacity) {
+        pthread_mutex_init(&m_mutex, NULL);
+        pthread_cond_init(&m_cond, NULL);
+    }
+
+    bool push(int value) {
+        pthread_mutex_lock(&m_mutex);
+        m_list.push_back(value);
+        pthread_cond_broadcast(&m_cond);
+        pthread_mutex_unlock(&m_mutex);
+        return true;
+    }
+
+    bool waitPop(int &value) {
+        pthread_mutex_lock(&m_mutex);
+        while (m_list.empty()) {
+            pthread_cond_wait(&m_cond, &m_mutex);
+        }
+        value = m_list.front();
+        m_list.pop_front();
+        pthread_mutex_unlock(&m_mutex);
+        return true;
+    }
+
+    bool pop(int &value) {
+        pthread_mutex_lock(&m_mutex);
+        bool ret = !m_list.empty();
+        if (ret) {
+            value = m_list.front();
+            m_list.pop_front();
+        }
+        pthread_mutex_unlock(&m_mutex);
+        return ret;
+    }
+private:
+    std::list<int> m_list;
+    pthread_mutex_t m_mutex;
+    pthread_cond_t m_cond;
+};
+
+template<typename Queue, typename RecycleQueue>
+struct Bench {
+    Queue queue;
+    RecycleQueue recycle;
+    uint64_t sentTime[POOL_SIZE];
+    std::vector<uint64_t> latency;
+    // Interval between frames. 0 means burst.
+    uint64_t intervalNs;
+
+    Bench(uint64_t interval) : queue(POOL_SIZE), recycle(POOL_SIZE), intervalNs(interval) {
+        latency.reserve(ITERATIONS);
+    }
+
+    static void *consumerMain(void *arg) {
+        Bench *bench = (Bench *) arg;
+        for (int i = 0; i < ITERATIONS; i++) {
+            int index = 0;
+            bench->queue.waitPop(index);
+            bench->latency.push_back(nowNs() - bench->sentTime[index]);
+            bench->recycle.push(index);
+        }
+        return NULL;
+    }
+
+    void run(const char *name) {
+        pthread_t consumer;
+        pthread_create(&consumer, NULL, consumerMain, this);
+
+        std::vector<int> freeList;
+        for (int i = 0; i < POOL_SIZE; i++) {
+            freeList.push_back(i);
+        }
+        uint64_t next = nowNs();
+        for (int i = 0; i < ITERATIONS; i++) {
+            int index = 0;
+            while (true) {
+                if (!freeList.empty()) {
+                    index = freeList.back();
+                    freeList.pop_back();
+                    break;
+                }
+                if (recycle.pop(index)) {
+                    break;
+                }
+            }
+            if (intervalNs != 0) {
+                next += intervalNs;
+                spinUntil(next);
+            }
+            sentTime[index] = nowNs();
+            queue.push(index);
+        }
+        pthread_join(consumer, NULL);
+
+        std::sort(latency.begin(), latency.end());
+        printf("%-8s %-10s p50=%8.2f us p99=%8.2f us max=%9.2f us\n", name,
+               intervalNs == 0 ? "burst" : "paced",
+               latency[latency.size() / 2] / 1000.0, latency[latency.size() * 99 / 100] / 1000.0,
+               latency.back() / 1000.0);
+    }
+};
+
+int main() {
+    // Paced: frames arrive every 50us and consumer is usually parked.
+    // Burst: producer pushes as fast as possible and consumer is usually busy.
+    const uint64_t intervals[] = {50 * 1000, 0};
+    for (uint64_t interval : intervals) {
+        {
+            Bench<ListQueue, ListQueue> bench(interval);
+            bench.run("list");
+        }
+        {
+            Bench<BlockingSpscQueue<int>, SpscQueue<int>> bench(interval);
+            bench.run("spsc");
+        }
+    }
+    return 0;
+}
@@ -0,0 +1,160 @@
+#ifndef ALVRCLIENT_SPSC_QUEUE_H
+#define ALVRCLIENT_SPSC_QUEUE_H
+
+#include <atomic>
+#include <vector>
+#include <stddef.h>
+#include <pthread.h>
+
+// Fixed capacity lock-free queue for exactly one producer thread and one consumer thread.
+template<typename T>
+class SpscQueue {
+public:
+    SpscQueue(size_t capacity) : m_capacity(capacity) {
+        size_t size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        m_mask = size - 1;
+        m_buffer.resize(size);
+        m_head = 0;
+        m_tail = 0;
+    }
+
+    // Called from producer. Returns false if queue is full.
+    bool push(const T &value) {
+        size_t tail = m_tail.load(std::memory_order_relaxed);
+        if (tail - m_headCache >= m_capacity) {
+            m_headCache = m_head.load(std::memory_order_acquire);
+            if (tail - m_headCache >= m_capacity) {
+                return false;
+            }
+        }
+        m_buffer[tail & m_mask] = value;
+        m_tail.store(tail + 1, std::memory_order_release);
+        return true;
+    }
+
+    // Called from consumer. Returns false if queue is empty.
+    bool pop(T &value) {
+        size_t head = m_head.load(std::memory_order_relaxed);
+        if (head == m_tailCache) {
+            m_tailCache = m_tail.load(std::memory_order_acquire);
+            if (head == m_tailCache) {
+                return false;
+            }
+        }
+        value = m_buffer[head & m_mask];
+        m_head.store(head + 1, std::memory_order_release);
+        return true;
+    }
+
+    // Can be called from any thread, but the result may be outdated.
+    size_t size() const {
+        size_t head = m_head.load(std::memory_order_acquire);
+        size_t tail = m_tail.load(std::memory_order_acquire);
+        return tail - head;
+    }
+
+    bool empty() const {
+        return size() == 0;
+    }
+
+    size_t capacity() const {
+        return m_capacity;
+    }
+private:
+    std::vector<T> m_buffer;
+    size_t m_capacity;
+    size_t m_mask;
+
+    // Keep consumer and producer indices on separate cache lines.
+    char m_pad0[64];
+    std::atomic<size_t> m_head;
+    // Consumer's copy of m_tail
+    size_t m_tailCache = 0;
+    char m_pad1[64];
+    std::atomic<size_t> m_tail;
+    // Producer's copy of m_head
+    size_t m_headCache = 0;
+    char m_pad2[64];
+};
+
+// SpscQueue whose consumer can sleep while the queue is empty.
+// Producer takes the lock and signals only when consumer is parked, so handoff is lock-free
+// while consumer is busy.
+template<typename T>
+class BlockingSpscQueue : public SpscQueue<T> {
+public:
+    BlockingSpscQueue(size_t capacity) : SpscQueue<T>(capacity) {
+        pthread_mutex_init(&m_mutex, NULL);
+        pthread_cond_init(&m_cond, NULL);
+        m_parked = false;
+        m_interrupted = false;
+    }
+
+    ~BlockingSpscQueue() {
+        pthread_cond_destroy(&m_cond);
+        pthread_mutex_destroy(&m_mutex);
+    }
+
+    // Called from producer. Returns false if queue is full.
+    bool push(const T &value) {
+        if (!SpscQueue<T>::push(value)) {
+            return false;
+        }
+        // Pairs with the fence in waitPop. Either we see parked consumer or consumer sees new value.
+        std::atomic_thread_fence(std::memory_order_seq_cst);
+        if (m_parked.load(std::memory_order_relaxed)) {
+            pthread_mutex_lock(&m_mutex);
+            pthread_cond_signal(&m_cond);
+            pthread_mutex_unlock(&m_mutex);
+        }
+        return true;
+    }
+
+    // Called from consumer. Wait until a value is available.
+    // Returns false when interrupt() was called.
+    bool waitPop(T &value) {
+        while (true) {
+            if (m_interrupted.load(std::memory_order_acquire)) {
+                return false;
+            }
+            if (SpscQueue<T>::pop(value)) {
+                return true;
+            }
+
+            pthread_mutex_lock(&m_mutex);
+            m_parked.store(true, std::memory_order_relaxed);
+            std::atomic_thread_fence(std::memory_order_seq_cst);
+            while (!m_interrupted.load(std::memory_order_relaxed) && SpscQueue<T>::empty()) {
+                pthread_cond_wait(&m_cond, &m_mutex);
+            }
+            m_parked.store(false, std::memory_order_relaxed);
+            pthread_mutex_unlock(&m_mutex);
+        }
+    }
+
+    // Wake up consumer. waitPop returns false until clearInterrupt() is called.
+    void interrupt() {
+        pthread_mutex_lock(&m_mutex);
+        m_interrupted = true;
+        pthread_cond_broadcast(&m_cond);
+        pthread_mutex_unlock(&m_mutex);
+    }
+
+    void clearInterrupt() {
+        m_interrupted = false;
+    }
+
+    bool isInterrupted() const {
+        return m_interrupted;
+    }
+private:
+    pthread_mutex_t m_mutex;
+    pthread_cond_t m_cond;
+    std::atomic<bool> m_parked;
+    std::atomic<bool> m_interrupted;
+};
+
+#endif //ALVRCLIENT_SPSC_QUEUE_H
@@ -0,0 +1,85 @@
+#include <string.h>
+#include "start_code.h"
+#include "packet_types.h"
+
+static const uint64_t ONES = 0x0101010101010101ULL;
+static const uint64_t HIGHS = 0x8080808080808080ULL;
+
+// Non-zero if any byte of word is zero.
+static inline uint64_t hasZeroByte(uint64_t word) {
+    return (word - ONES) & ~word & HIGHS;
+}
+
+int StartCodeScanner::find3(const char *buffer, int from, int end) {
+    int i = from;
+    // Start code can begin at i only when byte i is zero, so words without zero byte are skipped.
+    while (i + 8 + 2 <= end) {
+        uint64_t word;
+        memcpy(&word, buffer + i, sizeof(word));
+        if (hasZeroByte(word)) {
+            for (int j = i; j < i + 8; j++) {
+                if (buffer[j] == 0 && buffer[j + 1] == 0 && buffer[j + 2] == 1) {
+                    return j;
+                }
+            }
+        }
+        i += 8;
+    }
+    for (; i + 2 < end; i++) {
+        if (buffer[i] == 0 && buffer[i + 1] == 0 && buffer[i + 2] == 1) {
+            return i;
+        }
+    }
+    return -1;
+}
+
+int StartCodeScanner::findStartCode(const char *buffer, int from, int end) {
+    int pos = find3(buffer, from, end);
+    if (pos > from && buffer[pos - 1] == 0) {
+        return pos - 1;
+    }
+    return pos;
+}
+
+int StartCodeScanner::nalType(char header, int codec) {
+    if (codec == ALVR_CODEC_H264) {
+        return header & 0x1F;
+    }
+    return (header >> 1) & 0x3F;
+}
+
+int StartCodeScanner::firstNalType(const char *buffer, int length, int codec) {
+    int pos = find3(buffer, 0, length);
+    if (pos == -1 || pos + 3 >= length) {
+        return -1;
+    }
+    return nalType(buffer[pos + 3], codec);
+}
+
+int StartCodeScanner::scan(const char *buffer, int length, int codec, int maxUnits) {
+    m_count = 0;
+    int from = 0;
+    while (m_count < maxUnits) {
+        int pos = find3(buffer, from, length);
+        if (pos == -1 || pos + 3 >= length) {
+            break;
+        }
+        if ((size_t) m_count >= m_units.size()) {
+            m_units.resize(m_units.size() * 2 + 16);
+        }
+        NalUnitInfo &unit = m_units[m_count++];
+        unit.start = pos > from && buffer[pos - 1] == 0 ? pos - 1 : pos;
+        unit.header = pos + 3;
+        unit.type = nalType(buffer[pos + 3], codec);
+        from = pos + 3;
+    }
+    return m_count;
+}
+
+int StartCodeScanner::getCount() const {
+    return m_count;
+}
+
+const NalUnitInfo &StartCodeScanner::get(int i) const {
+    return m_units[i];
+}
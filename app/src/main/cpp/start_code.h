@@ -0,0 +1,41 @@
+#ifndef ALVRCLIENT_START_CODE_H
+#define ALVRCLIENT_START_CODE_H
+
+#include <stdint.h>
+#include <limits.h>
+#include <vector>
+
+// NAL unit found in Annex-B byte stream.
+struct NalUnitInfo {
+    // Offset of start code. (Leading zero of 4-byte start code)
+    int start;
+    // Offset of NAL header following start code.
+    int header;
+    int type;
+};
+
+// Finds NAL boundaries (00 00 01 and 00 00 00 01) in Annex-B byte stream.
+// Buffer is scanned a word at a time and bytes are inspected only in words which contain zero byte.
+// Result array is reused across frames to avoid allocation on receive path.
+class StartCodeScanner {
+public:
+    // Find up to maxUnits NAL units in buffer. codec: ALVR_CODEC_H264 or ALVR_CODEC_H265.
+    // Returns number of units found. Results are valid until next scan.
+    int scan(const char *buffer, int length, int codec, int maxUnits = INT_MAX);
+    int getCount() const;
+    const NalUnitInfo &get(int i) const;
+
+    // Returns offset of first start code in [from, end) (leading zero for 4-byte start code), or -1.
+    static int findStartCode(const char *buffer, int from, int end);
+    // Returns type of the first NAL unit in buffer, or -1 if buffer has no complete NAL header.
+    static int firstNalType(const char *buffer, int length, int codec);
+    static int nalType(char header, int codec);
+private:
+    // Returns offset of 00 00 01 in [from, end), or -1.
+    static int find3(const char *buffer, int from, int end);
+
+    std::vector<NalUnitInfo> m_units;
+    int m_count = 0;
+};
+
+#endif //ALVRCLIENT_START_CODE_H
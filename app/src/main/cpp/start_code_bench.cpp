@@ -0,0 +1,190 @@
+// Micro benchmark of NAL boundary scanning on received frames.
+// Compares byte-by-byte scan (as previous NALParser::findVPSSPS and findStartCode) with StartCodeScanner.
+// Frames are read from Annex-B files given as arguments (e.g. dump of DecoderThread.debugIDRFrame),
+// otherwise H.264 and H.265 like frames are synthesized.
+//
+// Build and run on host or device (not part of native-lib):
+//   g++ -O2 -std=c++14 -I../../../../ALVR-common -o start_code_bench start_code_bench.cpp start_code.cpp
+//   ./start_code_bench [codec(0:H.264 1:H.265) file.h264 ...]
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <stdint.h>
+#include <time.h>
+#include <vector>
+#include "start_code.h"
+#include "packet_types.h"
+
+static const int ITERATIONS = 200;
+
+struct Frame {
+    int codec;
+    std::vector<char> data;
+};
+
+static uint64_t nowNs() {
+    timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (uint64_t) ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+}
+
+// Byte-by-byte scan. Returns number of units and fills starts.
+static int scanBytewise(const char *buffer, int length, int codec, std::vector<NalUnitInfo> &units) {
+    int count = 0;
+    int zeroes = 0;
+    for (int i = 0; i + 1 < length; i++) {
+        if (buffer[i] == 0) {
+            zeroes++;
+        } else {
+            if (buffer[i] == 1 && zeroes >= 2) {
+                if ((size_t) count >= units.size()) {
+                    units.resize(units.size() * 2 + 16);
+                }
+                NalUnitInfo &unit = units[count++];
+                unit.start = zeroes >= 3 ? i - 3 : i - 2;
+                unit.header = i + 1;
+                unit.type = StartCodeScanner::nalType(buffer[i + 1], codec);
+            }
+            zeroes = 0;
+        }
+    }
+    return count;
+}
+
+static void appendNal(std::vector<char> &frame, bool longStartCode, char header, int size) {
+    if (longStartCode) {
+        frame.push_back(0);
+    }
+    frame.push_back(0);
+    frame.push_back(0);
+    frame.push_back(1);
+    frame.push_back(header);
+    for (int i = 0; i < size; i++) {
+        // Slice data of entropy coder. Zero bytes appear but never 00 00 0x (emulation prevention).
+        char c = (char) (rand() & 0xFF);
+        if (c == 0 && frame.back() == 0) {
+            c = 3;
+        }
+        frame.push_back(c);
+    }
+}
+
+// IDR frames with parameter sets and P frames split into slices, similar to NVENC output.
+static void synthesize(std::vector<Frame> &frames) {
+    srand(1);
+    for (int codec = ALVR_CODEC_H264; codec <= ALVR_CODEC_H265; codec++) {
+        for (int f = 0; f < 72; f++) {
+            Frame frame;
+            frame.codec = codec;
+            bool idr = f % 36 == 0;
+            int slices = 4;
+            int sliceSize = idr ? 60000 : 8000;
+            if (codec == ALVR_CODEC_H264) {
+                if (idr) {
+                    appendNal(frame.data, true, 0x67, 20);
+                    appendNal(frame.data, true, 0x68, 4);
+                }
+                for (int i = 0; i < slices; i++) {
+                    appendNal(frame.data, i == 0, idr ? 0x65 : 0x41, sliceSize);
+                }
+            } else {
+                if (idr) {
+                    appendNal(frame.data, true, 32 << 1, 20);
+                    appendNal(frame.data, true, 33 << 1, 40);
+                    appendNal(frame.data, true, 34 << 1, 6);
+                }
+                for (int i = 0; i < slices; i++) {
+                    // Second byte of H.265 NAL header is in slice data.
+                    appendNal(frame.data, i == 0, (idr ? 19 : 1) << 1, sliceSize);
+                }
+            }
+            frames.push_back(frame);
+        }
+    }
+}
+
+static bool load(int codec, const char *path, std::vector<Frame> &frames) {
+    FILE *fp = fopen(path, "rb");
+    if (fp == NULL) {
+        return false;
+    }
+    Frame frame;
+    frame.codec = codec;
+    char buf[65536];
+    size_t n;
+    while ((n = fread(buf, 1, sizeof(buf), fp)) > 0) {
+        frame.data.insert(frame.data.end(), buf, buf + n);
+    }
+    fclose(fp);
+    frames.push_back(frame);
+    return true;
+}
+
+int main(int argc, char **argv) {
+    std::vector<Frame> frames;
+    if (argc >= 3) {
+        int codec = atoi(argv[1]);
+        for (int i = 2; i < argc; i++) {
+            if (!load(codec, argv[i], frames)) {
+                fprintf(stderr, "Cannot read %s\n", argv[i]);
+                return 1;
+            }
+        }
+    } else {
+        synthesize(frames);
+    }
+
+    uint64_t bytes = 0;
+    for (const Frame &frame : frames) {
+        bytes += frame.data.size();
+    }
+
+    // Verify both scanners find same units.
+    StartCodeScanner scanner;
+    std::vector<NalUnitInfo> units;
+    int totalUnits = 0;
+    for (const Frame &frame : frames) {
+        int n1 = scanBytewise(frame.data.data(), (int) frame.data.size(), frame.codec, units);
+        int n2 = scanner.scan(frame.data.data(), (int) frame.data.size(), frame.codec);
+        if (n1 != n2) {
+            printf("Mismatch: count %d != %d\n", n1, n2);
+            return 1;
+        }
+        for (int i = 0; i < n1; i++) {
+            const NalUnitInfo &a = units[i];
+            const NalUnitInfo &b = scanner.get(i);
+            if (a.start != b.start || a.header != b.header || a.type != b.type) {
+                printf("Mismatch: unit %d start %d/%d type %d/%d\n", i, a.start, b.start, a.type, b.type);
+                return 1;
+            }
+        }
+        totalUnits += n1;
+    }
+    printf("%zu frames, %llu bytes, %d NAL units\n", frames.size(), (unsigned long long) bytes, totalUnits);
+
+    // Accumulate results so that scans are not optimized out.
+    uint64_t sink = 0;
+    uint64_t start = nowNs();
+    for (int it = 0; it < ITERATIONS; it++) {
+        for (const Frame &frame : frames) {
+            sink += scanBytewise(frame.data.data(), (int) frame.data.size(), frame.codec, units);
+        }
+    }
+    uint64_t bytewise = nowNs() - start;
+
+    start = nowNs();
+    for (int it = 0; it < ITERATIONS; it++) {
+        for (const Frame &frame : frames) {
+            sink += scanner.scan(frame.data.data(), (int) frame.data.size(), frame.codec);
+        }
+    }
+    uint64_t wordwise = nowNs() - start;
+
+    double scale = 1.0 / ((double) ITERATIONS * frames.size());
+    printf("bytewise:         %8.2f us/frame %6.2f GB/s\n", bytewise * scale / 1000.0,
+           (double) bytes * ITERATIONS / bytewise);
+    printf("StartCodeScanner: %8.2f us/frame %6.2f GB/s\n", wordwise * scale / 1000.0,
+           (double) bytes * ITERATIONS / wordwise);
+    printf("(%llu)\n", (unsigned long long) sink);
+    return 0;
+}
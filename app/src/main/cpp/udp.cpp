@@ -18,6 +18,7 @@ std::shared_ptr<UdpManager> g_udpManager;
 
 
 Socket::Socket() {
+    setRecvBatchSize(DEFAULT_RECV_BATCH_SIZE);
 }
 
 Socket::~Socket() {
@@ -92,19 +93,125 @@ int Socket::send(const void *buf, size_t len) {
                   sizeof(m_serverAddr));
 }
 
-void Socket::recv() {
-    char packet[MAX_PACKET_SIZE];
-    sockaddr_in addr;
-    socklen_t socklen = sizeof(addr);
+void Socket::setRecvBatchSize(int batchSize) {
+    if (batchSize < 1) {
+        batchSize = 1;
+    }
+    m_recvBatchSize = batchSize;
+    m_recvBuffer.resize(batchSize * MAX_PACKET_SIZE);
+    m_recvMessages.resize(batchSize);
+    m_recvIovecs.resize(batchSize * 2);
+    m_recvAddrs.resize(batchSize);
+    m_recvPlacements.resize(batchSize);
+    m_recvPayloads.resize(batchSize);
+
+    for (int i = 0; i < batchSize; i++) {
+        memset(&m_recvMessages[i], 0, sizeof(mmsghdr));
+        m_recvMessages[i].msg_hdr.msg_iov = &m_recvIovecs[i * 2];
+        m_recvMessages[i].msg_hdr.msg_iovlen = 2;
+        m_recvMessages[i].msg_hdr.msg_name = &m_recvAddrs[i];
+    }
+}
+
+// Point payload iovec of each slot to the predicted place in FEC frame buffer.
+// Packet is received contiguously into the slot when there is no prediction.
+void Socket::preparePlacement() {
+    int predicted = 0;
+    if (m_connected && m_onPredictPlacement) {
+        predicted = m_onPredictPlacement(&m_recvPlacements[0], m_recvBatchSize);
+    }
+    for (int i = 0; i < m_recvBatchSize; i++) {
+        char *slot = &m_recvBuffer[i * MAX_PACKET_SIZE];
+        iovec *iov = &m_recvIovecs[i * 2];
+        iov[0].iov_base = slot;
+        iov[0].iov_len = sizeof(VideoFrame);
+        if (i < predicted) {
+            iov[1].iov_base = m_recvPlacements[i].buffer;
+            iov[1].iov_len = ALVR_MAX_VIDEO_BUFFER_SIZE;
+        } else {
+            m_recvPlacements[i].buffer = NULL;
+            iov[1].iov_base = slot + sizeof(VideoFrame);
+            iov[1].iov_len = MAX_PACKET_SIZE - sizeof(VideoFrame);
+        }
+    }
+}
+
+// Check predictions against received headers. Payloads of mispredicted packets are moved back into
+// their slots before any packet is parsed, so that they are not overwritten by correctly placed packets.
+void Socket::resolvePlacement(int count) {
+    for (int i = 0; i < count; i++) {
+        char *slot = &m_recvBuffer[i * MAX_PACKET_SIZE];
+        m_recvPayloads[i] = slot + sizeof(VideoFrame);
 
+        const PayloadPlacement &placement = m_recvPlacements[i];
+        int packetSize = m_recvMessages[i].msg_len;
+        if (placement.buffer == NULL || packetSize <= (int) sizeof(VideoFrame)) {
+            continue;
+        }
+        const VideoFrame *header = (const VideoFrame *) slot;
+        if (header->type == ALVR_PACKET_TYPE_VIDEO_FRAME &&
+            header->frameIndex == placement.frameIndex && header->fecIndex == placement.fecIndex) {
+            m_recvPayloads[i] = placement.buffer;
+        } else {
+            memcpy(slot + sizeof(VideoFrame), placement.buffer, packetSize - sizeof(VideoFrame));
+            LatencyCollector::Instance().memoryCopy(packetSize - sizeof(VideoFrame));
+        }
+    }
+}
+
+// Fill packet slots with received packets and return the number of packets.
+// Returns 0 when no packet is available.
+int Socket::recvBatch() {
+    preparePlacement();
+    for (int i = 0; i < m_recvBatchSize; i++) {
+        m_recvMessages[i].msg_hdr.msg_namelen = sizeof(sockaddr_in);
+    }
+
+    int count = 0;
+    if (m_useRecvmmsg) {
+        count = recvmmsg(m_sock, &m_recvMessages[0], m_recvBatchSize, 0, NULL);
+        if (count < 0 && errno == ENOSYS) {
+            LOGI("recvmmsg is not supported. Falling back to recvmsg.");
+            m_useRecvmmsg = false;
+        }
+    }
+    if (!m_useRecvmmsg) {
+        for (count = 0; count < m_recvBatchSize; count++) {
+            int packetSize = recvmsg(m_sock, &m_recvMessages[count].msg_hdr, 0);
+            if (packetSize <= 0) {
+                break;
+            }
+            m_recvMessages[count].msg_len = packetSize;
+        }
+    }
+    if (count <= 0) {
+        return 0;
+    }
+
+    resolvePlacement(count);
+    return count;
+}
+
+void Socket::recv() {
+    int syscalls = 0;
+    int packets = 0;
     while (true) {
-        int packetSize = recvfrom(m_sock, packet, MAX_PACKET_SIZE, 0, (sockaddr *) &addr,
-                                  &socklen);
-        if (packetSize <= 0) {
-            return;
+        int count = recvBatch();
+        syscalls++;
+        for (int i = 0; i < count; i++) {
+            int packetSize = m_recvMessages[i].msg_len;
+            if (packetSize <= 0) {
+                continue;
+            }
+            parse(&m_recvBuffer[i * MAX_PACKET_SIZE], m_recvPayloads[i], packetSize, m_recvAddrs[i]);
+        }
+        packets += count;
+        if (count < m_recvBatchSize) {
+            // Socket buffer is drained.
+            break;
         }
-        parse(packet, packetSize, addr);
     }
+    LatencyCollector::Instance().recvWakeup(packets, syscalls);
 }
 
 void Socket::disconnect() {
@@ -140,7 +247,7 @@ void Socket::sendBroadcast(const void *buf, size_t len) {
     }
 }
 
-void Socket::parse(char *packet, int packetSize, const sockaddr_in &addr) {
+void Socket::parse(char *packet, const char *payload, int packetSize, const sockaddr_in &addr) {
     if (m_connected) {
         if (addr.sin_port != m_serverAddr.sin_port ||
             addr.sin_addr.s_addr != m_serverAddr.sin_addr.s_addr) {
@@ -151,7 +258,7 @@ void Socket::parse(char *packet, int packetSize, const sockaddr_in &addr) {
                  htons(addr.sin_port));
             return;
         }
-        m_onPacketRecv(packet, packetSize);
+        m_onPacketRecv(packet, payload, packetSize);
     } else {
         uint32_t type = *(uint32_t *) packet;
         if (type == ALVR_PACKET_TYPE_BROADCAST_REQUEST_MESSAGE) {
@@ -215,7 +322,7 @@ UdpManager::~UdpManager() {
 
 void
 UdpManager::initialize(JNIEnv *env, jint port, jstring deviceName_, jobjectArray broadcastAddrList_,
-                       jboolean is72Hz) {
+                       jboolean is72Hz, jint nalPoolSize, jint nalBufferSize, jboolean sliceStreaming) {
     //
     // Initialize variables
     //
@@ -232,7 +339,10 @@ UdpManager::initialize(JNIEnv *env, jint port, jstring deviceName_, jobjectArray
 
     m_deviceName = GetStringFromJNIString(env, deviceName_);
 
-    m_nalParser = std::make_shared<NALParser>(env);
+    m_nalParser = std::make_shared<NALParser>(env, nalPoolSize, nalBufferSize);
+    m_nalParser->setParallelReconstruct(FEC_RECONSTRUCT_THREADS, FEC_PARALLEL_MIN_SHARD_PACKETS);
+    // Slices are streamed only when decoder accepts partial frames. Updated by DecoderThread on decoder activation.
+    m_nalParser->setSliceStreaming(sliceStreaming);
 
     //
     // Socket
@@ -241,7 +351,10 @@ UdpManager::initialize(JNIEnv *env, jint port, jstring deviceName_, jobjectArray
     m_socket.setOnConnect(std::bind(&UdpManager::onConnect, this, std::placeholders::_1));
     m_socket.setOnBroadcastRequest(std::bind(&UdpManager::onBroadcastRequest, this));
     m_socket.setOnPacketRecv(std::bind(&UdpManager::onPacketRecv, this, std::placeholders::_1,
-                                       std::placeholders::_2));
+                                       std::placeholders::_2, std::placeholders::_3));
+    m_socket.setOnPredictPlacement(std::bind(&NALParser::predictPayloadPlacement, m_nalParser.get(),
+                                             std::placeholders::_1, std::placeholders::_2));
+    m_socket.setRecvBatchSize(RECV_BATCH_SIZE);
     m_socket.initialize(env, port, broadcastAddrList_);
 
     //
@@ -343,10 +456,51 @@ void UdpManager::processReadPipe(int pipefd) {
     return;
 }
 
+// Receive and decode pipeline counters of the last second. Enabled by TIMESYNC_STATISTICS_LOG.
+void UdpManager::logStatistics() {
+    LOGI("Receive. LateRecoveredFrames=%" PRIu64 "/%" PRIu64 " FecReconstructTime=%" PRIu64 "/%" PRIu64 " us PacketsPerWakeup=%.2f RecvSyscalls=%" PRIu64,
+         LatencyCollector::Instance().getLateRecoveredInSecond(),
+         LatencyCollector::Instance().getLateRecoveredTotal(),
+         LatencyCollector::Instance().getFecReconstructTime(0),
+         LatencyCollector::Instance().getFecReconstructTime(1),
+         LatencyCollector::Instance().getPacketsPerWakeup(),
+         LatencyCollector::Instance().getRecvSyscallsInSecond());
+    LOGI("Receive path copies. Copies=%" PRIu64 " BytesCopied=%" PRIu64 " ZeroCopyPackets=%" PRIu64,
+         LatencyCollector::Instance().getMemoryCopiesInSecond(),
+         LatencyCollector::Instance().getMemoryCopyBytesInSecond(),
+         LatencyCollector::Instance().getZeroCopyPacketsInSecond());
+    LOGI("NAL pool. HighWaterMark=%d/%d Exhausted=%" PRIu64 " Expanded=%" PRIu64,
+         m_nalParser->getPoolHighWaterMark(), m_nalParser->getPoolSize(),
+         m_nalParser->getPoolExhaustedCount(), m_nalParser->getPoolExpandedCount());
+    LOGI("Frame queue. Size=%u Underrun=%" PRIu64 " Overrun=%" PRIu64 " DecoderOutputJitter=%" PRIu64 " us TimeToFirstFrame=%" PRIu64 " us",
+         LatencyCollector::Instance().getFrameQueueSize(),
+         LatencyCollector::Instance().getFrameQueueUnderrunTotal(),
+         LatencyCollector::Instance().getFrameQueueOverrunTotal(),
+         LatencyCollector::Instance().getDecoderOutputJitter(),
+         LatencyCollector::Instance().getTimeToFirstFrame());
+    LOGI("Decoder input. WaitTime=%" PRIu64 " us in last second",
+         LatencyCollector::Instance().getDecoderInputWaitInSecond());
+    LOGI("Receive to decoder input. Streamed=%" PRIu64 "/%" PRIu64 " us (%" PRIu64 " frames) Whole=%" PRIu64 "/%" PRIu64 " us (%" PRIu64 " frames) StreamedTotal=%" PRIu64 " WholeTotal=%" PRIu64 " Aborted=%" PRIu64,
+         LatencyCollector::Instance().getReceiveToDecoderInput(0, 0),
+         LatencyCollector::Instance().getReceiveToDecoderInput(0, 1),
+         LatencyCollector::Instance().getReceiveToDecoderInput(0, 2),
+         LatencyCollector::Instance().getReceiveToDecoderInput(1, 0),
+         LatencyCollector::Instance().getReceiveToDecoderInput(1, 1),
+         LatencyCollector::Instance().getReceiveToDecoderInput(1, 2),
+         m_nalParser->getStreamedFrames(), m_nalParser->getWholeFrames(),
+         m_nalParser->getAbortedStreamFrames());
+    LOGI("NAL drop. DroppedFrames=%" PRIu64 " DroppedNals=%" PRIu64 " WaitIDRTime=%" PRIu64 " ms WaitingIDR=%d",
+         m_nalParser->getDroppedFrames(), m_nalParser->getDroppedNals(),
+         m_nalParser->getWaitIdrTime() / 1000, m_nalParser->isWaitingIdr());
+}
+
 void UdpManager::sendTimeSync() {
     time_t current = time(NULL);
     if (m_prevSentSync != current && m_socket.isConnected()) {
         LOGI("Sending timesync.");
+        if (TIMESYNC_STATISTICS_LOG) {
+            logStatistics();
+        }
 
         TimeSync timeSync = {};
         timeSync.type = ALVR_PACKET_TYPE_TIME_SYNC;
@@ -515,6 +669,7 @@ void UdpManager::onConnect(const ConnectionMessage &connectionMessage) {
     m_timeDiff = 0;
     LatencyCollector::Instance().resetAll();
     m_nalParser->setCodec(m_connectionMessage.codec);
+    m_nalParser->reset();
 
     jclass clazz = m_env->GetObjectClass(m_instance);
     jmethodID method = m_env->GetMethodID(clazz, "onConnected", "(IIII)V");
@@ -538,7 +693,7 @@ void UdpManager::onBroadcastRequest() {
     m_socket.send(&message, sizeof(message));
 }
 
-void UdpManager::onPacketRecv(const char *packet, size_t packetSize) {
+void UdpManager::onPacketRecv(const char *packet, const char *payload, size_t packetSize) {
     updateTimeout();
 
     uint32_t type = *(uint32_t *) packet;
@@ -561,14 +716,15 @@ void UdpManager::onPacketRecv(const char *packet, size_t packetSize) {
 
         // Following packets of a video frame
         bool fecFailure = false;
-        bool ret2 = m_nalParser->processPacket(header, packetSize, fecFailure);
-        if (ret2) {
-            LatencyCollector::Instance().receivedLast(header->frameIndex);
-        }
+        m_nalParser->processPacket(header, payload, packetSize, fecFailure);
         if (fecFailure) {
             LatencyCollector::Instance().fecFailure();
             sendPacketLossReport(ALVR_LOST_FRAME_TYPE_VIDEO, 0, 0);
         }
+        if (m_nalParser->takeDropReport()) {
+            // NALs were dropped before decoder. Request IDR as on FEC failure.
+            sendPacketLossReport(ALVR_LOST_FRAME_TYPE_VIDEO, 0, 0);
+        }
     } else if (type == ALVR_PACKET_TYPE_TIME_SYNC) {
         // Time sync packet
         if (packetSize < sizeof(TimeSync)) {
@@ -660,10 +816,14 @@ Java_com_polygraphene_alvr_UdpReceiverThread_initializeSocket(JNIEnv *env, jobje
                                                               jint port,
                                                               jstring deviceName_,
                                                               jobjectArray broadcastAddrList_,
-                                                              jboolean is72Hz) {
+                                                              jboolean is72Hz,
+                                                              jint nalPoolSize,
+                                                              jint nalBufferSize,
+                                                              jboolean sliceStreaming) {
     g_udpManager = std::make_shared<UdpManager>();
     try {
-        g_udpManager->initialize(env, port, deviceName_, broadcastAddrList_, is72Hz);
+        g_udpManager->initialize(env, port, deviceName_, broadcastAddrList_, is72Hz, nalPoolSize,
+                                 nalBufferSize, sliceStreaming);
     } catch (Exception e) {
         LOGE("Exception on initializing UdpManager. e=%s", e.what());
         return 1;
@@ -723,6 +883,15 @@ Java_com_polygraphene_alvr_UdpReceiverThread_interruptNative(JNIEnv *env, jobjec
     }
 }
 
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_polygraphene_alvr_UdpReceiverThread_setSliceStreamingNative(JNIEnv *env, jobject instance,
+                                                                     jboolean enabled) {
+    if (g_udpManager) {
+        g_udpManager->getNalParser().setSliceStreaming(enabled);
+    }
+}
+
 extern "C"
 JNIEXPORT void JNICALL
 Java_com_polygraphene_alvr_UdpReceiverThread_notifyWaitingThread(JNIEnv *env, jobject instance) {
@@ -5,6 +5,7 @@
 #include <list>
 #include <string>
 #include <memory>
+#include <vector>
 #include <jni.h>
 #include <sys/socket.h>
 #include <arpa/inet.h>
@@ -16,6 +17,8 @@
 
 // Maximum UDP packet size
 static const int MAX_PACKET_SIZE = 2000;
+// Default number of packets received by one recvmmsg call
+static const int DEFAULT_RECV_BATCH_SIZE = 32;
 
 class Socket {
 public:
@@ -29,6 +32,9 @@ public:
     void sendBroadcast(const void *buf, size_t len);
     void recv();
 
+    // Number of packet slots which are filled by one recvmmsg call.
+    void setRecvBatchSize(int batchSize);
+
     void recoverConnection(std::string serverAddress, int serverPort);
 
     void disconnect();
@@ -43,9 +49,14 @@ public:
     void setOnBroadcastRequest(std::function<void()> onBroadcastRequest) {
         m_onBroadcastRequest = onBroadcastRequest;
     }
-    void setOnPacketRecv(std::function<void(const char *buf, size_t len)> onPacketRecv) {
+    // payload points to the data following VideoFrame header. It is not contiguous with buf
+    // when payload was received into predicted placement.
+    void setOnPacketRecv(std::function<void(const char *buf, const char *payload, size_t len)> onPacketRecv) {
         m_onPacketRecv = onPacketRecv;
     }
+    void setOnPredictPlacement(std::function<int(PayloadPlacement *placements, int count)> onPredictPlacement) {
+        m_onPredictPlacement = onPredictPlacement;
+    }
 
     //
     // Getter
@@ -66,11 +77,27 @@ private:
 
     std::list<sockaddr_in> m_broadcastAddrList;
 
+    // Preallocated packet slots for batched receive.
+    int m_recvBatchSize = 0;
+    std::vector<char> m_recvBuffer;
+    std::vector<mmsghdr> m_recvMessages;
+    // Two iovecs per slot. Header and payload of video packet.
+    std::vector<iovec> m_recvIovecs;
+    std::vector<sockaddr_in> m_recvAddrs;
+    std::vector<PayloadPlacement> m_recvPlacements;
+    std::vector<const char *> m_recvPayloads;
+    // Cleared when recvmmsg is not supported by kernel.
+    bool m_useRecvmmsg = true;
+
     std::function<void(const ConnectionMessage &connectionMessage)> m_onConnect;
     std::function<void()> m_onBroadcastRequest;
-    std::function<void(const char *buf, size_t len)> m_onPacketRecv;
+    std::function<void(const char *buf, const char *payload, size_t len)> m_onPacketRecv;
+    std::function<int(PayloadPlacement *placements, int count)> m_onPredictPlacement;
 
-    void parse(char *packet, int packetSize, const sockaddr_in &addr);
+    void parse(char *packet, const char *payload, int packetSize, const sockaddr_in &addr);
+    int recvBatch();
+    void preparePlacement();
+    void resolvePlacement(int count);
 
     void setBroadcastAddrList(JNIEnv *env, int port, jobjectArray broadcastAddrList_);
 };
@@ -80,7 +107,7 @@ public:
     UdpManager();
     ~UdpManager();
     void initialize(JNIEnv *env, jint port, jstring deviceName_, jobjectArray broadcastAddrList_,
-                        jboolean is72Hz);
+                        jboolean is72Hz, jint nalPoolSize, jint nalBufferSize, jboolean sliceStreaming);
 
     NALParser &getNalParser() {
         return *m_nalParser;
@@ -99,6 +126,13 @@ public:
 private:
 // Connection has lost when elapsed 3 seconds from last packet.
     static const uint64_t CONNECTION_TIMEOUT = 3 * 1000 * 1000;
+// Recover shard packets on worker threads only when many of them are lost at once (burst loss of large frame).
+    static const int FEC_RECONSTRUCT_THREADS = 2;
+    static const int FEC_PARALLEL_MIN_SHARD_PACKETS = 4;
+// Log pipeline counters with every TimeSync. (once per second, for debugging)
+    static const bool TIMESYNC_STATISTICS_LOG = false;
+// Number of packets received by one syscall.
+    static const int RECV_BATCH_SIZE = DEFAULT_RECV_BATCH_SIZE;
 
     bool m_stopped = false;
 
@@ -142,6 +176,7 @@ private:
     void processReadPipe(int pipefd);
 
     void sendTimeSync();
+    void logStatistics();
     void sendBroadcast();
     void doPeriodicWork();
 
@@ -152,7 +187,7 @@ private:
 
     void onConnect(const ConnectionMessage &connectionMessage);
     void onBroadcastRequest();
-    void onPacketRecv(const char *packet, size_t packetSize);
+    void onPacketRecv(const char *packet, const char *payload, size_t packetSize);
 };
 
 #endif //ALVRCLIENT_UDP_H
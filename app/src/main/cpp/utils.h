@@ -3,6 +3,7 @@
 
 #include <jni.h>
 #include <stdint.h>
+#include <inttypes.h>
 #include <math.h>
 #include <time.h>
 #include <pthread.h>
@@ -161,6 +161,8 @@ void VrContext::fetchTrackingInfo(JNIEnv *env_, UdpManager *udpManager, ovrVecto
     frame->frameIndex = FrameIndex;
     frame->fetchTime = getTimestampUs();
     frame->displayTime = frame->fetchTime + 30000;
+    // Start of end-to-end latency, which pose prediction on TrackingThread targets.
+    LatencyCollector::Instance().tracking(FrameIndex);
     //frame->tracking = getTimestampUs();
 
     //frame->displayTime = vrapi_GetPredictedDisplayTime(Ovr, FrameIndex);
@@ -9,7 +9,6 @@ import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.os.Bundle;
 import android.util.Log;
-import android.util.Pair;
 import android.util.TimeUtils;
 import android.view.Surface;
 
@@ -25,8 +24,6 @@ import com.google.vr.sdk.base.Eye;
 
 import java.nio.IntBuffer;
 import java.util.Arrays;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -90,6 +87,8 @@ public class DaydreamLayersActivity extends AlvrActivity {
         private final BufferViewport tmpViewport;
         private final Point targetSize = new Point();
         private final float[] headFromWorld = new float[16];
+        private final float[] renderedHeadFromWorld = new float[16];
+        private long lastSubmittedFrameIndex = -1;
 
         private Mesh display;
         private Surface displaySurface;
@@ -155,7 +154,10 @@ public class DaydreamLayersActivity extends AlvrActivity {
         public void onDrawFrame(GL10 gl10) {
             Frame frame = swapChain.acquireFrame();
             long poseTime = System.nanoTime();
-            mGvrApi.getHeadSpaceFromStartSpaceTransform(headFromWorld, poseTime  + TimeUnit.MILLISECONDS.toNanos(50));
+            // acquireFrame returns once per vsync. Tracking ticks are phase locked to it.
+            vrThread.onVsync(poseTime);
+            // GVR predicts the pose to display time of the frame server renders with it.
+            mGvrApi.getHeadSpaceFromStartSpaceTransform(headFromWorld, poseTime + vrThread.getPredictionNs());
             mGvrApi.getRecommendedBufferViewports(viewportList);
             frame.bindBuffer(0);
 
@@ -199,7 +201,7 @@ public class DaydreamLayersActivity extends AlvrActivity {
             Matrix.multiplyMM(translationMatrix, 0, invRotationMatrix, 0, headFromWorld, 0);
             //Log.e("XXX", Arrays.toString(translationMatrix));
 
-            // Set tracking and save the current head pose. The headFromWorld value is saved in frameTracker via a call to trackFrame by the TrackingThread.
+            // Set tracking and save the predicted head pose. The headFromWorld value is saved in poseHistory via a call to trackFrame by the TrackingThread.
             vrThread.setTracking(-translationMatrix[12], 1.8f - translationMatrix[13], -translationMatrix[14], x, y, z, w, headFromWorld, poseTime);
             //Log.e("XXX", "saving frame " + z + " " + Arrays.toString(m) + Math.sqrt(x * x + y * y + z * z + w * w));
 
@@ -207,14 +209,11 @@ public class DaydreamLayersActivity extends AlvrActivity {
             // The code above this point and below this point should actually be in two separate
             // functions and threads.
             long renderedFrameIndex = vrThread.updateTexImage();
-            Pair<float[], Long> p = frameTracker.get(renderedFrameIndex);
-            frameTracker.remove(renderedFrameIndex - 100); // Reduce leaked memory.
-            if (p == null) {
-                // frames were dropped.
+            if (poseHistory.find(renderedFrameIndex, renderedHeadFromWorld) == PoseHistory.LOOKUP_FALLBACK) {
+                // No tracked pose around the frame.
                 m = headFromWorld;
             } else {
-                m = p.first;
-                Log.e("XXX", "using frame " + renderedFrameIndex + "@" + (System.nanoTime() - p.second)/1000000f);
+                m = renderedHeadFromWorld;
             }
 
             // Draw quad across both eyes in one shot.
@@ -226,19 +225,24 @@ public class DaydreamLayersActivity extends AlvrActivity {
 
             frame.unbind();
             frame.submit(viewportList, m);
+            if (renderedFrameIndex > 0 && renderedFrameIndex != lastSubmittedFrameIndex) {
+                LatencyCollector.submit(renderedFrameIndex);
+                lastSubmittedFrameIndex = renderedFrameIndex;
+            }
         }
 
         public void shutdown() {
+            poseHistory.logStatistics();
             viewportList.shutdown();
             tmpViewport.shutdown();
             swapChain.shutdown();
         }
     }
 
-    // Frames are saved from the TrackerThread. Pretend there is no race condition.
-    public static final ConcurrentHashMap<Long, Pair<float[], Long>> frameTracker = new ConcurrentHashMap<Long, Pair<float[], Long>>();
+    // Frames are saved from the TrackerThread and read back on render thread.
+    // Holds poses of about 1.7 seconds at 72fps, far more than frames in flight.
+    public static final PoseHistory poseHistory = new PoseHistory(128);
     public static void trackFrame(long frameIndex, float[] matrix, long poseTime) {
-        frameTracker.put(frameIndex, Pair.create(matrix.clone(), poseTime));
-        Log.e("XXX", "tracking frame " + frameIndex + " " + matrix[2]);
+        poseHistory.put(frameIndex, matrix, poseTime);
     }
 }
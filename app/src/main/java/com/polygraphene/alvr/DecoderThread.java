@@ -2,42 +2,65 @@ package com.polygraphene.alvr;
 
 import android.app.Activity;
 import android.media.MediaCodec;
-import android.media.MediaFormat;
-import android.support.annotation.NonNull;
 import android.util.Log;
 import android.view.Surface;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
-import java.util.List;
 
 class DecoderThread extends ThreadBase {
     private static final String TAG = "DecoderThread";
 
     private static final int CODEC_H264 = 0;
     private static final int CODEC_H265 = 1;
-    private int mCodec = CODEC_H265;
+    // Codec requested by server. Decoder for it is activated by decode thread on next NAL.
+    private volatile int mRequestedCodec = CODEC_H265;
 
     private static final String VIDEO_FORMAT_H264 = "video/avc";
     private static final String VIDEO_FORMAT_H265 = "video/hevc";
-    private String mFormat = VIDEO_FORMAT_H265;
 
     private NALParser mNalParser;
-    private MediaCodec mDecoder = null;
-    private Surface mSurface;
+    private VideoDecoder.Factory mDecoderFactory;
 
-    private boolean mWaitNextIDR = false;
+    // Decoder pool indexed by codec. Only mActive outputs to the surface.
+    // Idle instance is kept configured when pre-warming is enabled and decoder supports output switching.
+    private final DecoderInstance[] mInstances = new DecoderInstance[2];
+    // Accessed only on decode thread.
+    private DecoderInstance mActive = null;
+    private boolean mPrewarm = false;
+
+    private volatile boolean mWaitNextIDR = false;
+
+    // Frame whose slices are being fed by slice streaming. Accessed only on decode thread.
+    private long mPartialFrameIndex = -1;
+    private long mPartialPresentationTime;
+    private boolean mPartialFrameFed;
+
+    // Time of onConnect for measuring time to first frame. 0 after first frame was rendered.
+    private volatile long mConnectTimeNs = 0;
+    private volatile long mTimeToFirstFrameNs = 0;
+
+    // Decode thread checks stop request at this interval while waiting for input buffer.
+    private static final long INPUT_WAIT_TIMEOUT_NS = 10 * 1000 * 1000;
+    // Time spent waiting for input buffer is reported every second as decoder saturation.
+    private long mInputWaitReportTimeNs = 0;
+    private long mInputWaitReportedNs = 0;
 
     @SuppressWarnings("unused")
     private Activity mMainActivity = null;
 
     private boolean mDebugIDRFrame = false;
 
-    private int mBufferIndex = -1;
-
-    private OutputFrameQueue mQueue;
+    // Queue of active decoder.
+    private volatile OutputFrameQueue mQueue;
+    private int mPresentationPolicy = OutputFrameQueue.PRESENTATION_FIFO;
+    private int mRefreshRate = 60;
+    private int mFrameQueueSize = 1;
+    private boolean mAdaptiveQueueSize = false;
+    private int mMinQueueSize = 1;
+    private int mMaxQueueSize = 1;
+    private double mTargetUnderrunRate = 0;
 
     private static final int NAL_TYPE_SPS = 7;
     private static final int NAL_TYPE_PPS = 8;
@@ -69,12 +92,14 @@ class DecoderThread extends ThreadBase {
             (byte) 0xc0, (byte) 0xcc, (byte) 0x90
     };
 
-    private final List<Integer> mAvailableInputs = new LinkedList<>();
-
     DecoderThread(NALParser nalParser,
                   Surface surface, Activity mainActivity) {
+        this(nalParser, MediaCodecDecoder.factory(surface), mainActivity);
+    }
+
+    DecoderThread(NALParser nalParser, VideoDecoder.Factory decoderFactory, Activity mainActivity) {
         mNalParser = nalParser;
-        mSurface = surface;
+        mDecoderFactory = decoderFactory;
         mMainActivity = mainActivity;
     }
 
@@ -88,8 +113,10 @@ class DecoderThread extends ThreadBase {
 
     public void interrupt() {
         super.interrupt();
-        synchronized (mAvailableInputs) {
-            mAvailableInputs.notifyAll();
+        for (DecoderInstance instance : mInstances) {
+            if (instance != null) {
+                instance.availableInputs.wakeUp();
+            }
         }
         mNalParser.notifyWaitingThread();
     }
@@ -102,44 +129,30 @@ class DecoderThread extends ThreadBase {
             Log.v(TAG, "DecoderThread stopped by Exception.");
         } finally {
             Log.v(TAG, "Stopping decoder.");
-            if (mDecoder != null) {
-                try {
-                    mDecoder.stop();
-                    mDecoder.release();
-                } catch (IllegalStateException e) {
-                    e.printStackTrace();
+            for (int i = 0; i < mInstances.length; i++) {
+                if (mInstances[i] != null) {
+                    mInstances[i].release();
+                    mInstances[i] = null;
                 }
             }
+            mActive = null;
         }
         Log.v(TAG, "DecoderThread stopped.");
     }
 
     private void decodeLoop() throws InterruptedException, IOException {
-        synchronized (mAvailableInputs) {
-            mAvailableInputs.clear();
-        }
-
-        MediaFormat format = MediaFormat.createVideoFormat(mFormat, DummyWidth, DummyHeight);
-        format.setString("KEY_MIME", mFormat);
+        activate(mRequestedCodec);
 
-        if (mCodec == CODEC_H264) {
-            format.setByteBuffer("csd-0", ByteBuffer.wrap(DummySPS, 0, DummySPS.length));
-            format.setByteBuffer("csd-1", ByteBuffer.wrap(DummyPPS, 0, DummyPPS.length));
-        } else {
-            format.setByteBuffer("csd-0", ByteBuffer.wrap(DummyCSD_H265, 0, DummyCSD_H265.length));
+        if (mPrewarm && mActive.decoder.isOutputSwitchable()) {
+            int other = mActive.codec == CODEC_H264 ? CODEC_H265 : CODEC_H264;
+            try {
+                mInstances[other] = new DecoderInstance(other, false);
+            } catch (IOException | IllegalStateException e) {
+                // Only cold switch is available for this codec.
+                e.printStackTrace();
+                Log.e(TAG, "Failed to pre-warm decoder. Codec=" + other);
+            }
         }
-        mDecoder = MediaCodec.createDecoderByType(mFormat);
-
-        mQueue = new OutputFrameQueue(mDecoder);
-
-        mDecoder.setVideoScalingMode(MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT);
-        mDecoder.setCallback(new Callback());
-        mDecoder.configure(format, mSurface, null, 0);
-        mDecoder.start();
-
-        Log.v(TAG, "Codec created. Type=" + mFormat + " Name=" + mDecoder.getCodecInfo().getName());
-
-        mWaitNextIDR = true;
 
         while (!isStopped()) {
             NAL nal = mNalParser.waitNal();
@@ -153,52 +166,75 @@ class DecoderThread extends ThreadBase {
                 break;
             }
 
-            int NALType;
-
-            if (mCodec == CODEC_H264) {
-                NALType = nal.buf[4] & 0x1F;
-            } else {
-                NALType = (nal.buf[4] >> 1) & 0x3F;
+            if (mRequestedCodec != mActive.codec) {
+                activate(mRequestedCodec);
             }
-            Utils.frameLog(nal.frameIndex, "Got NAL Type=" + NALType + " Length=" + nal.length + " QueueSize=" + mNalParser.getNalListSize());
+            int codec = mActive.codec;
+
+            int NALType = StartCodeScanner.firstNalType(nal.buf, nal.length, codec);
+            FrameTrace.record(nal.frameIndex, FrameTrace.NAL_RECEIVED, NALType, nal.length);
 
             long presentationTime = System.nanoTime() / 1000;
 
-            if ((mCodec == CODEC_H264 && NALType == NAL_TYPE_SPS) ||
-                    (mCodec == CODEC_H265 && NALType == H265_NAL_TYPE_VPS)) {
+            if ((codec == CODEC_H264 && NALType == NAL_TYPE_SPS) ||
+                    (codec == CODEC_H265 && NALType == H265_NAL_TYPE_VPS)) {
                 // (VPS + )SPS + PPS
-                Utils.frameLog(nal.frameIndex, "Feed codec config. Size=" + nal.length + " Codec=" + mCodec + " NALType=" + NALType);
+                FrameTrace.record(nal.frameIndex, FrameTrace.FEED_CONFIG, nal.length, 0);
 
+                endPartialFrame();
                 mWaitNextIDR = false;
 
-                sendInputBuffer(nal, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
-
-                mNalParser.recycleNal(nal);
-            } else if ((mCodec == CODEC_H264 && NALType == NAL_TYPE_IDR) ||
-                    (mCodec == CODEC_H265 && NALType == H265_NAL_TYPE_IDR_W_RADL)) {
-                // IDR-Frame
-                Utils.frameLog(nal.frameIndex, "Feed IDR-Frame. Size=" + nal.length + " PresentationTime=" + presentationTime);
-
-                LatencyCollector.DecoderInput(nal.frameIndex);
-
-                sendInputBuffer(nal, presentationTime, 0);
-
-                mNalParser.recycleNal(nal);
+                sendInputBuffer(nal, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG, false);
+            } else if (nal.frameIndex == mPartialFrameIndex) {
+                // Following slice of streamed frame. Fed if the first slice was fed.
+                if (mPartialFrameFed) {
+                    FrameTrace.record(nal.frameIndex, FrameTrace.FEED_SLICE, nal.length, nal.partialFrame ? 0 : 1);
+                    sendInputBuffer(nal, mPartialPresentationTime, nal.partialFrame ? MediaCodec.BUFFER_FLAG_PARTIAL_FRAME : 0, false);
+                }
+                if (!nal.partialFrame) {
+                    mPartialFrameIndex = -1;
+                }
             } else {
-                // PFrame
-                LatencyCollector.DecoderInput(nal.frameIndex);
-
-                if (mWaitNextIDR) {
+                endPartialFrame();
+
+                boolean feed;
+                if ((codec == CODEC_H264 && NALType == NAL_TYPE_IDR) ||
+                        (codec == CODEC_H265 && NALType == H265_NAL_TYPE_IDR_W_RADL)) {
+                    // IDR-Frame
+                    feed = true;
+                } else if (mWaitNextIDR) {
                     // Ignore P-Frame until next I-Frame
-                    Utils.frameLog(nal.frameIndex, "Ignoring P-Frame");
+                    FrameTrace.record(nal.frameIndex, FrameTrace.IGNORE_FRAME, NALType, 0);
+                    feed = false;
                 } else {
                     // P-Frame
-                    Utils.frameLog(nal.frameIndex, "Feed P-Frame. Size=" + nal.length + " PresentationTime=" + presentationTime);
+                    feed = true;
+                }
+                if (nal.partialFrame && !mActive.feeder.isPartialFrameSupported()) {
+                    // Streamed before parser knew that this decoder can't take partial frames.
+                    // Each slice would be decoded as a whole frame, so drop the frame and restart from next IDR.
+                    if (feed) {
+                        FrameTrace.record(nal.frameIndex, FrameTrace.IGNORE_FRAME, NALType, 0);
+                    }
+                    feed = false;
+                    mWaitNextIDR = true;
+                }
+                if (feed) {
+                    FrameTrace.record(nal.frameIndex, FrameTrace.FEED_FRAME, nal.length, NALType);
+                }
+
+                LatencyCollector.decoderInput(nal.frameIndex);
 
-                    sendInputBuffer(nal, presentationTime, 0);
+                if (feed) {
+                    sendInputBuffer(nal, presentationTime, nal.partialFrame ? MediaCodec.BUFFER_FLAG_PARTIAL_FRAME : 0, true);
+                }
+                if (nal.partialFrame) {
+                    mPartialFrameIndex = nal.frameIndex;
+                    mPartialPresentationTime = presentationTime;
+                    mPartialFrameFed = feed;
                 }
-                mNalParser.recycleNal(nal);
             }
+            mNalParser.recycleNal(nal);
         }
 
     }
@@ -212,9 +248,9 @@ class DecoderThread extends ThreadBase {
             try {
                 String path = mMainActivity.getExternalMediaDirs()[0].getAbsolutePath() + "/" + buf.frameIndex + ".h264";
                 FileOutputStream stream = new FileOutputStream(path);
-                stream.write(spsBuffer.buf, 0, spsBuffer.length);
-                stream.write(ppsBuffer.buf, 0, ppsBuffer.length);
-                stream.write(buf.buf, 0, buf.length);
+                writeNal(stream, spsBuffer);
+                writeNal(stream, ppsBuffer);
+                writeNal(stream, buf);
                 stream.close();
             } catch (IOException e) {
                 e.printStackTrace();
@@ -222,120 +258,264 @@ class DecoderThread extends ThreadBase {
         }
     }
 
-    private ByteBuffer getInputBuffer(NAL nal) throws InterruptedException {
-        Utils.frameLog(nal.frameIndex, "Wait next input buffer.");
-        while (true) {
-            synchronized (mAvailableInputs) {
-                if (isStopped()) {
-                    throw new InterruptedException();
-                }
-                if (mAvailableInputs.size() > 0) {
-                    mBufferIndex = mAvailableInputs.get(0);
-                    mAvailableInputs.remove(0);
-                    break;
-                }
-                mAvailableInputs.wait();
+    private static void writeNal(FileOutputStream stream, NAL nal) throws IOException {
+        ByteBuffer buf = nal.buf.duplicate();
+        buf.clear();
+        buf.limit(nal.length);
+        stream.getChannel().write(buf);
+    }
+
+    // Make decoder for codec output to the surface. Called on decode thread.
+    // Switching to pre-warmed decoder only flushes current one. Otherwise current decoder is released
+    // before creating new one, because surface can be connected to one decoder at a time.
+    private void activate(int codec) throws IOException {
+        long startTime = System.nanoTime();
+        DecoderInstance previous = mActive;
+        DecoderInstance next = mInstances[codec];
+        boolean warm = next != null;
+
+        if (previous != null) {
+            previous.queue.stop();
+            if (warm) {
+                previous.decoder.setOutputEnabled(false);
+                previous.flush();
+            } else {
+                previous.release();
+                mInstances[previous.codec] = null;
             }
         }
-        ByteBuffer buffer = mDecoder.getInputBuffer(mBufferIndex);
-        Utils.frameLog(nal.frameIndex, "Uses input index=" + mBufferIndex + " NAL QueueSize=" + mNalParser.getNalListSize()
-                + " Buffer capacity=" + buffer.remaining());
-        return buffer;
+        if (warm) {
+            next.decoder.setOutputEnabled(true);
+        } else {
+            next = new DecoderInstance(codec, true);
+            mInstances[codec] = next;
+        }
+
+        OutputFrameQueue queue = next.queue;
+        queue.setPresentationPolicy(mPresentationPolicy, mRefreshRate);
+        queue.setAdaptiveQueueSize(mAdaptiveQueueSize, mMinQueueSize, mMaxQueueSize, mTargetUnderrunRate);
+        queue.setQueueSize(mFrameQueueSize);
+        queue.reset();
+
+        mActive = next;
+        mQueue = queue;
+        mWaitNextIDR = true;
+        mPartialFrameIndex = -1;
+        mNalParser.setSliceStreaming(next.feeder.isPartialFrameSupported());
+
+        Log.v(TAG, "Decoder activated. Codec=" + codec + " Warm=" + warm + " Time=" + (System.nanoTime() - startTime) / 1000 + " us");
+    }
+
+    // Terminate streamed frame whose last slice was not received. (Frame was dropped by native parser)
+    private void endPartialFrame() throws InterruptedException {
+        if (mPartialFrameIndex == -1) {
+            return;
+        }
+        FrameTrace.record(mPartialFrameIndex, FrameTrace.PARTIAL_INCOMPLETE);
+        if (mPartialFrameFed) {
+            mActive.feeder.endFrame(mPartialPresentationTime);
+        }
+        mPartialFrameIndex = -1;
+    }
+
+    // newFrame: First NAL of a frame, which is registered to frame queue.
+    private void sendInputBuffer(NAL nal, long presentationTimeUs, int flags, boolean newFrame) throws InterruptedException {
+        DecoderInstance instance = mActive;
+        if (newFrame) {
+            instance.queue.pushInputBuffer(presentationTimeUs, nal.frameIndex);
+        }
+
+        int chunks = instance.feeder.feed(nal.buf, nal.length, presentationTimeUs, flags);
+        if (chunks > 1) {
+            FrameTrace.record(nal.frameIndex, FrameTrace.INPUT_SPLIT, nal.length, chunks);
+        }
     }
 
-    private void sendInputBuffer(NAL nal, long presentationTimeUs, int flags) throws InterruptedException {
-        if (presentationTimeUs != 0) {
-            mQueue.pushInputBuffer(presentationTimeUs, nal.frameIndex);
+    private void reportInputWait(InputBufferQueue inputs) {
+        long now = System.nanoTime();
+        if (now - mInputWaitReportTimeNs < 1000 * 1000 * 1000) {
+            return;
         }
+        // Wait time of the decoder instance which is active now. Instances are switched rarely.
+        long waitTime = inputs.getWaitTimeNs();
+        long waitInSecond = waitTime >= mInputWaitReportedNs ? waitTime - mInputWaitReportedNs : waitTime;
+        mInputWaitReportTimeNs = now;
+        mInputWaitReportedNs = waitTime;
+        LatencyCollector.decoderInputWait(waitInSecond / 1000);
+    }
+
+    // Configured and started decoder for one codec with its own frame queue and input buffers.
+    private class DecoderInstance implements VideoDecoder.Callback, NalFeeder.InputBuffers {
+        final int codec;
+        final VideoDecoder decoder;
+        final OutputFrameQueue queue;
+        final NalFeeder feeder;
+        final InputBufferQueue availableInputs = new InputBufferQueue();
+
+        DecoderInstance(int codec, boolean outputEnabled) throws IOException {
+            this.codec = codec;
+
+            String format;
+            ByteBuffer[] csd;
+            if (codec == CODEC_H264) {
+                format = VIDEO_FORMAT_H264;
+                csd = new ByteBuffer[]{ByteBuffer.wrap(DummySPS, 0, DummySPS.length), ByteBuffer.wrap(DummyPPS, 0, DummyPPS.length)};
+            } else {
+                format = VIDEO_FORMAT_H265;
+                csd = new ByteBuffer[]{ByteBuffer.wrap(DummyCSD_H265, 0, DummyCSD_H265.length)};
+            }
+            decoder = mDecoderFactory.create(format);
+            queue = new OutputFrameQueue(decoder);
 
-        int remain = nal.length;
-        while (remain > 0) {
-            ByteBuffer buffer = getInputBuffer(nal);
+            decoder.setOutputEnabled(outputEnabled);
+            decoder.setCallback(this);
+            decoder.configure(DummyWidth, DummyHeight, csd);
+            decoder.start();
 
-            int copyLength = Math.min(nal.length, buffer.remaining());
-            buffer.put(nal.buf, 0, copyLength);
+            boolean partialFrame = decoder.isPartialFrameSupported();
+            feeder = new NalFeeder(this, partialFrame);
 
-            mDecoder.queueInputBuffer(mBufferIndex, 0, buffer.position(), presentationTimeUs, flags);
-            remain -= copyLength;
+            Log.v(TAG, "Codec created. Type=" + format + " Name=" + decoder.getName() + " PartialFrame=" + partialFrame
+                    + " OutputEnabled=" + outputEnabled);
+        }
+
+        // Discard pending input and output, and keep decoder ready for next activation.
+        void flush() {
+            decoder.flush();
+            availableInputs.clear();
+            // Input buffers are given again by callback.
+            decoder.start();
+        }
 
-            if (remain > 0) {
-                String name = mDecoder.getCodecInfo().getName();
-                Utils.frameLog(nal.frameIndex, "Splitting input buffer for codec. NAL Size="
-                        + nal.length + " copyLength=" + copyLength + " codec=" + name);
+        void release() {
+            Log.v(TAG, "Releasing decoder. Codec=" + codec
+                    + " SplitFrames=" + feeder.getSplitFrames() + " Chunks=" + feeder.getSplitChunks()
+                    + " InputWaitTime=" + availableInputs.getWaitTimeNs() / 1000 + " us InputWaits=" + availableInputs.getWaitCount());
+            try {
+                decoder.stop();
+                decoder.release();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
             }
         }
-        mBufferIndex = -1;
-    }
 
-    class Callback extends MediaCodec.Callback {
         @Override
-        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
-            //frameLog("onInputBufferAvailable " + index + " " + mBuf);
-
-            synchronized (mAvailableInputs) {
-                mAvailableInputs.add(index);
-                mAvailableInputs.notifyAll();
+        public int dequeueInputBuffer() throws InterruptedException {
+            while (true) {
+                if (isStopped()) {
+                    throw new InterruptedException();
+                }
+                int index = availableInputs.poll(INPUT_WAIT_TIMEOUT_NS);
+                reportInputWait(availableInputs);
+                if (index >= 0) {
+                    return index;
+                }
             }
         }
 
         @Override
-        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
-            mQueue.pushOutputBuffer(index, info);
+        public ByteBuffer getInputBuffer(int index) {
+            return decoder.getInputBuffer(index);
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+            decoder.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+        }
+
+        @Override
+        public void onInputBufferAvailable(int index) {
+            availableInputs.offer(index);
         }
 
         @Override
-        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
-            Log.e("DecodeActivity", "Codec Error: " + e.getMessage() + "\n" + e.getDiagnosticInfo());
+        public void onOutputBufferAvailable(int index, long presentationTimeUs) {
+            queue.pushOutputBuffer(index, presentationTimeUs);
         }
 
         @Override
-        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
-            Log.d("DecodeActivity", "New format " + mDecoder.getOutputFormat());
+        public void onError(String message) {
+            Log.e(TAG, "Codec Error: " + message + " Codec=" + codec);
         }
     }
 
     public boolean isFrameAvailable() {
-        return mQueue != null && mQueue.isFrameAvailable();
+        OutputFrameQueue queue = mQueue;
+        return queue != null && queue.isFrameAvailable();
     }
 
     public long render() {
-        if (mQueue == null) {
+        OutputFrameQueue queue = mQueue;
+        if (queue == null) {
             return -1;
         }
-        return mQueue.render();
+        long frameIndex = queue.render();
+        long connectTime = mConnectTimeNs;
+        if (frameIndex != -1 && connectTime != 0) {
+            mConnectTimeNs = 0;
+            mTimeToFirstFrameNs = System.nanoTime() - connectTime;
+            Log.v(TAG, "First frame was rendered. TimeToFirstFrame=" + mTimeToFirstFrameNs / 1000 + " us");
+            LatencyCollector.timeToFirstFrame(mTimeToFirstFrameNs / 1000);
+        }
+        return frameIndex;
     }
 
+    // Codec change is applied by decode thread on next NAL without restarting the thread.
     public void onConnect(int codec, int frameQueueSize) {
-        if (mQueue != null) {
-            mQueue.reset();
-            setFrameQueueSize(frameQueueSize);
+        mConnectTimeNs = System.nanoTime();
+        OutputFrameQueue queue = mQueue;
+        if (queue != null) {
+            queue.reset();
         }
-        notifyCodecChange(codec);
+        setFrameQueueSize(frameQueueSize);
+        mRequestedCodec = codec;
+        mWaitNextIDR = true;
     }
 
     public void onDisconnect() {
-        mQueue.stop();
+        OutputFrameQueue queue = mQueue;
+        if (queue != null) {
+            queue.stop();
+        }
     }
 
-    private void notifyCodecChange(int codec) {
-        if (codec != mCodec) {
-            stopAndWait();
-            mCodec = codec;
-            if (mCodec == CODEC_H264) {
-                mFormat = VIDEO_FORMAT_H264;
-            } else {
-                mFormat = VIDEO_FORMAT_H265;
-            }
-            mNalParser.clearStopped();
-            start();
-        } else {
-            mWaitNextIDR = true;
+    // Time from last onConnect to first rendered frame. Includes decoder switch.
+    public long getTimeToFirstFrameNs() {
+        return mTimeToFirstFrameNs;
+    }
+
+    // Keep decoder for the other codec configured so that codec change does not create decoder.
+    // Must be called before start().
+    public void setPrewarmDecoders(boolean prewarm) {
+        mPrewarm = prewarm;
+    }
+
+    public void setPresentationPolicy(int policy, int refreshRate) {
+        mPresentationPolicy = policy;
+        mRefreshRate = refreshRate;
+        OutputFrameQueue queue = mQueue;
+        if (queue != null) {
+            queue.setPresentationPolicy(policy, refreshRate);
+        }
+    }
+
+    // frameQueueSize from server is used as initial size when adaptive queue size is enabled.
+    public void setAdaptiveFrameQueueSize(boolean enabled, int minQueueSize, int maxQueueSize, double targetUnderrunRate) {
+        mAdaptiveQueueSize = enabled;
+        mMinQueueSize = minQueueSize;
+        mMaxQueueSize = maxQueueSize;
+        mTargetUnderrunRate = targetUnderrunRate;
+        OutputFrameQueue queue = mQueue;
+        if (queue != null) {
+            queue.setAdaptiveQueueSize(enabled, minQueueSize, maxQueueSize, targetUnderrunRate);
         }
     }
 
     public void setFrameQueueSize(int frameQueueSize) {
-        if (mQueue != null) {
-            mQueue.setQueueSize(frameQueueSize);
+        mFrameQueueSize = frameQueueSize;
+        OutputFrameQueue queue = mQueue;
+        if (queue != null) {
+            queue.setQueueSize(frameQueueSize);
         }
     }
 }
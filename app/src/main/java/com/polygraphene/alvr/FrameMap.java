@@ -1,28 +1,124 @@
 package com.polygraphene.alvr;
 
-import android.util.LongSparseArray;
-
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 // Stores mapping of presentationTime to frameIndex for tracking frameIndex on decoding.
+// Fixed size open addressing hash table. The oldest entry is evicted when MAX_FRAMES entries are stored.
+// put() must be called from one thread and find() from one (other) thread. No lock is taken.
 public class FrameMap {
     private static final int MAX_FRAMES = 50;
+    // Power of two and more than twice of MAX_FRAMES to keep probe sequences short.
+    private static final int TABLE_SIZE = 128;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+    // presentationTime is never negative.
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final AtomicLongArray mKeys = new AtomicLongArray(TABLE_SIZE);
+    private final AtomicLongArray mValues = new AtomicLongArray(TABLE_SIZE);
+    // Odd while put() is modifying the table. find() retries when it has changed during lookup.
+    private final AtomicInteger mVersion = new AtomicInteger();
+
+    // Keys in insertion order. Accessed only from writer.
+    private final long[] mHistory = new long[MAX_FRAMES];
+    private int mHistoryHead = 0;
+    private int mCount = 0;
+
+    public FrameMap() {
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            mKeys.set(i, EMPTY);
+        }
+    }
+
+    public void put(long presentationTime, long frameIndex) {
+        mVersion.incrementAndGet();
+
+        int slot = findSlot(presentationTime);
+        if (mKeys.get(slot) == presentationTime) {
+            mValues.set(slot, frameIndex);
+        } else {
+            if (mCount == MAX_FRAMES) {
+                remove(mHistory[mHistoryHead]);
+                mCount--;
+                // Slot may have been moved by remove().
+                slot = findSlot(presentationTime);
+            }
+            mValues.set(slot, frameIndex);
+            mKeys.set(slot, presentationTime);
+
+            mHistory[mHistoryHead] = presentationTime;
+            mHistoryHead = (mHistoryHead + 1) % MAX_FRAMES;
+            mCount++;
+        }
+
+        mVersion.incrementAndGet();
+    }
 
-    private List<Long> mFrameHistory = new LinkedList<>();
-    private LongSparseArray<Long> mFrameHashMap = new LongSparseArray<>();
+    public long find(long presentationTime) {
+        while (true) {
+            int version = mVersion.get();
+            if ((version & 1) != 0) {
+                // Writer is modifying the table. It finishes in a short time.
+                continue;
+            }
+            long frameIndex = -1;
+            int slot = hash(presentationTime);
+            // Table is never full, but bound the loop in case of inconsistent read.
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                long key = mKeys.get(slot);
+                if (key == presentationTime) {
+                    frameIndex = mValues.get(slot);
+                    break;
+                }
+                if (key == EMPTY) {
+                    break;
+                }
+                slot = (slot + 1) & TABLE_MASK;
+            }
+            if (mVersion.get() == version) {
+                return frameIndex;
+            }
+        }
+    }
 
-    public synchronized void put(long presentationTime, long frameIndex) {
-        mFrameHistory.add(presentationTime);
-        mFrameHashMap.put(presentationTime, frameIndex);
-        if (mFrameHistory.size() > MAX_FRAMES) {
-            Long key = mFrameHistory.remove(0);
-            mFrameHashMap.remove(key);
+    // Returns the slot containing key or the empty slot where key should be inserted.
+    private int findSlot(long key) {
+        int slot = hash(key);
+        while (true) {
+            long k = mKeys.get(slot);
+            if (k == key || k == EMPTY) {
+                return slot;
+            }
+            slot = (slot + 1) & TABLE_MASK;
+        }
+    }
+
+    // Remove by backward shift so that no tombstone is left in the table.
+    private void remove(long key) {
+        int slot = findSlot(key);
+        if (mKeys.get(slot) != key) {
+            return;
+        }
+        int next = slot;
+        while (true) {
+            next = (next + 1) & TABLE_MASK;
+            long k = mKeys.get(next);
+            if (k == EMPTY) {
+                break;
+            }
+            int home = hash(k);
+            // Move the entry if its home slot is not in cyclic range (slot, next].
+            boolean inRange = slot <= next ? (slot < home && home <= next) : (slot < home || home <= next);
+            if (!inRange) {
+                mKeys.set(slot, k);
+                mValues.set(slot, mValues.get(next));
+                slot = next;
+            }
         }
+        mKeys.set(slot, EMPTY);
     }
 
-    public synchronized long find(long presentationTime) {
-        Long f = mFrameHashMap.get(presentationTime);
-        return f != null ? f : -1;
+    private static int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 57) & TABLE_MASK;
     }
 }
@@ -0,0 +1,47 @@
+package com.polygraphene.alvr;
+
+// Binary per-frame event trace. Events are recorded to the fixed size native ring (frame_trace.h) shared
+// with native code, without allocation or string formatting. Use instead of Utils.frameLog on per-frame paths.
+// Dump file is decoded on host by frame_trace_decode.cpp.
+public class FrameTrace {
+    // Event ids. Same as FrameTraceEvent in frame_trace.h.
+    public static final int NAL_RECEIVED = 100; // arg1=NAL type arg2=length
+    public static final int FEED_CONFIG = 101; // arg1=length
+    public static final int FEED_FRAME = 102; // arg1=length arg2=NAL type
+    public static final int FEED_SLICE = 103; // arg1=length arg2=last
+    public static final int IGNORE_FRAME = 104; // arg1=NAL type
+    public static final int PARTIAL_INCOMPLETE = 105;
+    public static final int INPUT_SPLIT = 106; // arg1=length arg2=chunks
+    public static final int DECODER_OUTPUT = 107; // arg1=codec buffer index
+    public static final int RENDER = 108; // arg1=queue occupancy arg2=skipped frames
+
+    // Native calls can be disabled to run decoder pipeline without native library. (e.g. on host)
+    private static volatile boolean sNativeEnabled = true;
+
+    static void setNativeEnabled(boolean enabled) {
+        sNativeEnabled = enabled;
+    }
+
+    public static void record(long frameIndex, int event, int arg1, int arg2) {
+        if (sNativeEnabled) {
+            Record(frameIndex, event, arg1, arg2);
+        }
+    }
+
+    public static void record(long frameIndex, int event) {
+        if (sNativeEnabled) {
+            Record(frameIndex, event, 0, 0);
+        }
+    }
+
+    // Write snapshot of the ring to path. Returns number of records written or -1 on error.
+    public static long dump(String path) {
+        if (!sNativeEnabled) {
+            return -1;
+        }
+        return Dump(path);
+    }
+
+    public static native void Record(long frameIndex, int event, int arg1, int arg2);
+    public static native long Dump(String path);
+}
@@ -0,0 +1,115 @@
+package com.polygraphene.alvr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Free input buffer indices handed from codec callback thread (single producer) to decode thread (single consumer).
+// Indices are stored in int ring without boxing or lock. Consumer parks while queue is empty.
+class InputBufferQueue {
+    // Larger than input buffer count of any decoder. (Usually 4 to 32)
+    private static final int CAPACITY = 256;
+    private static final int MASK = CAPACITY - 1;
+
+    private final int[] mIndices = new int[CAPACITY];
+    // Next position to read. Written only by consumer.
+    private final AtomicLong mHead = new AtomicLong();
+    // Next position to write. Written only by producer.
+    private final AtomicLong mTail = new AtomicLong();
+    // Consumer thread which is parked or going to park.
+    private volatile Thread mWaiter = null;
+
+    // Statistics. Written only by consumer.
+    private volatile long mWaitTimeNs = 0;
+    private volatile long mWaitCount = 0;
+
+    // Called on producer thread.
+    public void offer(int index) {
+        long tail = mTail.get();
+        if (tail - mHead.get() >= CAPACITY) {
+            throw new IllegalStateException("Input buffer queue overflow. Index=" + index);
+        }
+        mIndices[(int) tail & MASK] = index;
+        // Publish index before consumer sees new tail.
+        mTail.set(tail + 1);
+
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    // Called on consumer thread. Return next index, or -1 if queue is still empty after timeoutNs
+    // or wakeUp() was called.
+    public int poll(long timeoutNs) {
+        int index = tryPoll();
+        if (index >= 0) {
+            return index;
+        }
+
+        long startTime = System.nanoTime();
+        long deadline = startTime + timeoutNs;
+        mWaiter = Thread.currentThread();
+        try {
+            while (true) {
+                // Recheck after setting mWaiter to not miss unpark by offer.
+                index = tryPoll();
+                if (index >= 0) {
+                    break;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.interrupted()) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (mWaiter == null) {
+                    // wakeUp
+                    index = tryPoll();
+                    break;
+                }
+            }
+        } finally {
+            mWaiter = null;
+        }
+        mWaitTimeNs += System.nanoTime() - startTime;
+        mWaitCount++;
+        return index;
+    }
+
+    private int tryPoll() {
+        long head = mHead.get();
+        if (head == mTail.get()) {
+            return -1;
+        }
+        int index = mIndices[(int) head & MASK];
+        mHead.set(head + 1);
+        return index;
+    }
+
+    // Make waiting poll return immediately. Called from any thread.
+    public void wakeUp() {
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            mWaiter = null;
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    // Called on consumer thread while producer is quiet. (e.g. after codec flush)
+    public void clear() {
+        mHead.set(mTail.get());
+    }
+
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    // Total time consumer spent waiting for index.
+    public long getWaitTimeNs() {
+        return mWaitTimeNs;
+    }
+
+    // Number of polls which had to wait.
+    public long getWaitCount() {
+        return mWaitCount;
+    }
+}
@@ -1,6 +1,64 @@
 package com.polygraphene.alvr;
 
 public class LatencyCollector {
+    // Native calls can be disabled to run decoder pipeline without native library. (e.g. on host)
+    private static volatile boolean sNativeEnabled = true;
+
+    static void setNativeEnabled(boolean enabled) {
+        sNativeEnabled = enabled;
+    }
+
+    public static void decoderInput(long frameIndex) {
+        if (sNativeEnabled) {
+            DecoderInput(frameIndex);
+        }
+    }
+
+    public static void decoderOutput(long frameIndex) {
+        if (sNativeEnabled) {
+            DecoderOutput(frameIndex);
+        }
+    }
+
+    public static void frameQueue(int queueSize, long underrunTotal, long overrunTotal, long jitterUs) {
+        if (sNativeEnabled) {
+            FrameQueue(queueSize, underrunTotal, overrunTotal, jitterUs);
+        }
+    }
+
+    public static void timeToFirstFrame(long durationUs) {
+        if (sNativeEnabled) {
+            TimeToFirstFrame(durationUs);
+        }
+    }
+
+    public static void decoderInputWait(long waitUsInSecond) {
+        if (sNativeEnabled) {
+            DecoderInputWait(waitUsInSecond);
+        }
+    }
+
+    // Called on render thread after the frame was submitted.
+    public static void submit(long frameIndex) {
+        if (sNativeEnabled) {
+            Submit(frameIndex);
+        }
+    }
+
+    // Average latency from tracking to submit of frames in the previous second in microsec.
+    // 0 if no frame was submitted.
+    public static long getTotalLatencyUs() {
+        if (sNativeEnabled) {
+            return GetTotalLatency();
+        }
+        return 0;
+    }
+
     public static native void DecoderInput(long frameIndex);
     public static native void DecoderOutput(long frameIndex);
+    public static native void FrameQueue(int queueSize, long underrunTotal, long overrunTotal, long jitterUs);
+    public static native void TimeToFirstFrame(long durationUs);
+    public static native void DecoderInputWait(long waitUsInSecond);
+    public static native void Submit(long frameIndex);
+    public static native long GetTotalLatency();
 }
@@ -0,0 +1,163 @@
+package com.polygraphene.alvr;
+
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// VideoDecoder backed by MediaCodec rendering to a Surface.
+class MediaCodecDecoder implements VideoDecoder {
+    private static final String TAG = "MediaCodecDecoder";
+
+    private final MediaCodec mCodec;
+    private final String mMime;
+    private final Surface mSurface;
+    private Callback mCallback;
+    private boolean mOutputEnabled = true;
+    private boolean mConfigured = false;
+    // Output destination while output is detached from mSurface.
+    private SurfaceTexture mPlaceholderTexture;
+    private Surface mPlaceholderSurface;
+
+    static Factory factory(final Surface surface) {
+        return new Factory() {
+            @Override
+            public VideoDecoder create(String mime) throws IOException {
+                return new MediaCodecDecoder(mime, surface);
+            }
+        };
+    }
+
+    MediaCodecDecoder(String mime, Surface surface) throws IOException {
+        mMime = mime;
+        mSurface = surface;
+        mCodec = MediaCodec.createDecoderByType(mime);
+    }
+
+    @Override
+    public String getName() {
+        return mCodec.getCodecInfo().getName();
+    }
+
+    @Override
+    public boolean isPartialFrameSupported() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return false;
+        }
+        return mCodec.getCodecInfo().getCapabilitiesForType(mMime)
+                .isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_PartialFrame);
+    }
+
+    @Override
+    public boolean isOutputSwitchable() {
+        // MediaCodec.setOutputSurface
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    @Override
+    public void setOutputEnabled(boolean enabled) {
+        if (mOutputEnabled == enabled) {
+            return;
+        }
+        mOutputEnabled = enabled;
+        if (mConfigured) {
+            mCodec.setOutputSurface(getOutputSurface());
+        }
+    }
+
+    private Surface getOutputSurface() {
+        if (mOutputEnabled) {
+            return mSurface;
+        }
+        if (mPlaceholderSurface == null) {
+            mPlaceholderTexture = new SurfaceTexture(0);
+            mPlaceholderSurface = new Surface(mPlaceholderTexture);
+        }
+        return mPlaceholderSurface;
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+        mCodec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+                mCallback.onInputBufferAvailable(index);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+                mCallback.onOutputBufferAvailable(index, info.presentationTimeUs);
+            }
+
+            @Override
+            public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+                mCallback.onError(e.getMessage() + "\n" + e.getDiagnosticInfo());
+            }
+
+            @Override
+            public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+                Log.d(TAG, "New format " + mCodec.getOutputFormat());
+            }
+        });
+    }
+
+    @Override
+    public void configure(int width, int height, ByteBuffer[] csd) {
+        MediaFormat format = MediaFormat.createVideoFormat(mMime, width, height);
+        format.setString("KEY_MIME", mMime);
+        for (int i = 0; i < csd.length; i++) {
+            format.setByteBuffer("csd-" + i, csd[i]);
+        }
+
+        mCodec.setVideoScalingMode(MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT);
+        mCodec.configure(format, getOutputSurface(), null, 0);
+        mConfigured = true;
+    }
+
+    @Override
+    public void start() {
+        mCodec.start();
+    }
+
+    @Override
+    public void stop() {
+        mCodec.stop();
+    }
+
+    @Override
+    public void flush() {
+        mCodec.flush();
+    }
+
+    @Override
+    public void release() {
+        mCodec.release();
+        if (mPlaceholderSurface != null) {
+            mPlaceholderSurface.release();
+            mPlaceholderTexture.release();
+        }
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mCodec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        mCodec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        mCodec.releaseOutputBuffer(index, render);
+    }
+}
@@ -1,7 +1,27 @@
 package com.polygraphene.alvr;
 
+import java.nio.ByteBuffer;
+
+// NAL objects are allocated once by native code and recycled.
+// buf is written by native code through its direct address.
 class NAL {
     public int length;
     public long frameIndex;
-    public byte[] buf;
+    // Set when following NALs of the same frame will come. (Slice streaming)
+    public boolean partialFrame;
+    public ByteBuffer buf;
+    // Index in native NAL pool
+    public final int poolIndex;
+
+    // called from native
+    NAL(int poolIndex, int capacity) {
+        this.poolIndex = poolIndex;
+        buf = ByteBuffer.allocateDirect(capacity);
+    }
+
+    // called from native when a frame does not fit in buf.
+    @SuppressWarnings("unused")
+    void expand(int capacity) {
+        buf = ByteBuffer.allocateDirect(capacity);
+    }
 }
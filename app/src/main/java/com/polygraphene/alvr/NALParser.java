@@ -11,4 +11,8 @@ public interface NALParser {
     void flushNALList();
     void notifyWaitingThread();
     void clearStopped();
+
+    // Pass slices of multi-slice frame before whole frame is received.
+    // Enable only while the active decoder accepts partial frames.
+    void setSliceStreaming(boolean enabled);
 }
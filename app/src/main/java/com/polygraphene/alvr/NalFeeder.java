@@ -0,0 +1,91 @@
+package com.polygraphene.alvr;
+
+import android.media.MediaCodec;
+
+import java.nio.ByteBuffer;
+
+// Copies NAL into codec input buffers.
+// NAL which does not fit into one input buffer is split into chunks and fed in order.
+class NalFeeder {
+    // Input side of a decoder.
+    interface InputBuffers {
+        // Wait until an input buffer is available and return its index.
+        int dequeueInputBuffer() throws InterruptedException;
+
+        ByteBuffer getInputBuffer(int index);
+
+        void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+    }
+
+    private final InputBuffers mInputBuffers;
+    // Whether decoder accepts BUFFER_FLAG_PARTIAL_FRAME.
+    private final boolean mPartialFrameSupported;
+
+    // Number of NALs which needed more than one input buffer.
+    private long mSplitFrames = 0;
+    // Number of input buffers used by split NALs.
+    private long mSplitChunks = 0;
+
+    NalFeeder(InputBuffers inputBuffers, boolean partialFrameSupported) {
+        mInputBuffers = inputBuffers;
+        mPartialFrameSupported = partialFrameSupported;
+    }
+
+    // Feed length bytes from the beginning of data. Position and limit of data are not preserved.
+    // flags can contain BUFFER_FLAG_PARTIAL_FRAME when following NALs of the same frame will be fed. (Slice)
+    // Returns number of input buffers used.
+    public int feed(ByteBuffer data, int length, long presentationTimeUs, int flags) throws InterruptedException {
+        boolean frameContinues = (flags & MediaCodec.BUFFER_FLAG_PARTIAL_FRAME) != 0;
+        flags &= ~MediaCodec.BUFFER_FLAG_PARTIAL_FRAME;
+        int offset = 0;
+        int chunks = 0;
+        while (offset < length) {
+            int index = mInputBuffers.dequeueInputBuffer();
+            ByteBuffer buffer = mInputBuffers.getInputBuffer(index);
+
+            int copyLength = Math.min(length - offset, buffer.remaining());
+            if (copyLength <= 0) {
+                // Nothing can be written. Return the buffer and give up the rest of this NAL.
+                mInputBuffers.queueInputBuffer(index, 0, 0, presentationTimeUs, 0);
+                break;
+            }
+            int start = buffer.position();
+            // Bulk copy between direct buffers.
+            data.limit(offset + copyLength);
+            data.position(offset);
+            buffer.put(data);
+            offset += copyLength;
+            chunks++;
+
+            int chunkFlags = flags;
+            if ((offset < length || frameContinues) && mPartialFrameSupported) {
+                // Decoder reassembles chunks until a buffer without this flag.
+                chunkFlags |= MediaCodec.BUFFER_FLAG_PARTIAL_FRAME;
+            }
+            mInputBuffers.queueInputBuffer(index, start, copyLength, presentationTimeUs, chunkFlags);
+        }
+        if (chunks > 1) {
+            mSplitFrames++;
+            mSplitChunks += chunks;
+        }
+        return chunks;
+    }
+
+    // Terminate the frame whose last NAL will not be fed, by empty input buffer without BUFFER_FLAG_PARTIAL_FRAME.
+    public void endFrame(long presentationTimeUs) throws InterruptedException {
+        int index = mInputBuffers.dequeueInputBuffer();
+        mInputBuffers.queueInputBuffer(index, 0, 0, presentationTimeUs, 0);
+    }
+
+    public boolean isPartialFrameSupported() {
+        return mPartialFrameSupported;
+    }
+
+    public long getSplitFrames() {
+        return mSplitFrames;
+    }
+
+    public long getSplitChunks() {
+        return mSplitChunks;
+    }
+}
@@ -1,81 +1,272 @@
 package com.polygraphene.alvr;
 
-import android.media.MediaCodec;
-import android.support.annotation.NonNull;
 import android.util.Log;
 
-import java.util.LinkedList;
-
 public class OutputFrameQueue {
     private static final String TAG = "OutputFrameQueue";
 
+    // Initial capacity of the ring. Grows only when larger queue size is set.
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Present frames in decoded order. Latency grows by one frame for each queued frame.
+    public static final int PRESENTATION_FIFO = 0;
+    // Present the newest decoded frame and skip older ones, keeping only the start threshold as jitter buffer.
+    public static final int PRESENTATION_LATEST = 1;
+
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    // Interval of adaptive queue size update and statistics report.
+    private static final long ADAPT_INTERVAL_NS = 1000 * 1000 * 1000;
+    // Weight of new sample in moving average of decoder output interval and jitter. (1/16 as RFC 3550)
+    private static final int JITTER_SMOOTHING = 16;
+    // Queue should absorb this multiple of average jitter.
+    private static final int JITTER_MARGIN = 2;
+
     private boolean mStopped = false;
 
-    private class Element {
-        public int index;
-        public long frameIndex;
-    }
+    // Ring of decoded frames. Element i is stored at (mHead + i) & mMask of each array.
+    private int[] mCodecIndex;
+    private long[] mFrameIndex;
+    private int mMask;
+    private int mHead = 0;
+    private int mCount = 0;
 
-    private LinkedList<Element> mQueue = new LinkedList<>();
-    private MediaCodec mCodec;
+    private VideoDecoder mCodec;
     private FrameMap mFrameMap = new FrameMap();
     private boolean mFrameAvailable;
     private int mQueueSize = 1;
+    private int mPresentationPolicy = PRESENTATION_FIFO;
+    private long mFramePeriodNs = 1000 * 1000 * 1000 / DEFAULT_REFRESH_RATE;
+
+    // Adaptive queue size. mQueueSize is adjusted in [mMinQueueSize, mMaxQueueSize].
+    private boolean mAdaptive = false;
+    private long mAdaptIntervalNs = ADAPT_INTERVAL_NS;
+    private int mMinQueueSize = 1;
+    private int mMaxQueueSize = 1;
+    private double mTargetUnderrunRate = 0;
+    // Moving average of decoder output interval and its deviation.
+    private long mLastOutputTimeNs = 0;
+    private long mOutputIntervalNs = 0;
+    private long mJitterNs = 0;
+    // Renders and underruns in current adaptation window.
+    private long mWindowStartNs = 0;
+    private int mWindowRenders = 0;
+    private int mWindowUnderruns = 0;
+
+    // Statistics
+    private int mMaxOccupancy = 0;
+    private long mOverflowCount = 0;
+    private long mDiscardedFrames = 0;
+    private long mUnknownFrames = 0;
+    // render() was called while playing but no frame was queued.
+    private long mUnderrunCount = 0;
+    private long mSkippedFrames = 0;
+    private long mSkippedInSecond = 0;
+    private long mSkippedPrevious = 0;
+    private long mStatisticsTime = 0;
 
-    OutputFrameQueue(MediaCodec codec) {
+    OutputFrameQueue(VideoDecoder codec) {
         mCodec = codec;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        int[] codecIndex = new int[size];
+        long[] frameIndex = new long[size];
+        for (int i = 0; i < mCount; i++) {
+            int from = (mHead + i) & mMask;
+            codecIndex[i] = mCodecIndex[from];
+            frameIndex[i] = mFrameIndex[from];
+        }
+        mCodecIndex = codecIndex;
+        mFrameIndex = frameIndex;
+        mMask = size - 1;
+        mHead = 0;
     }
 
     public void pushInputBuffer(long presentationTimeUs, long frameIndex) {
         mFrameMap.put(presentationTimeUs, frameIndex);
     }
 
-    synchronized public void pushOutputBuffer(int index, @NonNull MediaCodec.BufferInfo info) {
-        long foundFrameIndex = mFrameMap.find(info.presentationTimeUs);
+    // Codec buffers are released under the monitor, so that stop() never returns while a release is
+    // in flight and decoder thread can safely flush or release the codec after it.
+    public void pushOutputBuffer(int index, long presentationTimeUs) {
+        long foundFrameIndex = mFrameMap.find(presentationTimeUs);
 
         if (foundFrameIndex < 0) {
-            Log.e(TAG, "Ignore output buffer because unknown frameIndex. index=" + index);
-            mCodec.releaseOutputBuffer(index, false);
+            synchronized (this) {
+                mUnknownFrames++;
+                mCodec.releaseOutputBuffer(index, false);
+            }
             return;
         }
-        Element elem = new Element();
-        elem.index = index;
-        elem.frameIndex = foundFrameIndex;
-        mQueue.add(elem);
 
-        LatencyCollector.DecoderOutput(foundFrameIndex);
+        LatencyCollector.decoderOutput(foundFrameIndex);
+        FrameTrace.record(foundFrameIndex, FrameTrace.DECODER_OUTPUT, index, 0);
+
+        boolean startPlaying = false;
+        synchronized (this) {
+            updateJitter(System.nanoTime());
+
+            int tail = (mHead + mCount) & mMask;
+            mCodecIndex[tail] = index;
+            mFrameIndex[tail] = foundFrameIndex;
+            mCount++;
+            mMaxOccupancy = Math.max(mMaxOccupancy, mCount);
+
+            // Start threshold is half of mQueueSize
+            if (mCount >= getStartThreshold() && !mFrameAvailable) {
+                mFrameAvailable = true;
+                startPlaying = true;
+            }
+            // Keep only the newest frame on overflow.
+            if (mCount > mQueueSize) {
+                mOverflowCount++;
+                while (mCount >= 2) {
+                    mCodec.releaseOutputBuffer(mCodecIndex[mHead], false);
+                    mHead = (mHead + 1) & mMask;
+                    mCount--;
+                    mDiscardedFrames++;
+                }
+            }
+            notifyAll();
+        }
+
+        if (startPlaying) {
+            Log.v(TAG, "Start playing.");
+        }
+    }
+
+    public long render() {
+        long frameIndex;
+        int skips = 0;
+        boolean report;
+        int queueSize;
+        long underrunCount;
+        long overrunCount;
+        long jitterUs;
+        int occupancy;
+        synchronized (this) {
+            mWindowRenders++;
+            // Frames to wait for. After underrun, refill the queue up to the start threshold
+            // in adaptive mode, otherwise the queue stays empty and larger size has no effect.
+            int level = 1;
+            if (mCount == 0 && mFrameAvailable && !mStopped) {
+                mWindowUnderruns++;
+                mUnderrunCount++;
+                if (mAdaptive) {
+                    level = getStartThreshold();
+                }
+            }
+            while (mCount < level && !mStopped) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (mStopped) {
+                return -1;
+            }
+            if (mPresentationPolicy == PRESENTATION_LATEST) {
+                // Every queued frame is already decoded, so a frame is stale as soon as a newer one is queued.
+                // Drop down to the start threshold, which is kept as jitter buffer. (Only the newest one when mQueueSize=1)
+                while (mCount > getStartThreshold()) {
+                    mCodec.releaseOutputBuffer(mCodecIndex[mHead], false);
+                    skips++;
+                    mHead = (mHead + 1) & mMask;
+                    mCount--;
+                }
+                if (skips > 0) {
+                    updateSkippedFrames(skips);
+                }
+            }
+            mCodec.releaseOutputBuffer(mCodecIndex[mHead], true);
+            frameIndex = mFrameIndex[mHead];
+            mHead = (mHead + 1) & mMask;
+            mCount--;
+            occupancy = mCount;
 
-        // Start threshold is half of mQueueSize
-        if (mQueue.size() >= (mQueueSize + 1) / 2 && !mFrameAvailable) {
-            mFrameAvailable = true;
-            Log.e(TAG, "Start playing.");
+            report = adaptQueueSize();
+            queueSize = mQueueSize;
+            underrunCount = mUnderrunCount;
+            overrunCount = mOverflowCount;
+            jitterUs = mJitterNs / 1000;
+        }
+        if (report) {
+            LatencyCollector.frameQueue(queueSize, underrunCount, overrunCount, jitterUs);
         }
-        Log.e(TAG, "FrameQueue pushed " + mQueue.size());
-        if (mQueue.size() > mQueueSize) {
-            Log.e(TAG, "FrameQueue is full. Discard all frame.");
-            while (mQueue.size() >= 2) {
-                Element removeElement = mQueue.removeFirst();
-                mCodec.releaseOutputBuffer(removeElement.index, false);
+        FrameTrace.record(frameIndex, FrameTrace.RENDER, occupancy, skips);
+        return frameIndex;
+    }
+
+    private int getStartThreshold() {
+        return Math.max(1, (mQueueSize + 1) / 2);
+    }
+
+    private void updateJitter(long now) {
+        if (mLastOutputTimeNs != 0) {
+            long interval = now - mLastOutputTimeNs;
+            if (mOutputIntervalNs == 0) {
+                mOutputIntervalNs = interval;
             }
+            mOutputIntervalNs += (interval - mOutputIntervalNs) / JITTER_SMOOTHING;
+            mJitterNs += (Math.abs(interval - mOutputIntervalNs) - mJitterNs) / JITTER_SMOOTHING;
         }
-        Log.e(TAG, "Current queue state=" + mQueue.size() + " / " + mQueueSize);
-        notifyAll();
+        mLastOutputTimeNs = now;
     }
 
-    synchronized public long render() {
-        while (mQueue.size() == 0 && !mStopped) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    // Called from render() once per frame. Returns true when the adaptation window has ended.
+    private boolean adaptQueueSize() {
+        long now = System.nanoTime();
+        if (mWindowStartNs == 0) {
+            mWindowStartNs = now;
+        }
+        if (now - mWindowStartNs < mAdaptIntervalNs) {
+            return false;
+        }
+        if (mAdaptive && mWindowRenders > 0) {
+            double underrunRate = (double) mWindowUnderruns / mWindowRenders;
+            // Queue size which can absorb current jitter of decoder output.
+            int jitterSize = 1 + (int) ((JITTER_MARGIN * mJitterNs + mFramePeriodNs - 1) / mFramePeriodNs);
+
+            int queueSize = mQueueSize;
+            if (underrunRate > mTargetUnderrunRate) {
+                queueSize++;
+            } else if (underrunRate <= mTargetUnderrunRate / 2 && jitterSize < queueSize) {
+                queueSize--;
+            }
+            queueSize = Math.max(mMinQueueSize, Math.min(mMaxQueueSize, queueSize));
+            if (queueSize != mQueueSize) {
+                Log.v(TAG, "Adaptive queue size was changed. Size=" + mQueueSize + "->" + queueSize
+                        + " UnderrunRate=" + underrunRate + " Jitter=" + mJitterNs / 1000 + "us");
+                mQueueSize = queueSize;
             }
         }
-        if (mStopped) {
-            return -1;
+        mWindowStartNs = now;
+        mWindowRenders = 0;
+        mWindowUnderruns = 0;
+        return true;
+    }
+
+    private void updateStatisticsTime() {
+        long current = System.nanoTime() / (1000 * 1000 * 1000);
+        if (mStatisticsTime != current) {
+            // Previous second has no skip if it had no update.
+            mSkippedPrevious = mStatisticsTime == current - 1 ? mSkippedInSecond : 0;
+            mSkippedInSecond = 0;
+            mStatisticsTime = current;
         }
-        Element element = mQueue.removeFirst();
-        mCodec.releaseOutputBuffer(element.index, true);
-        return element.frameIndex;
+    }
+
+    private void updateSkippedFrames(int skips) {
+        updateStatisticsTime();
+        mSkippedFrames += skips;
+        mSkippedInSecond += skips;
     }
 
     synchronized public boolean isFrameAvailable() {
@@ -84,20 +275,131 @@ public class OutputFrameQueue {
 
     synchronized public void stop() {
         mStopped = true;
-        mQueue.clear();
-        mFrameAvailable = false;
+        clear();
+        logStatistics();
         notifyAll();
     }
 
     synchronized public void reset() {
         mStopped = false;
-        mQueue.clear();
-        mFrameAvailable = false;
+        clear();
+        mMaxOccupancy = 0;
+        mOverflowCount = 0;
+        mDiscardedFrames = 0;
+        mUnknownFrames = 0;
+        mSkippedFrames = 0;
+        mSkippedInSecond = 0;
+        mSkippedPrevious = 0;
+        mUnderrunCount = 0;
+        mLastOutputTimeNs = 0;
+        mOutputIntervalNs = 0;
+        mJitterNs = 0;
+        mWindowStartNs = 0;
+        mWindowRenders = 0;
+        mWindowUnderruns = 0;
         notifyAll();
     }
 
+    private void clear() {
+        mHead = 0;
+        mCount = 0;
+        mFrameAvailable = false;
+    }
+
     synchronized public void setQueueSize(int queueSize) {
-        Log.e(TAG, "Queue size was changed. Size=" + queueSize);
+        Log.v(TAG, "Queue size was changed. Size=" + queueSize);
+        if (mAdaptive) {
+            // Used as initial size of adaptation.
+            queueSize = Math.max(mMinQueueSize, Math.min(mMaxQueueSize, queueSize));
+        }
         mQueueSize = queueSize;
+        ensureCapacity(queueSize);
+    }
+
+    // Adjust queue size between minQueueSize and maxQueueSize to keep underrun rate
+    // (underruns per rendered frame) below targetUnderrunRate.
+    synchronized public void setAdaptiveQueueSize(boolean enabled, int minQueueSize, int maxQueueSize, double targetUnderrunRate) {
+        Log.v(TAG, "Adaptive queue size. Enabled=" + enabled + " Min=" + minQueueSize + " Max=" + maxQueueSize
+                + " TargetUnderrunRate=" + targetUnderrunRate);
+        mAdaptive = enabled;
+        mMinQueueSize = Math.max(1, minQueueSize);
+        mMaxQueueSize = Math.max(mMinQueueSize, maxQueueSize);
+        mTargetUnderrunRate = targetUnderrunRate;
+        if (enabled) {
+            mQueueSize = Math.max(mMinQueueSize, Math.min(mMaxQueueSize, mQueueSize));
+            // Allocate for the largest size in advance.
+            ensureCapacity(mMaxQueueSize);
+        }
+    }
+
+    // Shorter adaptation window for tests.
+    synchronized void setAdaptIntervalNs(long intervalNs) {
+        mAdaptIntervalNs = intervalNs;
+    }
+
+    private void ensureCapacity(int queueSize) {
+        // Queue holds up to queueSize + 1 frames before discarding.
+        if (queueSize + 1 > mMask + 1) {
+            allocate(queueSize + 1);
+        }
+    }
+
+    synchronized public void setPresentationPolicy(int policy, int refreshRate) {
+        Log.v(TAG, "Presentation policy was changed. Policy=" + policy + " RefreshRate=" + refreshRate);
+        mPresentationPolicy = policy;
+        mFramePeriodNs = 1000 * 1000 * 1000 / (refreshRate > 0 ? refreshRate : DEFAULT_REFRESH_RATE);
+    }
+
+    // Current (maybe adapted) queue size.
+    synchronized public int getQueueSize() {
+        return mQueueSize;
+    }
+
+    synchronized public long getUnderrunCount() {
+        return mUnderrunCount;
+    }
+
+    // Jitter of decoder output interval in nanoseconds.
+    synchronized public long getOutputJitterNs() {
+        return mJitterNs;
+    }
+
+    // Number of decoded frames waiting for render.
+    synchronized public int getOccupancy() {
+        return mCount;
+    }
+
+    synchronized public int getMaxOccupancy() {
+        return mMaxOccupancy;
+    }
+
+    // Number of times the queue was full and older frames were discarded.
+    synchronized public long getOverflowCount() {
+        return mOverflowCount;
+    }
+
+    synchronized public long getDiscardedFrames() {
+        return mDiscardedFrames;
+    }
+
+    synchronized public long getUnknownFrames() {
+        return mUnknownFrames;
+    }
+
+    // Stale frames skipped by PRESENTATION_LATEST.
+    synchronized public long getSkippedFrames() {
+        return mSkippedFrames;
+    }
+
+    // Stale frames skipped in the previous second.
+    synchronized public long getSkippedFramesInSecond() {
+        updateStatisticsTime();
+        return mSkippedPrevious;
+    }
+
+    synchronized public void logStatistics() {
+        Log.v(TAG, "Queue statistics. Occupancy=" + mCount + " MaxOccupancy=" + mMaxOccupancy + " / " + mQueueSize
+                + " Overflow=" + mOverflowCount + " Discarded=" + mDiscardedFrames + " UnknownFrames=" + mUnknownFrames
+                + " Skipped=" + mSkippedFrames + " Underrun=" + mUnderrunCount);
     }
 }
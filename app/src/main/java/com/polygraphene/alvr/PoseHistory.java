@@ -0,0 +1,221 @@
+package com.polygraphene.alvr;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Head poses sent to server, indexed by frameIndex, for rendering a decoded frame with the pose it was rendered for.
+// Fixed capacity ring in flat arrays. Slot of frameIndex is (frameIndex mod capacity), so old poses are
+// overwritten without removal and nothing is allocated after construction.
+// Written by tracking thread (single writer) and read by render thread (single reader).
+class PoseHistory {
+    private static final String TAG = "PoseHistory";
+
+    // Result of find() and findByTime()
+    public static final int LOOKUP_EXACT = 0;
+    public static final int LOOKUP_INTERPOLATED = 1;
+    // No pose around the request. Output matrix is untouched and caller should use its current pose.
+    public static final int LOOKUP_FALLBACK = 2;
+
+    // Poses further than this from the requested frame are not used for interpolation.
+    static final int MAX_INTERPOLATION_GAP = 8;
+
+    private static final int MATRIX_SIZE = 16;
+    // Generation of empty slot or slot being written.
+    private static final long INVALID = -1;
+
+    private final int mMask;
+    private final float[] mMatrices;
+    private final long[] mPoseTimes;
+    // frameIndex of the pose stored in slot. Readers reject slots whose generation is not the requested frameIndex.
+    private final AtomicLongArray mGenerations;
+    // Latest frameIndex put. Written only by writer.
+    private volatile long mLatest = 0;
+
+    // Work area of reader.
+    private float[] mBefore = new float[MATRIX_SIZE];
+    private float[] mAfter = new float[MATRIX_SIZE];
+    private final float[] mQuaternionBefore = new float[4];
+    private final float[] mQuaternionAfter = new float[4];
+    private final float[] mPositionBefore = new float[3];
+    private final float[] mPositionAfter = new float[3];
+
+    // Statistics. Written only by reader.
+    private volatile long mExactCount = 0;
+    private volatile long mInterpolatedCount = 0;
+    private volatile long mFallbackCount = 0;
+
+    // capacity is rounded up to power of two.
+    PoseHistory(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mMatrices = new float[size * MATRIX_SIZE];
+        mPoseTimes = new long[size];
+        mGenerations = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mGenerations.set(i, INVALID);
+        }
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    // Called on writer thread. frameIndex must be positive and increasing.
+    public void put(long frameIndex, float[] matrix, long poseTime) {
+        int slot = (int) frameIndex & mMask;
+        // Invalidate first so that reader never accepts the slot while it is mixed from two poses.
+        mGenerations.set(slot, INVALID);
+        System.arraycopy(matrix, 0, mMatrices, slot * MATRIX_SIZE, MATRIX_SIZE);
+        mPoseTimes[slot] = poseTime;
+        mGenerations.set(slot, frameIndex);
+        mLatest = frameIndex;
+    }
+
+    // Copy pose of frameIndex to matrix and return its poseTime.
+    // Returns -1 if the pose was not tracked or was already overwritten.
+    public long get(long frameIndex, float[] matrix) {
+        if (frameIndex <= 0) {
+            return -1;
+        }
+        int slot = (int) frameIndex & mMask;
+        if (mGenerations.get(slot) != frameIndex) {
+            return -1;
+        }
+        System.arraycopy(mMatrices, slot * MATRIX_SIZE, matrix, 0, MATRIX_SIZE);
+        long poseTime = mPoseTimes[slot];
+        // CAS to the same value validates generation after the copy with a full barrier,
+        // which plain volatile read does not give for preceding reads.
+        if (!mGenerations.compareAndSet(slot, frameIndex, frameIndex)) {
+            return -1;
+        }
+        return poseTime;
+    }
+
+    // Called on reader thread. Copy pose of frameIndex to matrix. If it is missing (dropped by tracking
+    // thread or overwritten), interpolate between the nearest tracked frames before and after it.
+    public int find(long frameIndex, float[] matrix) {
+        if (get(frameIndex, matrix) != -1) {
+            mExactCount++;
+            return LOOKUP_EXACT;
+        }
+        long latest = mLatest;
+        long before = -1;
+        long limit = Math.max(frameIndex - MAX_INTERPOLATION_GAP, latest - mMask);
+        for (long i = frameIndex - 1; i >= limit && i > 0; i--) {
+            if (get(i, mBefore) != -1) {
+                before = i;
+                break;
+            }
+        }
+        long after = -1;
+        limit = Math.min(frameIndex + MAX_INTERPOLATION_GAP, latest);
+        for (long i = frameIndex + 1; before != -1 && i <= limit; i++) {
+            if (get(i, mAfter) != -1) {
+                after = i;
+                break;
+            }
+        }
+        if (after == -1) {
+            mFallbackCount++;
+            return LOOKUP_FALLBACK;
+        }
+        interpolate(mBefore, mAfter, (float) (frameIndex - before) / (after - before), matrix);
+        mInterpolatedCount++;
+        return LOOKUP_INTERPOLATED;
+    }
+
+    // Called on reader thread. Copy pose at poseTime to matrix, interpolating between the tracked poses
+    // around it. Times outside of the history are not extrapolated.
+    public int findByTime(long poseTime, float[] matrix) {
+        long latest = mLatest;
+        long afterTime = -1;
+        for (long i = latest; i > latest - getCapacity() && i > 0; i--) {
+            long time = get(i, mBefore);
+            if (time == -1) {
+                continue;
+            }
+            if (time == poseTime) {
+                System.arraycopy(mBefore, 0, matrix, 0, MATRIX_SIZE);
+                mExactCount++;
+                return LOOKUP_EXACT;
+            }
+            if (time < poseTime) {
+                if (afterTime == -1) {
+                    break;
+                }
+                interpolate(mBefore, mAfter, (float) (poseTime - time) / (afterTime - time), matrix);
+                mInterpolatedCount++;
+                return LOOKUP_INTERPOLATED;
+            }
+            // Keep the oldest pose after poseTime seen so far.
+            float[] tmp = mAfter;
+            mAfter = mBefore;
+            mBefore = tmp;
+            afterTime = time;
+        }
+        mFallbackCount++;
+        return LOOKUP_FALLBACK;
+    }
+
+    // Slerp rotation and lerp head position of two headFromWorld matrices. t=0 gives a and t=1 gives b.
+    private void interpolate(float[] a, float[] b, float t, float[] out) {
+        PoseMath.toQuaternion(a, mQuaternionBefore);
+        PoseMath.toQuaternion(b, mQuaternionAfter);
+        PoseMath.toPosition(a, mPositionBefore);
+        PoseMath.toPosition(b, mPositionAfter);
+
+        float[] qa = mQuaternionBefore;
+        float[] qb = mQuaternionAfter;
+        float dot = qa[0] * qb[0] + qa[1] * qb[1] + qa[2] * qb[2] + qa[3] * qb[3];
+        float sign = 1;
+        if (dot < 0) {
+            // Take the shorter arc.
+            dot = -dot;
+            sign = -1;
+        }
+        float wa, wb;
+        if (dot > 0.9995f) {
+            // Nearly the same rotation. Lerp and normalize to avoid division by sin(0).
+            wa = 1 - t;
+            wb = t;
+        } else {
+            float theta = (float) Math.acos(dot);
+            float sinTheta = (float) Math.sin(theta);
+            wa = (float) Math.sin((1 - t) * theta) / sinTheta;
+            wb = (float) Math.sin(t * theta) / sinTheta;
+        }
+        wb *= sign;
+        qa[0] = wa * qa[0] + wb * qb[0];
+        qa[1] = wa * qa[1] + wb * qb[1];
+        qa[2] = wa * qa[2] + wb * qb[2];
+        qa[3] = wa * qa[3] + wb * qb[3];
+        PoseMath.normalize(qa);
+
+        float[] position = mPositionBefore;
+        for (int i = 0; i < 3; i++) {
+            position[i] += (mPositionAfter[i] - position[i]) * t;
+        }
+        PoseMath.toMatrix(qa, position, out);
+    }
+
+    public long getExactCount() {
+        return mExactCount;
+    }
+
+    public long getInterpolatedCount() {
+        return mInterpolatedCount;
+    }
+
+    public long getFallbackCount() {
+        return mFallbackCount;
+    }
+
+    public void logStatistics() {
+        Log.v(TAG, "Pose lookup statistics. Exact=" + mExactCount + " Interpolated=" + mInterpolatedCount
+                + " Fallback=" + mFallbackCount);
+    }
+}
@@ -0,0 +1,88 @@
+package com.polygraphene.alvr;
+
+// Conversion between headFromWorld matrix (column major, as returned by GvrApi.getHeadSpaceFromStartSpaceTransform)
+// and rotation quaternion (x, y, z, w) + head position in world. No allocation.
+final class PoseMath {
+    private PoseMath() {
+    }
+
+    // Rotation quaternion of column major matrix.
+    static void toQuaternion(float[] m, float[] q) {
+        float trace = m[0] + m[5] + m[10];
+        if (trace > 0) {
+            float s = (float) Math.sqrt(trace + 1) * 2;
+            q[3] = .25f * s;
+            q[0] = (m[6] - m[9]) / s;
+            q[1] = (m[8] - m[2]) / s;
+            q[2] = (m[1] - m[4]) / s;
+        } else if (m[0] > m[5] && m[0] > m[10]) {
+            float s = (float) Math.sqrt(1 + m[0] - m[5] - m[10]) * 2;
+            q[3] = (m[6] - m[9]) / s;
+            q[0] = .25f * s;
+            q[1] = (m[4] + m[1]) / s;
+            q[2] = (m[8] + m[2]) / s;
+        } else if (m[5] > m[10]) {
+            float s = (float) Math.sqrt(1 + m[5] - m[0] - m[10]) * 2;
+            q[3] = (m[8] - m[2]) / s;
+            q[0] = (m[4] + m[1]) / s;
+            q[1] = .25f * s;
+            q[2] = (m[9] + m[6]) / s;
+        } else {
+            float s = (float) Math.sqrt(1 + m[10] - m[0] - m[5]) * 2;
+            q[3] = (m[1] - m[4]) / s;
+            q[0] = (m[8] + m[2]) / s;
+            q[1] = (m[9] + m[6]) / s;
+            q[2] = .25f * s;
+        }
+    }
+
+    // Head position in world of headFromWorld matrix. (-R^T * translation)
+    static void toPosition(float[] m, float[] position) {
+        for (int i = 0; i < 3; i++) {
+            position[i] = -(m[i * 4] * m[12] + m[i * 4 + 1] * m[13] + m[i * 4 + 2] * m[14]);
+        }
+    }
+
+    // headFromWorld matrix of rotation q (normalized) and head position in world.
+    static void toMatrix(float[] q, float[] position, float[] m) {
+        float x = q[0], y = q[1], z = q[2], w = q[3];
+        m[0] = 1 - 2 * (y * y + z * z);
+        m[1] = 2 * (x * y + z * w);
+        m[2] = 2 * (x * z - y * w);
+        m[3] = 0;
+        m[4] = 2 * (x * y - z * w);
+        m[5] = 1 - 2 * (x * x + z * z);
+        m[6] = 2 * (y * z + x * w);
+        m[7] = 0;
+        m[8] = 2 * (x * z + y * w);
+        m[9] = 2 * (y * z - x * w);
+        m[10] = 1 - 2 * (x * x + y * y);
+        m[11] = 0;
+        // Translation is -R * position.
+        float px = position[0], py = position[1], pz = position[2];
+        m[12] = -(m[0] * px + m[4] * py + m[8] * pz);
+        m[13] = -(m[1] * px + m[5] * py + m[9] * pz);
+        m[14] = -(m[2] * px + m[6] * py + m[10] * pz);
+        m[15] = 1;
+    }
+
+    // out = a * b. out may be a or b.
+    static void multiply(float[] a, float[] b, float[] out) {
+        float x = a[3] * b[0] + a[0] * b[3] + a[1] * b[2] - a[2] * b[1];
+        float y = a[3] * b[1] - a[0] * b[2] + a[1] * b[3] + a[2] * b[0];
+        float z = a[3] * b[2] + a[0] * b[1] - a[1] * b[0] + a[2] * b[3];
+        float w = a[3] * b[3] - a[0] * b[0] - a[1] * b[1] - a[2] * b[2];
+        out[0] = x;
+        out[1] = y;
+        out[2] = z;
+        out[3] = w;
+    }
+
+    static void normalize(float[] q) {
+        float norm = (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        q[0] /= norm;
+        q[1] /= norm;
+        q[2] /= norm;
+        q[3] /= norm;
+    }
+}
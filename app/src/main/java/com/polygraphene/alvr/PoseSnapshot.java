@@ -0,0 +1,69 @@
+package com.polygraphene.alvr;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Head pose handed from render thread (single writer) to tracking thread (single reader) by triple buffer.
+// Both sides finish in a bounded number of steps without lock, so neither can block the other,
+// and the reader always gets all fields from the same publish.
+class PoseSnapshot {
+    // position(3) + orientation(4) + matrix(16)
+    private static final int POSITION = 0;
+    private static final int ORIENTATION = 3;
+    private static final int MATRIX = 7;
+    private static final int FLOATS = 23;
+
+    // mState holds the index of the slot last published and whether the reader has taken it.
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final float[] mPoses = new float[3 * FLOATS];
+    private final long[] mPoseTimes = new long[3];
+    // Sequence number of publish which wrote the slot.
+    private final long[] mSequences = new long[3];
+
+    private final AtomicInteger mState = new AtomicInteger(0);
+    // Owned by writer.
+    private int mBack = 1;
+    private long mSequence = 0;
+    // Owned by reader.
+    private int mFront = 2;
+
+    // Called on writer thread.
+    public void publish(float px, float py, float pz, float rx, float ry, float rz, float rw, float[] matrix, long poseTime) {
+        int base = mBack * FLOATS;
+        mPoses[base + POSITION] = px;
+        mPoses[base + POSITION + 1] = py;
+        mPoses[base + POSITION + 2] = pz;
+        mPoses[base + ORIENTATION] = rx;
+        mPoses[base + ORIENTATION + 1] = ry;
+        mPoses[base + ORIENTATION + 2] = rz;
+        mPoses[base + ORIENTATION + 3] = rw;
+        System.arraycopy(matrix, 0, mPoses, base + MATRIX, 16);
+        mPoseTimes[mBack] = poseTime;
+        mSequences[mBack] = ++mSequence;
+
+        // Swap back and middle slots. Volatile write of mState publishes the slot to the reader.
+        mBack = mState.getAndSet(mBack | FRESH) & INDEX_MASK;
+    }
+
+    // Called on reader thread. Copy the latest published pose to position, orientation and matrix, and
+    // return its poseTime. Same pose is returned again until the next publish. Returns -1 before the first publish.
+    public long read(float[] position, float[] orientation, float[] matrix) {
+        if ((mState.get() & FRESH) != 0) {
+            mFront = mState.getAndSet(mFront) & INDEX_MASK;
+        }
+        if (mSequences[mFront] == 0) {
+            return -1;
+        }
+        int base = mFront * FLOATS;
+        System.arraycopy(mPoses, base + POSITION, position, 0, 3);
+        System.arraycopy(mPoses, base + ORIENTATION, orientation, 0, 4);
+        System.arraycopy(mPoses, base + MATRIX, matrix, 0, 16);
+        return mPoseTimes[mFront];
+    }
+
+    // Called on reader thread. Sequence number of the pose returned by the last read. (0 before the first publish)
+    public long getReadSequence() {
+        return mSequences[mFront];
+    }
+}
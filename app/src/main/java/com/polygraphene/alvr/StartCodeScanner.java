@@ -0,0 +1,120 @@
+package com.polygraphene.alvr;
+
+import java.nio.ByteBuffer;
+
+// Finds NAL boundaries (00 00 01 and 00 00 00 01) and NAL types in Annex-B byte stream in one pass.
+// Same algorithm as native StartCodeScanner: buffer is read a long at a time and bytes are inspected
+// only in words which contain zero byte. Result arrays are reused across frames.
+class StartCodeScanner {
+    private static final int CODEC_H264 = 0;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    // Offset of start code. (Leading zero of 4-byte start code)
+    private int[] mStarts = new int[16];
+    // Offset of NAL header following start code.
+    private int[] mHeaders = new int[16];
+    private int[] mTypes = new int[16];
+    private int mCount = 0;
+
+    // Find up to maxUnits NAL units in buf[0, length). Returns number of units found.
+    // Results are valid until next scan.
+    public int scan(ByteBuffer buf, int length, int codec, int maxUnits) {
+        mCount = 0;
+        int from = 0;
+        while (mCount < maxUnits) {
+            int pos = find3(buf, from, length);
+            if (pos == -1 || pos + 3 >= length) {
+                break;
+            }
+            if (mCount == mStarts.length) {
+                grow();
+            }
+            mStarts[mCount] = pos > from && buf.get(pos - 1) == 0 ? pos - 1 : pos;
+            mHeaders[mCount] = pos + 3;
+            mTypes[mCount] = nalType(buf.get(pos + 3), codec);
+            mCount++;
+            from = pos + 3;
+        }
+        return mCount;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getStart(int i) {
+        return mStarts[i];
+    }
+
+    public int getHeader(int i) {
+        return mHeaders[i];
+    }
+
+    public int getType(int i) {
+        return mTypes[i];
+    }
+
+    private void grow() {
+        int capacity = mStarts.length * 2;
+        int[] starts = new int[capacity];
+        int[] headers = new int[capacity];
+        int[] types = new int[capacity];
+        System.arraycopy(mStarts, 0, starts, 0, mCount);
+        System.arraycopy(mHeaders, 0, headers, 0, mCount);
+        System.arraycopy(mTypes, 0, types, 0, mCount);
+        mStarts = starts;
+        mHeaders = headers;
+        mTypes = types;
+    }
+
+    // Returns offset of first start code in [from, end) (leading zero for 4-byte start code), or -1.
+    public static int findStartCode(ByteBuffer buf, int from, int end) {
+        int pos = find3(buf, from, end);
+        if (pos > from && buf.get(pos - 1) == 0) {
+            return pos - 1;
+        }
+        return pos;
+    }
+
+    // Returns type of the first NAL unit in buf[0, length), or -1 if it has no complete NAL header.
+    public static int firstNalType(ByteBuffer buf, int length, int codec) {
+        int pos = find3(buf, 0, length);
+        if (pos == -1 || pos + 3 >= length) {
+            return -1;
+        }
+        return nalType(buf.get(pos + 3), codec);
+    }
+
+    public static int nalType(byte header, int codec) {
+        if (codec == CODEC_H264) {
+            return header & 0x1F;
+        }
+        return (header >> 1) & 0x3F;
+    }
+
+    // Returns offset of 00 00 01 in [from, end), or -1.
+    private static int find3(ByteBuffer buf, int from, int end) {
+        int i = from;
+        // Start code can begin at i only when byte i is zero, so words without zero byte are skipped.
+        // Byte order of getLong does not matter for zero detection.
+        while (i + 8 + 2 <= end) {
+            long word = buf.getLong(i);
+            if (((word - ONES) & ~word & HIGHS) != 0) {
+                for (int j = i; j < i + 8; j++) {
+                    if (buf.get(j) == 0 && buf.get(j + 1) == 0 && buf.get(j + 2) == 1) {
+                        return j;
+                    }
+                }
+            }
+            i += 8;
+        }
+        for (; i + 2 < end; i++) {
+            if (buf.get(i) == 0 && buf.get(i + 1) == 0 && buf.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
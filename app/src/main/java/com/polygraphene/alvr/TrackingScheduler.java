@@ -0,0 +1,229 @@
+package com.polygraphene.alvr;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.locks.LockSupport;
+
+// Paces ticks of TrackingThread at refresh rate.
+// While render loop feeds vsync timestamps, ticks are phase locked to (vsync + offset), so that every tick
+// fetches the pose rendered for the latest vsync at a fixed age. Without vsync, ticks run free at nominal period.
+// Waits by sleeping until shortly before the tick and spinning the rest, for sub-millisecond accuracy.
+// Actual tick times are kept in histograms of lateness and interval error.
+class TrackingScheduler {
+    private static final String TAG = "TrackingScheduler";
+
+    // Sleep overshoots by up to about 1ms on Android. The last part of the wait spins.
+    static final long SPIN_NS = 1500 * 1000;
+    // Vsync older than this is ignored (render loop is paused) and ticks run free.
+    static final long VSYNC_TIMEOUT_NS = 500 * 1000 * 1000;
+    // Measured vsync interval further than this from nominal period is ignored. (e.g. dropped frames)
+    static final double PERIOD_TOLERANCE = 0.1;
+
+    // Histograms of absolute error in microsec. Last bucket holds everything above.
+    static final int BUCKET_US = 50;
+    static final int BUCKETS = 41;
+
+    private final long mNominalPeriodNs;
+    // Written by render thread.
+    private volatile long mVsyncTime = 0;
+    private volatile long mOffsetNs;
+
+    // Owned by tracking thread.
+    // Period estimated from vsync intervals.
+    private long mPeriodNs;
+    private long mLastVsyncTime = 0;
+    private long mPreviousTarget = 0;
+    private long mPreviousTick = 0;
+    private boolean mPhaseLocked = false;
+
+    // Statistics
+    // Actual tick time - target time
+    private final long[] mLatencyHistogram = new long[BUCKETS];
+    // |Actual interval between ticks - period|
+    private final long[] mIntervalHistogram = new long[BUCKETS];
+    private long mTicks = 0;
+    // Slots skipped because tracking thread was late by more than a period.
+    private long mMissedTicks = 0;
+    private long mMaxLatencyUs = 0;
+
+    TrackingScheduler(int refreshRate, long offsetNs) {
+        mNominalPeriodNs = 1000L * 1000 * 1000 / refreshRate;
+        mPeriodNs = mNominalPeriodNs;
+        mOffsetNs = offsetNs;
+    }
+
+    // Called on render thread once per vsync.
+    public void onVsync(long vsyncTime) {
+        mVsyncTime = vsyncTime;
+    }
+
+    // Offset of tick from vsync. Can be changed at any time.
+    public void setOffset(long offsetNs) {
+        mOffsetNs = offsetNs;
+    }
+
+    public long getOffset() {
+        return mOffsetNs;
+    }
+
+    public long getPeriodNs() {
+        return mPeriodNs;
+    }
+
+    public boolean isPhaseLocked() {
+        return mPhaseLocked;
+    }
+
+    // Called on tracking thread. Wait until the next tick and return its actual time.
+    // Returns early if thread was interrupted.
+    public long waitNextTick() {
+        long target = computeNextTarget(System.nanoTime());
+        while (true) {
+            long remaining = target - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            if (remaining > SPIN_NS) {
+                LockSupport.parkNanos(remaining - SPIN_NS);
+                if (Thread.interrupted()) {
+                    // Keep interrupt status for the caller.
+                    Thread.currentThread().interrupt();
+                    return System.nanoTime();
+                }
+            }
+            // Spin the rest, re-checking after each park in case it returned early.
+        }
+        long tick = System.nanoTime();
+        recordTick(target, tick);
+        return tick;
+    }
+
+    // Target time of the next tick. Called on tracking thread, once per tick.
+    long computeNextTarget(long now) {
+        long vsync = mVsyncTime;
+        long base;
+        if (vsync != 0 && now - vsync < VSYNC_TIMEOUT_NS) {
+            updatePeriod(vsync);
+            base = vsync + mOffsetNs;
+            mPhaseLocked = true;
+        } else {
+            // Free running from the previous tick.
+            base = mPreviousTarget != 0 ? mPreviousTarget : now;
+            mPhaseLocked = false;
+        }
+        long period = mPeriodNs;
+
+        // The first slot (base + k * period) which is at least half period after the previous target,
+        // so that phase adjustment never produces two ticks in one period. If the tracking thread was
+        // late, slots already passed by more than half period are skipped instead of bursting.
+        long earliest = now - period / 2;
+        if (mPreviousTarget != 0) {
+            earliest = Math.max(earliest, mPreviousTarget + period / 2);
+        }
+        long k = (earliest - base) / period;
+        long target = base + k * period;
+        // Division truncates toward zero. Move to the first slot not before earliest.
+        while (target < earliest) {
+            target += period;
+        }
+        while (target - period >= earliest) {
+            target -= period;
+        }
+
+        if (mPreviousTarget != 0) {
+            long skipped = (target - mPreviousTarget - period / 2) / period;
+            if (skipped > 0) {
+                mMissedTicks += skipped;
+            }
+        }
+        mPreviousTarget = target;
+        return target;
+    }
+
+    // Refine period from vsync intervals.
+    private void updatePeriod(long vsync) {
+        if (vsync == mLastVsyncTime) {
+            return;
+        }
+        long delta = vsync - mLastVsyncTime;
+        mLastVsyncTime = vsync;
+        long frames = (delta + mPeriodNs / 2) / mPeriodNs;
+        if (frames < 1 || frames > 4) {
+            return;
+        }
+        long measured = delta / frames;
+        if (Math.abs(measured - mNominalPeriodNs) > mNominalPeriodNs * PERIOD_TOLERANCE) {
+            return;
+        }
+        mPeriodNs += (measured - mPeriodNs) / 8;
+    }
+
+    synchronized void recordTick(long target, long tick) {
+        long latencyUs = (tick - target) / 1000;
+        mLatencyHistogram[bucket(latencyUs)]++;
+        mMaxLatencyUs = Math.max(mMaxLatencyUs, latencyUs);
+        if (mPreviousTick != 0) {
+            mIntervalHistogram[bucket((tick - mPreviousTick - mPeriodNs) / 1000)]++;
+        }
+        mPreviousTick = tick;
+        mTicks++;
+    }
+
+    private static int bucket(long us) {
+        return (int) Math.min(Math.abs(us) / BUCKET_US, BUCKETS - 1);
+    }
+
+    public synchronized long getTicks() {
+        return mTicks;
+    }
+
+    public synchronized long getMissedTicks() {
+        return mMissedTicks;
+    }
+
+    public synchronized void getLatencyHistogram(long[] histogram) {
+        System.arraycopy(mLatencyHistogram, 0, histogram, 0, BUCKETS);
+    }
+
+    public synchronized void getIntervalHistogram(long[] histogram) {
+        System.arraycopy(mIntervalHistogram, 0, histogram, 0, BUCKETS);
+    }
+
+    // Upper bound in microsec of the bucket containing the p-th fraction of samples.
+    static long percentile(long[] histogram, double p) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(total * p);
+        long sum = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            sum += histogram[i];
+            if (sum >= rank && sum > 0) {
+                return (i + 1) * BUCKET_US;
+            }
+        }
+        return 0;
+    }
+
+    public synchronized void logStatistics() {
+        Log.v(TAG, "Tracking tick statistics. Ticks=" + mTicks + " Missed=" + mMissedTicks
+                + " PhaseLocked=" + mPhaseLocked + " Period=" + mPeriodNs + "ns"
+                + " Latency p50<" + percentile(mLatencyHistogram, 0.5) + "us p99<"
+                + percentile(mLatencyHistogram, 0.99) + "us max=" + mMaxLatencyUs + "us"
+                + " IntervalError p50<" + percentile(mIntervalHistogram, 0.5) + "us p99<"
+                + percentile(mIntervalHistogram, 0.99) + "us");
+    }
+
+    // Write histograms as text. Each line is: bucket lower bound (us), latency count, interval error count.
+    public synchronized void writeHistograms(PrintWriter writer) {
+        writer.println("# Tracking tick jitter. Ticks=" + mTicks + " Missed=" + mMissedTicks
+                + " Period=" + mPeriodNs + "ns Offset=" + mOffsetNs + "ns");
+        writer.println("# us latency interval_error");
+        for (int i = 0; i < BUCKETS; i++) {
+            writer.println((i * BUCKET_US) + (i == BUCKETS - 1 ? "+" : "") + " " + mLatencyHistogram[i] + " "
+                    + mIntervalHistogram[i]);
+        }
+    }
+}
@@ -4,11 +4,14 @@ import android.opengl.EGLContext;
 import android.util.Log;
 
 import java.util.Arrays;
-import java.util.concurrent.TimeUnit;
 
 class TrackingThread extends ThreadBase {
     private static final String TAG = "TrackingThread";
+    // Tick after render thread published the pose of vsync, with margin for its quaternion extraction.
+    private static final long PHASE_OFFSET_NS = 2 * 1000 * 1000;
+
     private int mRefreshRate;
+    private final TrackingScheduler mScheduler;
 
     interface TrackingCallback {
         void onTracking(float[] position, float[] orientation);
@@ -18,6 +21,7 @@ class TrackingThread extends ThreadBase {
 
     public TrackingThread(int refreshRate) {
         mRefreshRate = refreshRate;
+        mScheduler = new TrackingScheduler(refreshRate, PHASE_OFFSET_NS);
     }
 
     public void setCallback(TrackingCallback callback) {
@@ -46,25 +50,33 @@ class TrackingThread extends ThreadBase {
 
     @Override
     public void run() {
-        long previousFetchTime = System.nanoTime();
         while (!isStopped()) {
-            mCallback.onTracking(mPosition, mOrientation);
-            try {
-                previousFetchTime += 1000 * 1000 * 1000 / mRefreshRate;
-                long next = previousFetchTime - System.nanoTime();
-                if (next < 0) {
-                    // Exceed time!
-                    previousFetchTime = System.nanoTime();
-                } else {
-                    TimeUnit.NANOSECONDS.sleep(next);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            mScheduler.waitNextTick();
+            if (isStopped()) {
+                break;
             }
+            mCallback.onTracking(mPosition, mOrientation);
         }
+        mScheduler.logStatistics();
         Log.v(TAG, "TrackingThread has stopped.");
     }
 
+    // Called on render thread once per vsync.
+    public void onVsync(long vsyncTime) {
+        mScheduler.onVsync(vsyncTime);
+    }
+
+    public void setPhaseOffset(long offsetNs) {
+        mScheduler.setOffset(offsetNs);
+    }
+
+    public long getPhaseOffset() {
+        return mScheduler.getOffset();
+    }
+
+    public TrackingScheduler getScheduler() {
+        return mScheduler;
+    }
 
     public String getErrorMessage() {
         return null;
@@ -3,6 +3,7 @@ package com.polygraphene.alvr;
 import android.opengl.EGLContext;
 import android.util.Log;
 
+import java.io.PrintWriter;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
@@ -19,12 +20,19 @@ class UdpReceiverThread extends ThreadBase implements NALParser, TrackingThread.
 
     private static final String BROADCAST_ADDRESS = "255.255.255.255";
 
+    // Number of NAL objects shared by native parser and DecoderThread.
+    private static final int NAL_POOL_SIZE = 20;
+    // Initial size of direct buffer of each NAL. Large enough for most IDR frames.
+    private static final int NAL_BUFFER_SIZE = 512 * 1024;
+
     private TrackingThread mTrackingThread;
     private VrContext mVrContext;
     private int mPort;
     private boolean mIs75Hz = false;
     private boolean mInitialized = false;
     private boolean mInitializeFailed = false;
+    // Applied to native parser on initialization, as decoder can be activated before socket.
+    private volatile boolean mSliceStreaming = false;
 
     private String mPreviousServerAddress;
     private int mPreviousServerPort;
@@ -100,7 +108,8 @@ class UdpReceiverThread extends ThreadBase implements NALParser, TrackingThread.
         try {
             String[] broadcastList = getBroadcastAddressList();
 
-            int ret = initializeSocket(mPort, getDeviceName(), broadcastList, mIs75Hz);
+            int ret = initializeSocket(mPort, getDeviceName(), broadcastList, mIs75Hz, NAL_POOL_SIZE, NAL_BUFFER_SIZE,
+                    mSliceStreaming);
             if (ret != 0) {
                 Log.e(TAG, "Error on initializing socket. Code=" + ret + ".");
                 synchronized (this) {
@@ -165,17 +174,64 @@ class UdpReceiverThread extends ThreadBase implements NALParser, TrackingThread.
         return ret.toArray(new String[]{});
     }
 
-    // Hack to save the post across threads. Pretend there is no race condition.
-    public float[] xyz = new float[3];
-    public float[] xyzw = new float[4];
-    public float[] m = new float[16];
-    public long poseTime;
+    // Latest head pose from render thread. Read by tracking thread without lock.
+    private final PoseSnapshot mPoseSnapshot = new PoseSnapshot();
+    // Owned by tracking thread.
+    private final float[] mTrackingPosition = new float[3];
+    private final float[] mTrackingOrientation = new float[4];
+    private final float[] mTrackingMatrix = new float[16];
+
+    // Prediction horizon until end-to-end latency is measured. Same as the former fixed lookahead.
+    static final long DEFAULT_PREDICTION_NS = 50 * 1000 * 1000;
+    // Cap, so that a latency spike (e.g. on reconnection) does not throw the predicted pose far off.
+    static final long MAX_PREDICTION_NS = 100 * 1000 * 1000;
+
+    // Called on render thread.
+    public void setTracking(float px, float py, float pz, float rx, float ry, float rz, float rw, float[] m, long poseTime) {
+        mPoseSnapshot.publish(px, py, pz, rx, ry, rz, rw, m, poseTime);
+    }
+
+    // Called on render thread once per vsync. Tracking ticks are phase locked to it.
+    public void onVsync(long vsyncTime) {
+        TrackingThread trackingThread = mTrackingThread;
+        if (trackingThread != null) {
+            trackingThread.onVsync(vsyncTime);
+        }
+    }
+
+    public void writeTrackingStatistics(PrintWriter writer) {
+        TrackingThread trackingThread = mTrackingThread;
+        if (trackingThread != null) {
+            trackingThread.getScheduler().writeHistograms(writer);
+        }
+    }
 
     @Override
-    public synchronized void onTracking(float[] position, float[] orientation) {
-        if (isTracking()) {
-            DaydreamLayersActivity.trackFrame(mVrContext.fetchTrackingInfo(getPointer(), xyz, xyzw), m, poseTime);
+    public void onTracking(float[] position, float[] orientation) {
+        if (!isTracking()) {
+            return;
         }
+        long poseTime = mPoseSnapshot.read(mTrackingPosition, mTrackingOrientation, mTrackingMatrix);
+        if (poseTime == -1) {
+            // Render thread has not produced pose yet.
+            return;
+        }
+        DaydreamLayersActivity.trackFrame(mVrContext.fetchTrackingInfo(getPointer(), mTrackingPosition, mTrackingOrientation),
+                mTrackingMatrix, poseTime);
+    }
+
+    // Called on render thread. Time from the vsync a pose is sampled on until the frame server renders with it
+    // is on display: phase offset of the tracking tick that sends the pose, measured latency from tracking
+    // to submit, and one frame for compositor to scan out.
+    public long getPredictionNs() {
+        TrackingThread trackingThread = mTrackingThread;
+        long latencyUs = LatencyCollector.getTotalLatencyUs();
+        if (trackingThread == null || latencyUs == 0) {
+            return DEFAULT_PREDICTION_NS;
+        }
+        long predictionNs = trackingThread.getPhaseOffset() + latencyUs * 1000
+                + 1000 * 1000 * 1000 / (mIs75Hz ? 75 : 60);
+        return Math.min(predictionNs, MAX_PREDICTION_NS);
     }
 
     public boolean isTracking() {
@@ -206,10 +262,12 @@ class UdpReceiverThread extends ThreadBase implements NALParser, TrackingThread.
         mCallback.onChangeSettings(EnableTestMode, suspend, frameQueueSize);
     }
 
-    private native int initializeSocket(int port, String deviceName, String[] broadcastAddrList, boolean is72Hz);
+    private native int initializeSocket(int port, String deviceName, String[] broadcastAddrList, boolean is72Hz,
+                                        int nalPoolSize, int nalBufferSize, boolean sliceStreaming);
     private native void closeSocket();
     private native void runLoop(String serverAddress, int serverPort);
     private native void interruptNative();
+    private native void setSliceStreamingNative(boolean enabled);
 
     public native boolean isConnected();
 
@@ -241,4 +299,10 @@ class UdpReceiverThread extends ThreadBase implements NALParser, TrackingThread.
 
     @Override
     public native void clearStopped();
+
+    @Override
+    public void setSliceStreaming(boolean enabled) {
+        mSliceStreaming = enabled;
+        setSliceStreamingNative(enabled);
+    }
 }
\ No newline at end of file
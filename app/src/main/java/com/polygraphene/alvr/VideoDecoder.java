@@ -0,0 +1,55 @@
+package com.polygraphene.alvr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Asynchronous video decoder used by DecoderThread.
+// Methods and flags follow MediaCodec so that MediaCodecDecoder is a thin wrapper.
+interface VideoDecoder {
+    interface Callback {
+        void onInputBufferAvailable(int index);
+
+        void onOutputBufferAvailable(int index, long presentationTimeUs);
+
+        void onError(String message);
+    }
+
+    interface Factory {
+        // mime: "video/avc" or "video/hevc"
+        VideoDecoder create(String mime) throws IOException;
+    }
+
+    String getName();
+
+    // Whether decoder accepts BUFFER_FLAG_PARTIAL_FRAME.
+    boolean isPartialFrameSupported();
+
+    // Whether output can be detached from and attached to the surface after configure.
+    // An idle decoder can be kept configured only when this is true, because a surface accepts one decoder at a time.
+    boolean isOutputSwitchable();
+
+    // Attach (enabled=true) or detach output from the surface.
+    // Can be called before configure, or after configure when isOutputSwitchable() is true.
+    void setOutputEnabled(boolean enabled);
+
+    // Must be called before configure.
+    void setCallback(Callback callback);
+
+    // csd: Codec specific data. (csd-0, csd-1, ...)
+    void configure(int width, int height, ByteBuffer[] csd);
+
+    void start();
+
+    void stop();
+
+    // Discard all queued input and output. In asynchronous mode, start() must be called to resume.
+    void flush();
+
+    void release();
+
+    ByteBuffer getInputBuffer(int index);
+
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+
+    void releaseOutputBuffer(int index, boolean render);
+}
@@ -8,8 +8,11 @@ import android.opengl.EGLContext;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.util.Log;
+import android.view.KeyEvent;
 import android.view.Surface;
 
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
 import java.nio.IntBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -20,6 +23,13 @@ class VrThread extends Thread {
     private static final String KEY_SERVER_PORT = "serverPort";
 
     private static final int PORT = 9944;
+    private static final int REFRESH_RATE = 75;
+    // Bounds and target of adaptive frame queue size. Underrun rate is underruns per rendered frame.
+    private static final int MIN_FRAME_QUEUE_SIZE = 1;
+    private static final int MAX_FRAME_QUEUE_SIZE = 6;
+    private static final double TARGET_UNDERRUN_RATE = 0.01;
+    // Key to dump frame trace to external media dir. (Select button of gamepad)
+    private static final int FRAME_TRACE_DUMP_KEY = KeyEvent.KEYCODE_BUTTON_SELECT;
     private final long nativeGvrContext;
 
     private AlvrActivity mMainActivity;
@@ -87,10 +97,13 @@ class VrThread extends Thread {
                 mReceiverThread.setPort(PORT);
                 loadConnectionState();
                 mDecoderThread = new DecoderThread(mReceiverThread, mSurface, mMainActivity);
+                mDecoderThread.setPresentationPolicy(OutputFrameQueue.PRESENTATION_LATEST, REFRESH_RATE);
+                mDecoderThread.setAdaptiveFrameQueueSize(true, MIN_FRAME_QUEUE_SIZE, MAX_FRAME_QUEUE_SIZE, TARGET_UNDERRUN_RATE);
+                mDecoderThread.setPrewarmDecoders(true);
 
                 try {
                     mDecoderThread.start();
-                    if (!mReceiverThread.start(true, mEGLContext, mMainActivity)) {
+                    if (!mReceiverThread.start(REFRESH_RATE == 75, mEGLContext, mMainActivity)) {
                         Log.e(TAG, "FATAL: Initialization of ReceiverThread failed.");
                         return;
                     }
@@ -125,6 +138,41 @@ class VrThread extends Thread {
     }
 
     public void onKeyEvent(final int keyCode, final int action) {
+        if (keyCode == FRAME_TRACE_DUMP_KEY && action == KeyEvent.ACTION_UP) {
+            dumpFrameTrace();
+        }
+    }
+
+    // Write frame trace and tracking tick jitter to external media dir (/sdcard/Android/media/...) off the UI thread.
+    // Decode frame trace on host with frame_trace_decode.
+    private void dumpFrameTrace() {
+        long time = System.currentTimeMillis();
+        String dir = mMainActivity.getExternalMediaDirs()[0].getAbsolutePath();
+        final String path = dir + "/frametrace-" + time + ".bin";
+        final String jitterPath = dir + "/trackingjitter-" + time + ".txt";
+        final UdpReceiverThread receiverThread = mReceiverThread;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long records = FrameTrace.dump(path);
+                Log.v(TAG, "Frame trace was dumped. Records=" + records + " Path=" + path);
+                if (receiverThread == null) {
+                    return;
+                }
+                PrintWriter writer = null;
+                try {
+                    writer = new PrintWriter(jitterPath);
+                    receiverThread.writeTrackingStatistics(writer);
+                    Log.v(TAG, "Tracking jitter was dumped. Path=" + jitterPath);
+                } catch (FileNotFoundException e) {
+                    Log.e(TAG, "Failed to write tracking jitter. Path=" + jitterPath, e);
+                } finally {
+                    if (writer != null) {
+                        writer.close();
+                    }
+                }
+            }
+        }, "FrameTraceDump").start();
     }
 
     // Called from onDestroy
@@ -190,23 +238,27 @@ class VrThread extends Thread {
         Log.v(TAG, "Destroying vrapi state.");
     }
 
+    public void onVsync(long vsyncTime) {
+        if (mReceiverThread == null) {
+            return;
+        }
+        mReceiverThread.onVsync(vsyncTime);
+    }
+
+    // Called on render thread. How far ahead of the vsync to predict the pose sent to server.
+    public long getPredictionNs() {
+        if (mReceiverThread == null) {
+            return UdpReceiverThread.DEFAULT_PREDICTION_NS;
+        }
+        return mReceiverThread.getPredictionNs();
+    }
+
     public void setTracking(float px, float py, float pz, float rx, float ry, float rz, float rw, float[] m, long poseTime) {
         if(mReceiverThread == null) {
             return;
         }
 
-        synchronized(mReceiverThread) {
-            // Hack to save the post across threads. Pretend there is no race condition.
-            mReceiverThread.xyz[0] = px;
-            mReceiverThread.xyz[1] = py;
-            mReceiverThread.xyz[2] = pz;
-            mReceiverThread.xyzw[0] = rx;
-            mReceiverThread.xyzw[1] = ry;
-            mReceiverThread.xyzw[2] = rz;
-            mReceiverThread.xyzw[3] = rw;
-            System.arraycopy(m, 0, mReceiverThread.m, 0, 16);
-            mReceiverThread.poseTime = poseTime;
-        }
+        mReceiverThread.setTracking(px, py, pz, rx, ry, rz, rw, m, poseTime);
     }
 
     public void render() {
@@ -0,0 +1,264 @@
+package com.polygraphene.alvr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Runs decodeLoop on host with FakeVideoDecoder.
+public class DecoderThreadTest {
+    private static final int H265_NAL_TYPE_TRAIL_R = 1;
+    private static final int H265_NAL_TYPE_IDR_W_RADL = 19;
+    private static final int H265_NAL_TYPE_VPS = 32;
+
+    private static final int CODEC_H264 = 0;
+    private static final int NAL_TYPE_P = 1;
+    private static final int NAL_TYPE_IDR = 5;
+    private static final int NAL_TYPE_SPS = 7;
+
+    // Input buffers are smaller than IDR frame to exercise split feeding.
+    private static final int INPUT_BUFFER_SIZE = 64;
+
+    private static class FakeNalParser implements NALParser {
+        private final LinkedBlockingQueue<NAL> mQueue = new LinkedBlockingQueue<>();
+        private volatile boolean mStopped = false;
+        private volatile boolean mSliceStreaming = false;
+
+        void push(int nalType, long frameIndex, int length) {
+            pushNal((byte) (nalType << 1), frameIndex, length, false);
+        }
+
+        // Slice of a frame streamed before whole frame was received.
+        void pushSlice(int nalType, long frameIndex, int length, boolean last) {
+            pushNal((byte) (nalType << 1), frameIndex, length, !last);
+        }
+
+        void pushH264(int nalType, long frameIndex, int length) {
+            pushNal((byte) (0x60 | nalType), frameIndex, length, false);
+        }
+
+        private void pushNal(byte header, long frameIndex, int length, boolean partialFrame) {
+            NAL nal = new NAL(0, length);
+            nal.frameIndex = frameIndex;
+            nal.length = length;
+            nal.partialFrame = partialFrame;
+            nal.buf.put(new byte[]{0, 0, 0, 1, header, 1});
+            mQueue.add(nal);
+        }
+
+        @Override
+        public int getNalListSize() {
+            return mQueue.size();
+        }
+
+        @Override
+        public NAL waitNal() {
+            while (!mStopped) {
+                try {
+                    NAL nal = mQueue.poll(10, TimeUnit.MILLISECONDS);
+                    if (nal != null) {
+                        return nal;
+                    }
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public NAL getNal() {
+            return mQueue.poll();
+        }
+
+        @Override
+        public void recycleNal(NAL nal) {
+        }
+
+        @Override
+        public void flushNALList() {
+            mQueue.clear();
+        }
+
+        @Override
+        public void notifyWaitingThread() {
+            mStopped = true;
+        }
+
+        @Override
+        public void clearStopped() {
+            mStopped = false;
+        }
+
+        @Override
+        public void setSliceStreaming(boolean enabled) {
+            mSliceStreaming = enabled;
+        }
+
+        boolean isSliceStreaming() {
+            return mSliceStreaming;
+        }
+    }
+
+    private FakeNalParser mParser;
+    // Created decoders by mime type.
+    private final Map<String, List<FakeVideoDecoder>> mDecoders = new HashMap<>();
+    private DecoderThread mThread;
+    private volatile boolean mPartialFrameSupported = true;
+
+    @Before
+    public void setUp() {
+        LatencyCollector.setNativeEnabled(false);
+        FrameTrace.setNativeEnabled(false);
+        mParser = new FakeNalParser();
+        mThread = new DecoderThread(mParser, new VideoDecoder.Factory() {
+            @Override
+            public VideoDecoder create(String mime) {
+                FakeVideoDecoder decoder = new FakeVideoDecoder(4, INPUT_BUFFER_SIZE, 4, TimeUnit.MILLISECONDS.toNanos(1));
+                decoder.setPartialFrameSupported(mPartialFrameSupported);
+                synchronized (mDecoders) {
+                    if (!mDecoders.containsKey(mime)) {
+                        mDecoders.put(mime, new ArrayList<FakeVideoDecoder>());
+                    }
+                    mDecoders.get(mime).add(decoder);
+                }
+                return decoder;
+            }
+        }, null);
+        mThread.setFrameQueueSize(8);
+    }
+
+    private List<FakeVideoDecoder> decoders(String mime) {
+        synchronized (mDecoders) {
+            List<FakeVideoDecoder> list = mDecoders.get(mime);
+            return list == null ? new ArrayList<FakeVideoDecoder>() : new ArrayList<>(list);
+        }
+    }
+
+    // render() returns -1 until decodeLoop creates the queue or while codec is being switched.
+    private long waitRender() throws InterruptedException {
+        long frameIndex;
+        while ((frameIndex = mThread.render()) == -1) {
+            Thread.sleep(1);
+        }
+        return frameIndex;
+    }
+
+    @After
+    public void tearDown() {
+        mThread.stopAndWait();
+    }
+
+    @Test(timeout = 5000)
+    public void ignoresFramesUntilCodecConfigAndRendersInOrder() throws Exception {
+        mThread.start();
+        mParser.push(H265_NAL_TYPE_TRAIL_R, 1, 30);
+        mParser.push(H265_NAL_TYPE_VPS, 2, 40);
+        mParser.push(H265_NAL_TYPE_IDR_W_RADL, 3, INPUT_BUFFER_SIZE * 3 + 10);
+        mParser.push(H265_NAL_TYPE_TRAIL_R, 4, 30);
+        mParser.push(H265_NAL_TYPE_TRAIL_R, 5, 30);
+
+        assertEquals(3, waitRender());
+        assertEquals(4, mThread.render());
+        assertEquals(5, mThread.render());
+
+        FakeVideoDecoder decoder = decoders("video/hevc").get(0);
+        // P-frame before codec config is not fed.
+        assertEquals(3, decoder.getQueuedFrames());
+        // Config + 4 chunks of IDR + 2 P-frames
+        assertEquals(7, decoder.getQueuedInputs());
+        assertEquals(40 + INPUT_BUFFER_SIZE * 3 + 10 + 30 + 30, decoder.getQueuedBytes());
+        assertEquals(3, decoder.getRenderedFrames());
+        // Pre-warming is disabled.
+        assertEquals(0, decoders("video/avc").size());
+    }
+
+    @Test(timeout = 5000)
+    public void feedsStreamedSlicesAsOneFrame() throws Exception {
+        mThread.start();
+        mParser.push(H265_NAL_TYPE_VPS, 1, 40);
+        mParser.pushSlice(H265_NAL_TYPE_IDR_W_RADL, 1, 30, false);
+        mParser.pushSlice(H265_NAL_TYPE_IDR_W_RADL, 1, 30, false);
+        mParser.pushSlice(H265_NAL_TYPE_IDR_W_RADL, 1, 30, true);
+        // Frame 2 is dropped by parser before its last slice.
+        mParser.pushSlice(H265_NAL_TYPE_TRAIL_R, 2, 30, false);
+        mParser.pushSlice(H265_NAL_TYPE_TRAIL_R, 3, 30, false);
+        mParser.pushSlice(H265_NAL_TYPE_TRAIL_R, 3, 30, true);
+
+        assertEquals(1, waitRender());
+        assertEquals(3, mThread.render());
+        assertTrue(mParser.isSliceStreaming());
+
+        FakeVideoDecoder decoder = decoders("video/hevc").get(0);
+        // Config + 3 slices + 1 slice + empty terminator of frame 2 + 2 slices
+        assertEquals(8, decoder.getQueuedInputs());
+        assertEquals(2, decoder.getQueuedFrames());
+        assertEquals(40 + 30 * 6, decoder.getQueuedBytes());
+    }
+
+    @Test(timeout = 5000)
+    public void disablesSliceStreamingWithoutPartialFrameSupport() throws Exception {
+        mPartialFrameSupported = false;
+        mThread.start();
+        mParser.push(H265_NAL_TYPE_VPS, 1, 40);
+        // Streamed before parser was told to stop streaming. Dropped until next IDR.
+        mParser.pushSlice(H265_NAL_TYPE_IDR_W_RADL, 2, 30, false);
+        mParser.pushSlice(H265_NAL_TYPE_IDR_W_RADL, 2, 30, true);
+        mParser.pushSlice(H265_NAL_TYPE_TRAIL_R, 3, 30, false);
+        mParser.pushSlice(H265_NAL_TYPE_TRAIL_R, 3, 30, true);
+        mParser.push(H265_NAL_TYPE_VPS, 4, 40);
+        mParser.push(H265_NAL_TYPE_IDR_W_RADL, 4, 60);
+        mParser.push(H265_NAL_TYPE_TRAIL_R, 5, 30);
+
+        assertEquals(4, waitRender());
+        assertEquals(5, mThread.render());
+        assertFalse(mParser.isSliceStreaming());
+
+        FakeVideoDecoder decoder = decoders("video/hevc").get(0);
+        // Every output has its own frame. Slices were not fed as separate frames.
+        assertEquals(2, decoder.getQueuedFrames());
+        // 2 configs + IDR + P-frame
+        assertEquals(4, decoder.getQueuedInputs());
+        assertEquals(40 + 40 + 60 + 30, decoder.getQueuedBytes());
+        assertEquals(2, decoder.getRenderedFrames());
+    }
+
+    @Test(timeout = 5000)
+    public void switchesToPrewarmedDecoderWithoutRecreation() throws Exception {
+        mThread.setPrewarmDecoders(true);
+        mThread.start();
+        mParser.push(H265_NAL_TYPE_VPS, 1, 40);
+        mParser.push(H265_NAL_TYPE_IDR_W_RADL, 2, 30);
+        mParser.push(H265_NAL_TYPE_TRAIL_R, 3, 30);
+        assertEquals(2, waitRender());
+        assertEquals(3, mThread.render());
+
+        mThread.onConnect(CODEC_H264, 8);
+        // P-frame of new stream before codec config is not fed.
+        mParser.pushH264(NAL_TYPE_P, 10, 30);
+        mParser.pushH264(NAL_TYPE_SPS, 11, 20);
+        mParser.pushH264(NAL_TYPE_IDR, 12, 30);
+        mParser.pushH264(NAL_TYPE_P, 13, 30);
+        assertEquals(12, waitRender());
+        assertEquals(13, mThread.render());
+        assertTrue(mThread.getTimeToFirstFrameNs() > 0);
+
+        List<FakeVideoDecoder> h264 = decoders("video/avc");
+        List<FakeVideoDecoder> h265 = decoders("video/hevc");
+        assertEquals(1, h264.size());
+        assertEquals(1, h265.size());
+        assertEquals(2, h264.get(0).getQueuedFrames());
+        assertEquals(2, h264.get(0).getRenderedFrames());
+        // Previous decoder was flushed and kept for next switch.
+        assertEquals(1, h265.get(0).getFlushes());
+        assertEquals(0, h264.get(0).getFlushes());
+    }
+}
@@ -0,0 +1,225 @@
+package com.polygraphene.alvr;
+
+import android.media.MediaCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// VideoDecoder which does not decode, for running decoder pipeline on host without MediaCodec.
+// Input buffers are returned as soon as they are queued. Each frame (input without
+// BUFFER_FLAG_CODEC_CONFIG or BUFFER_FLAG_PARTIAL_FRAME) is output in queued order after decodeDelayNs
+// when an output buffer is free. Callbacks are called on a single thread as MediaCodec does.
+class FakeVideoDecoder implements VideoDecoder {
+    private final ByteBuffer[] mInputBuffers;
+    private final int mOutputBuffers;
+    private final long mDecodeDelayNs;
+
+    private Callback mCallback;
+    private ScheduledExecutorService mExecutor;
+    private boolean mStarted = false;
+    private boolean mPartialFrameSupported = true;
+
+    private final ArrayDeque<Integer> mFreeOutputs = new ArrayDeque<>();
+    // Presentation time of decoded frames waiting for free output buffer.
+    private final ArrayDeque<Long> mDecodedFrames = new ArrayDeque<>();
+
+    // Statistics
+    private long mQueuedInputs = 0;
+    private long mQueuedBytes = 0;
+    private long mQueuedFrames = 0;
+    private long mOutputFrames = 0;
+    private long mRenderedFrames = 0;
+    private long mDroppedFrames = 0;
+    private long mFlushes = 0;
+
+    static Factory factory(final int inputBuffers, final int inputBufferSize, final int outputBuffers, final long decodeDelayNs) {
+        return new Factory() {
+            @Override
+            public VideoDecoder create(String mime) {
+                return new FakeVideoDecoder(inputBuffers, inputBufferSize, outputBuffers, decodeDelayNs);
+            }
+        };
+    }
+
+    FakeVideoDecoder(int inputBuffers, int inputBufferSize, int outputBuffers, long decodeDelayNs) {
+        mInputBuffers = new ByteBuffer[inputBuffers];
+        for (int i = 0; i < inputBuffers; i++) {
+            mInputBuffers[i] = ByteBuffer.allocateDirect(inputBufferSize);
+        }
+        mOutputBuffers = outputBuffers;
+        mDecodeDelayNs = decodeDelayNs;
+    }
+
+    @Override
+    public String getName() {
+        return "fake";
+    }
+
+    @Override
+    public boolean isPartialFrameSupported() {
+        return mPartialFrameSupported;
+    }
+
+    // Behave like decoders without FEATURE_PartialFrame. Call before passing to DecoderThread.
+    void setPartialFrameSupported(boolean supported) {
+        mPartialFrameSupported = supported;
+    }
+
+    @Override
+    public boolean isOutputSwitchable() {
+        return true;
+    }
+
+    @Override
+    public void setOutputEnabled(boolean enabled) {
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    @Override
+    public void configure(int width, int height, ByteBuffer[] csd) {
+    }
+
+    @Override
+    public synchronized void start() {
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mStarted = true;
+        mFreeOutputs.clear();
+        mDecodedFrames.clear();
+        for (int i = 0; i < mOutputBuffers; i++) {
+            mFreeOutputs.add(i);
+        }
+        for (int i = 0; i < mInputBuffers.length; i++) {
+            returnInputBuffer(i);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        mStarted = false;
+        mExecutor.shutdownNow();
+    }
+
+    // Pending frames and callbacks are discarded. Input buffers are returned again on start().
+    @Override
+    public synchronized void flush() {
+        mStarted = false;
+        mExecutor.shutdownNow();
+        mFlushes++;
+    }
+
+    @Override
+    public void release() {
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        ByteBuffer buffer = mInputBuffers[index];
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public synchronized void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        if (!mStarted) {
+            throw new IllegalStateException();
+        }
+        mQueuedInputs++;
+        mQueuedBytes += size;
+        returnInputBuffer(index);
+
+        if (size > 0 && (flags & (MediaCodec.BUFFER_FLAG_CODEC_CONFIG | MediaCodec.BUFFER_FLAG_PARTIAL_FRAME)) == 0) {
+            mQueuedFrames++;
+            final long frame = presentationTimeUs;
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (FakeVideoDecoder.this) {
+                        mDecodedFrames.add(frame);
+                    }
+                    deliverOutputs();
+                }
+            }, mDecodeDelayNs, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void releaseOutputBuffer(int index, boolean render) {
+        if (!mStarted) {
+            return;
+        }
+        if (render) {
+            mRenderedFrames++;
+        } else {
+            mDroppedFrames++;
+        }
+        mFreeOutputs.add(index);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliverOutputs();
+            }
+        });
+    }
+
+    private void returnInputBuffer(final int index) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onInputBufferAvailable(index);
+            }
+        });
+    }
+
+    // Called on callback thread.
+    private void deliverOutputs() {
+        while (true) {
+            int index;
+            long presentationTimeUs;
+            synchronized (this) {
+                if (!mStarted || mDecodedFrames.isEmpty() || mFreeOutputs.isEmpty()) {
+                    return;
+                }
+                index = mFreeOutputs.poll();
+                presentationTimeUs = mDecodedFrames.poll();
+                mOutputFrames++;
+            }
+            mCallback.onOutputBufferAvailable(index, presentationTimeUs);
+        }
+    }
+
+    public synchronized long getQueuedInputs() {
+        return mQueuedInputs;
+    }
+
+    public synchronized long getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    // Number of complete frames queued.
+    public synchronized long getQueuedFrames() {
+        return mQueuedFrames;
+    }
+
+    public synchronized long getOutputFrames() {
+        return mOutputFrames;
+    }
+
+    public synchronized long getRenderedFrames() {
+        return mRenderedFrames;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    public synchronized long getFlushes() {
+        return mFlushes;
+    }
+}
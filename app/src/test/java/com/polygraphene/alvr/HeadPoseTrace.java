@@ -0,0 +1,93 @@
+package com.polygraphene.alvr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+// Head pose trace loaded from test resource. The bundled head_pose_trace.txt is synthetic, not recorded on a device.
+// Line format: frameIndex poseTime(ns) qx qy qz qw px py pz. Lines starting with # are comments.
+// Orientation is head in world and position is head position in world.
+class HeadPoseTrace {
+    final long[] frameIndices;
+    final long[] poseTimes;
+    final float[] orientations;
+    final float[] positions;
+
+    private HeadPoseTrace(List<String[]> rows) {
+        int n = rows.size();
+        frameIndices = new long[n];
+        poseTimes = new long[n];
+        orientations = new float[n * 4];
+        positions = new float[n * 3];
+        for (int i = 0; i < n; i++) {
+            String[] row = rows.get(i);
+            frameIndices[i] = Long.parseLong(row[0]);
+            poseTimes[i] = Long.parseLong(row[1]);
+            for (int j = 0; j < 4; j++) {
+                orientations[i * 4 + j] = Float.parseFloat(row[2 + j]);
+            }
+            for (int j = 0; j < 3; j++) {
+                positions[i * 3 + j] = Float.parseFloat(row[6 + j]);
+            }
+        }
+    }
+
+    static HeadPoseTrace load(String resource) throws IOException {
+        InputStream stream = HeadPoseTrace.class.getClassLoader().getResourceAsStream(resource);
+        if (stream == null) {
+            throw new IOException("Trace not found: " + resource);
+        }
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] row = line.split("\\s+");
+                if (row.length != 9) {
+                    throw new IOException("Bad trace line: " + line);
+                }
+                rows.add(row);
+            }
+        }
+        return new HeadPoseTrace(rows);
+    }
+
+    int size() {
+        return frameIndices.length;
+    }
+
+    // headFromWorld matrix (column major) of pose i, as passed to DaydreamLayersActivity.trackFrame.
+    void headFromWorld(int i, float[] m) {
+        // Inverse rotation of head in world.
+        float[] q = new float[]{-orientations[i * 4], -orientations[i * 4 + 1], -orientations[i * 4 + 2],
+                orientations[i * 4 + 3]};
+        float[] position = new float[]{positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]};
+        PoseMath.toMatrix(q, position, m);
+    }
+
+    // Angle in degrees between rotations of two headFromWorld matrices.
+    static double angleDegrees(float[] a, float[] b) {
+        float[] qa = new float[4];
+        float[] qb = new float[4];
+        PoseMath.toQuaternion(a, qa);
+        PoseMath.toQuaternion(b, qb);
+        double dot = Math.abs(qa[0] * qb[0] + qa[1] * qb[1] + qa[2] * qb[2] + qa[3] * qb[3]);
+        return Math.toDegrees(2 * Math.acos(Math.min(1, dot)));
+    }
+
+    // Distance in meters between head positions of two headFromWorld matrices.
+    static double distance(float[] a, float[] b) {
+        float[] pa = new float[3];
+        float[] pb = new float[3];
+        PoseMath.toPosition(a, pa);
+        PoseMath.toPosition(b, pb);
+        double dx = pa[0] - pb[0], dy = pa[1] - pb[1], dz = pa[2] - pb[2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
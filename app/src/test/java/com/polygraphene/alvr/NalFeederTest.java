@@ -0,0 +1,166 @@
+package com.polygraphene.alvr;
+
+import android.media.MediaCodec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NalFeederTest {
+    // Codec input side with small fixed size buffers which records queued chunks.
+    private static class FakeInputBuffers implements NalFeeder.InputBuffers {
+        static class Chunk {
+            byte[] data;
+            long presentationTimeUs;
+            int flags;
+        }
+
+        private final ByteBuffer[] mBuffers;
+        private int mNext = 0;
+        final List<Chunk> chunks = new ArrayList<>();
+
+        FakeInputBuffers(int count, int capacity) {
+            mBuffers = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                mBuffers[i] = ByteBuffer.allocateDirect(capacity);
+            }
+        }
+
+        @Override
+        public int dequeueInputBuffer() {
+            int index = mNext;
+            mNext = (mNext + 1) % mBuffers.length;
+            mBuffers[index].clear();
+            return index;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return mBuffers[index];
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+            Chunk chunk = new Chunk();
+            chunk.data = new byte[size];
+            ByteBuffer buffer = mBuffers[index].duplicate();
+            buffer.position(offset);
+            buffer.get(chunk.data);
+            chunk.presentationTimeUs = presentationTimeUs;
+            chunk.flags = flags;
+            chunks.add(chunk);
+        }
+
+        byte[] joined() {
+            int length = 0;
+            for (Chunk chunk : chunks) {
+                length += chunk.data.length;
+            }
+            byte[] ret = new byte[length];
+            int offset = 0;
+            for (Chunk chunk : chunks) {
+                System.arraycopy(chunk.data, 0, ret, offset, chunk.data.length);
+                offset += chunk.data.length;
+            }
+            return ret;
+        }
+    }
+
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + i / 256);
+        }
+        return data;
+    }
+
+    // NAL buffer larger than NAL as received from native code.
+    private static ByteBuffer nalBuffer(byte[] data) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(data.length + 100);
+        buf.put(data);
+        return buf;
+    }
+
+    @Test
+    public void feedsSmallNalInOneBuffer() throws Exception {
+        FakeInputBuffers codec = new FakeInputBuffers(4, 100);
+        NalFeeder feeder = new NalFeeder(codec, true);
+        byte[] data = pattern(60);
+
+        assertEquals(1, feeder.feed(nalBuffer(data), data.length, 1234, 0));
+
+        assertEquals(1, codec.chunks.size());
+        assertArrayEquals(data, codec.joined());
+        assertEquals(0, codec.chunks.get(0).flags);
+        assertEquals(0, feeder.getSplitFrames());
+    }
+
+    @Test
+    public void splitsLargeNalWithSourceOffset() throws Exception {
+        FakeInputBuffers codec = new FakeInputBuffers(4, 100);
+        NalFeeder feeder = new NalFeeder(codec, true);
+        byte[] data = pattern(350);
+
+        assertEquals(4, feeder.feed(nalBuffer(data), data.length, 5678, 0));
+
+        assertEquals(4, codec.chunks.size());
+        assertArrayEquals(data, codec.joined());
+        for (int i = 0; i < codec.chunks.size(); i++) {
+            FakeInputBuffers.Chunk chunk = codec.chunks.get(i);
+            assertEquals(5678, chunk.presentationTimeUs);
+            boolean last = i == codec.chunks.size() - 1;
+            assertEquals(!last, (chunk.flags & MediaCodec.BUFFER_FLAG_PARTIAL_FRAME) != 0);
+        }
+        assertEquals(1, feeder.getSplitFrames());
+        assertEquals(4, feeder.getSplitChunks());
+    }
+
+    @Test
+    public void splitsWithoutPartialFlagWhenUnsupported() throws Exception {
+        FakeInputBuffers codec = new FakeInputBuffers(2, 100);
+        NalFeeder feeder = new NalFeeder(codec, false);
+        byte[] data = pattern(250);
+
+        assertEquals(3, feeder.feed(nalBuffer(data), data.length, 1, 0));
+
+        assertArrayEquals(data, codec.joined());
+        for (FakeInputBuffers.Chunk chunk : codec.chunks) {
+            assertEquals(0, chunk.flags & MediaCodec.BUFFER_FLAG_PARTIAL_FRAME);
+        }
+        assertEquals(1, feeder.getSplitFrames());
+    }
+
+    @Test
+    public void keepsCodecConfigFlagOnEveryChunk() throws Exception {
+        FakeInputBuffers codec = new FakeInputBuffers(2, 16);
+        NalFeeder feeder = new NalFeeder(codec, true);
+        byte[] data = pattern(40);
+
+        feeder.feed(nalBuffer(data), data.length, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+
+        assertArrayEquals(data, codec.joined());
+        for (FakeInputBuffers.Chunk chunk : codec.chunks) {
+            assertTrue((chunk.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0);
+        }
+    }
+
+    @Test
+    public void feedsExactMultipleOfBufferSize() throws Exception {
+        FakeInputBuffers codec = new FakeInputBuffers(3, 100);
+        NalFeeder feeder = new NalFeeder(codec, true);
+        byte[] data = pattern(200);
+        ByteBuffer nal = nalBuffer(data);
+
+        assertEquals(2, feeder.feed(nal, data.length, 1, 0));
+        // Same NAL object is reused for the next frame.
+        assertEquals(2, feeder.feed(nal, data.length, 2, 0));
+
+        assertEquals(4, codec.chunks.size());
+        assertEquals(0, codec.chunks.get(3).flags);
+        assertEquals(2, feeder.getSplitFrames());
+    }
+}
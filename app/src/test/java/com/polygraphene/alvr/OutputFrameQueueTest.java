@@ -0,0 +1,226 @@
+package com.polygraphene.alvr;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class OutputFrameQueueTest {
+    private static final int REFRESH_RATE = 60;
+    private static final long ADAPT_INTERVAL_MS = 30;
+
+    // Records output buffers released by the queue.
+    private static class RecordingDecoder extends FakeVideoDecoder {
+        final List<Integer> rendered = new ArrayList<>();
+        final List<Integer> dropped = new ArrayList<>();
+
+        RecordingDecoder() {
+            super(1, 16, 16, 0);
+        }
+
+        @Override
+        public synchronized void releaseOutputBuffer(int index, boolean render) {
+            (render ? rendered : dropped).add(index);
+        }
+    }
+
+    private RecordingDecoder mDecoder;
+    private OutputFrameQueue mQueue;
+
+    // Decoder output of frameIndex in codec buffer (frameIndex % 16).
+    private void output(long frameIndex) {
+        mQueue.pushInputBuffer(frameIndex * 1000, frameIndex);
+        mQueue.pushOutputBuffer((int) (frameIndex % 16), frameIndex * 1000);
+    }
+
+    @Before
+    public void setUp() {
+        LatencyCollector.setNativeEnabled(false);
+        FrameTrace.setNativeEnabled(false);
+        mDecoder = new RecordingDecoder();
+        mQueue = new OutputFrameQueue(mDecoder);
+    }
+
+    @Test
+    public void fifoPresentsEveryFrameInOrder() {
+        mQueue.setPresentationPolicy(OutputFrameQueue.PRESENTATION_FIFO, REFRESH_RATE);
+        mQueue.setQueueSize(4);
+        for (long i = 1; i <= 4; i++) {
+            output(i);
+        }
+        assertTrue(mQueue.isFrameAvailable());
+        for (long i = 1; i <= 4; i++) {
+            assertEquals(i, mQueue.render());
+        }
+        assertEquals(4, mDecoder.rendered.size());
+        assertEquals(0, mDecoder.dropped.size());
+        assertEquals(0, mQueue.getSkippedFrames());
+        assertEquals(0, mQueue.getOccupancy());
+    }
+
+    @Test
+    public void latestSkipsStaleFramesDownToStartThreshold() {
+        mQueue.setPresentationPolicy(OutputFrameQueue.PRESENTATION_LATEST, REFRESH_RATE);
+        mQueue.setQueueSize(4);
+        for (long i = 1; i <= 4; i++) {
+            output(i);
+        }
+        // Start threshold of size 4 is 2. Frames 1 and 2 are skipped and frame 4 stays as jitter buffer.
+        assertEquals(3, mQueue.render());
+        assertEquals(2, mQueue.getSkippedFrames());
+        assertEquals(1, mQueue.getOccupancy());
+        assertEquals(2, mDecoder.dropped.size());
+        assertEquals(Integer.valueOf(3), mDecoder.rendered.get(0));
+
+        // Nothing to skip at the threshold.
+        assertEquals(4, mQueue.render());
+        assertEquals(2, mQueue.getSkippedFrames());
+
+        // Queue size 1 keeps only the newest frame.
+        mQueue.setQueueSize(1);
+        output(5);
+        output(6);
+        assertEquals(6, mQueue.render());
+    }
+
+    @Test(timeout = 10000)
+    public void countsSkippedFramesOfPreviousSecond() throws Exception {
+        mQueue.setPresentationPolicy(OutputFrameQueue.PRESENTATION_LATEST, REFRESH_RATE);
+        mQueue.setQueueSize(8);
+        // Start right after a second boundary, so that skips and the check fall in consecutive seconds.
+        sleepToNextSecond();
+        for (long i = 1; i <= 8; i++) {
+            output(i);
+        }
+        // Start threshold is 4.
+        assertEquals(5, mQueue.render());
+        assertEquals(0, mQueue.getSkippedFramesInSecond());
+
+        sleepToNextSecond();
+        assertEquals(4, mQueue.getSkippedFramesInSecond());
+
+        // A second without skips.
+        sleepToNextSecond();
+        assertEquals(0, mQueue.getSkippedFramesInSecond());
+        assertEquals(4, mQueue.getSkippedFrames());
+    }
+
+    @Test(timeout = 10000)
+    public void adaptiveQueueGrowsOnUnderrunsUpToMax() throws Exception {
+        mQueue.setAdaptiveQueueSize(true, 1, 4, 0.1);
+        mQueue.setQueueSize(1);
+        mQueue.setAdaptIntervalNs(ADAPT_INTERVAL_MS * 1000 * 1000);
+        final AtomicLong frameIndex = new AtomicLong(1);
+        for (int window = 0; window < 8; window++) {
+            while (mQueue.getOccupancy() > 0) {
+                mQueue.render();
+            }
+            // Decoder output comes after render started waiting on empty queue. (Underrun)
+            final AtomicBoolean rendered = new AtomicBoolean(false);
+            Thread decoder = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(20);
+                        while (!rendered.get()) {
+                            output(frameIndex.getAndIncrement());
+                            Thread.sleep(2);
+                        }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            decoder.start();
+            mQueue.render();
+            rendered.set(true);
+            decoder.join();
+            assertTrue(mQueue.getQueueSize() >= 1 && mQueue.getQueueSize() <= 4);
+            Thread.sleep(ADAPT_INTERVAL_MS);
+        }
+        assertEquals(4, mQueue.getQueueSize());
+        assertTrue(mQueue.getUnderrunCount() >= 7);
+    }
+
+    @Test(timeout = 10000)
+    public void adaptiveQueueShrinksToMinWhenJitterFits() throws Exception {
+        mQueue.setAdaptiveQueueSize(true, 3, 6, 0.1);
+        mQueue.setQueueSize(6);
+        mQueue.setAdaptIntervalNs(ADAPT_INTERVAL_MS * 1000 * 1000);
+        assertEquals(6, mQueue.getQueueSize());
+        for (long i = 1; i <= 10; i++) {
+            // Steady decoder output, rendered before the queue runs empty. Jitter fits in a queue of 2.
+            output(i);
+            Thread.sleep(ADAPT_INTERVAL_MS + 5);
+            assertEquals(i, mQueue.render());
+            assertTrue(mQueue.getQueueSize() >= 3 && mQueue.getQueueSize() <= 6);
+        }
+        assertEquals(0, mQueue.getUnderrunCount());
+        // Limited by min.
+        assertEquals(3, mQueue.getQueueSize());
+    }
+
+    // Sleep until 10ms after the next boundary of System.nanoTime() seconds.
+    private static void sleepToNextSecond() throws InterruptedException {
+        long second = 1000L * 1000 * 1000;
+        long now = System.nanoTime();
+        long target = (now / second + 1) * second + 10 * 1000 * 1000;
+        Thread.sleep((target - now) / (1000 * 1000) + 1);
+    }
+
+    // Decoder thread flushes or releases the codec right after stop(), so stop() must not return
+    // while render thread is still releasing an output buffer.
+    @Test(timeout = 5000)
+    public void stopWaitsForReleaseInFlight() throws Exception {
+        final CountDownLatch releasing = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final AtomicBoolean released = new AtomicBoolean(false);
+        final AtomicBoolean releasedBeforeStop = new AtomicBoolean(false);
+        FakeVideoDecoder decoder = new FakeVideoDecoder(1, 16, 1, 0) {
+            @Override
+            public void releaseOutputBuffer(int index, boolean render) {
+                releasing.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                released.set(true);
+            }
+        };
+        final OutputFrameQueue queue = new OutputFrameQueue(decoder);
+        queue.pushInputBuffer(100, 1);
+        queue.pushOutputBuffer(0, 100);
+
+        Thread renderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.render();
+            }
+        });
+        renderThread.start();
+        releasing.await();
+
+        Thread stopThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.stop();
+                releasedBeforeStop.set(released.get());
+            }
+        });
+        stopThread.start();
+        stopThread.join(100);
+        assertTrue(stopThread.isAlive());
+
+        proceed.countDown();
+        stopThread.join();
+        renderThread.join();
+        assertTrue(releasedBeforeStop.get());
+    }
+}
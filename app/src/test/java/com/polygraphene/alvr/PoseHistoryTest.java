@@ -0,0 +1,205 @@
+package com.polygraphene.alvr;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PoseHistoryTest {
+    private static void fill(float[] matrix, long frameIndex) {
+        for (int i = 0; i < 16; i++) {
+            matrix[i] = (float) (frameIndex & 0xFFFFF) + i * (1 << 20);
+        }
+    }
+
+    // Returns null if matrix is the pose of frameIndex.
+    private static String check(float[] matrix, long frameIndex) {
+        for (int i = 0; i < 16; i++) {
+            if (matrix[i] != (float) (frameIndex & 0xFFFFF) + i * (1 << 20)) {
+                return "matrix[" + i + "] of frame " + frameIndex + " was " + matrix[i];
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void returnsTrackedPose() {
+        PoseHistory history = new PoseHistory(100);
+        assertEquals(128, history.getCapacity());
+
+        float[] source = new float[16];
+        float[] matrix = new float[16];
+        assertEquals(-1, history.get(1, matrix));
+
+        for (long i = 1; i <= 10; i++) {
+            fill(source, i);
+            history.put(i, source, i * 1000);
+        }
+        assertEquals(5000, history.get(5, matrix));
+        assertNull(check(matrix, 5));
+        assertEquals(10000, history.get(10, matrix));
+        assertNull(check(matrix, 10));
+
+        // Not tracked yet, or invalid index.
+        assertEquals(-1, history.get(11, matrix));
+        assertEquals(-1, history.get(0, matrix));
+        assertEquals(-1, history.get(-1, matrix));
+    }
+
+    @Test
+    public void rejectsOverwrittenSlot() {
+        PoseHistory history = new PoseHistory(16);
+        float[] source = new float[16];
+        float[] matrix = new float[16];
+        for (long i = 1; i <= 40; i++) {
+            fill(source, i);
+            history.put(i, source, i);
+        }
+        // Frames 25..40 are kept. Older frames share slots with them and must not be returned.
+        assertEquals(-1, history.get(24, matrix));
+        assertEquals(-1, history.get(40 - 16, matrix));
+        assertEquals(-1, history.get(8, matrix));
+        assertEquals(25, history.get(25, matrix));
+        assertNull(check(matrix, 25));
+        // Frame in the future sharing slot with kept frame.
+        assertEquals(-1, history.get(25 + 16, matrix));
+    }
+
+    @Test
+    public void interpolatesDroppedFramesOfTrace() throws Exception {
+        HeadPoseTrace trace = HeadPoseTrace.load("head_pose_trace.txt");
+        PoseHistory history = new PoseHistory(trace.size() * 2);
+        float[] source = new float[16];
+        float[] expected = new float[16];
+        float[] matrix = new float[16];
+        // Tracking thread drops every third frame.
+        for (int i = 0; i < trace.size(); i++) {
+            if (i % 3 != 1) {
+                trace.headFromWorld(i, source);
+                history.put(trace.frameIndices[i], source, trace.poseTimes[i]);
+            }
+        }
+
+        double maxAngle = 0;
+        double maxDistance = 0;
+        int dropped = 0;
+        for (int i = 0; i < trace.size() - 1; i++) {
+            dropped += i % 3 == 1 ? 1 : 0;
+            int result = history.find(trace.frameIndices[i], matrix);
+            assertEquals("frame " + trace.frameIndices[i], i % 3 == 1 ? PoseHistory.LOOKUP_INTERPOLATED
+                    : PoseHistory.LOOKUP_EXACT, result);
+            trace.headFromWorld(i, expected);
+            maxAngle = Math.max(maxAngle, HeadPoseTrace.angleDegrees(expected, matrix));
+            maxDistance = Math.max(maxDistance, HeadPoseTrace.distance(expected, matrix));
+        }
+        // Head turns up to about 200 deg/s in the trace, 2.8 deg per frame.
+        assertTrue("Max angle error: " + maxAngle, maxAngle < 0.5);
+        assertTrue("Max position error: " + maxDistance, maxDistance < 0.002);
+
+        // Frames beyond the history.
+        assertEquals(PoseHistory.LOOKUP_FALLBACK, history.find(trace.size() + 1, matrix));
+        assertEquals(PoseHistory.LOOKUP_FALLBACK, history.find(0, matrix));
+
+        assertEquals(trace.size() - 1 - dropped, history.getExactCount());
+        assertEquals(dropped, history.getInterpolatedCount());
+        assertEquals(2, history.getFallbackCount());
+    }
+
+    @Test
+    public void interpolatesByTimeOfTrace() throws Exception {
+        HeadPoseTrace trace = HeadPoseTrace.load("head_pose_trace.txt");
+        PoseHistory history = new PoseHistory(trace.size());
+        float[] source = new float[16];
+        float[] expected = new float[16];
+        float[] matrix = new float[16];
+        // Put only even frames and look up times of odd frames.
+        for (int i = 0; i < trace.size(); i += 2) {
+            trace.headFromWorld(i, source);
+            history.put(trace.frameIndices[i], source, trace.poseTimes[i]);
+        }
+
+        double maxAngle = 0;
+        double maxDistance = 0;
+        for (int i = 1; i < trace.size() - 1; i += 2) {
+            assertEquals(PoseHistory.LOOKUP_INTERPOLATED, history.findByTime(trace.poseTimes[i], matrix));
+            trace.headFromWorld(i, expected);
+            maxAngle = Math.max(maxAngle, HeadPoseTrace.angleDegrees(expected, matrix));
+            maxDistance = Math.max(maxDistance, HeadPoseTrace.distance(expected, matrix));
+        }
+        assertTrue("Max angle error: " + maxAngle, maxAngle < 0.5);
+        assertTrue("Max position error: " + maxDistance, maxDistance < 0.002);
+
+        assertEquals(PoseHistory.LOOKUP_EXACT, history.findByTime(trace.poseTimes[10], matrix));
+        trace.headFromWorld(10, expected);
+        assertArrayEquals(expected, matrix, 0);
+
+        // Times outside of the history are not extrapolated.
+        assertEquals(PoseHistory.LOOKUP_FALLBACK, history.findByTime(trace.poseTimes[0] - 1, matrix));
+        long last = trace.poseTimes[(trace.size() - 1) / 2 * 2];
+        assertEquals(PoseHistory.LOOKUP_FALLBACK, history.findByTime(last + 1, matrix));
+    }
+
+    @Test(timeout = 10000)
+    public void neverReturnsTornPoseUnderContention() throws Exception {
+        // Small capacity so that the writer overwrites slots the reader is copying.
+        final PoseHistory history = new PoseHistory(4);
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final AtomicReference<String> error = new AtomicReference<>();
+        final AtomicLong latest = new AtomicLong(0);
+        final long durationNs = 1000L * 1000 * 1000;
+        final long[] hits = new long[1];
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] source = new float[16];
+                for (long i = 1; !stop.get(); i++) {
+                    fill(source, i);
+                    history.put(i, source, i);
+                    latest.set(i);
+                }
+            }
+        });
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] matrix = new float[16];
+                long deadline = System.nanoTime() + durationNs;
+                for (long n = 0; System.nanoTime() < deadline; n++) {
+                    if (n % 1000 == 0) {
+                        // Let the writer run on single core.
+                        Thread.yield();
+                    }
+                    long frameIndex = latest.get() - (n & 3);
+                    if (frameIndex <= 0) {
+                        continue;
+                    }
+                    long poseTime = history.get(frameIndex, matrix);
+                    if (poseTime == -1) {
+                        continue;
+                    }
+                    String message = poseTime != frameIndex ? "poseTime " + poseTime + " of frame " + frameIndex
+                            : check(matrix, frameIndex);
+                    if (message != null) {
+                        error.set(message);
+                        break;
+                    }
+                    hits[0]++;
+                }
+            }
+        });
+
+        writer.start();
+        reader.start();
+        reader.join();
+        stop.set(true);
+        writer.join();
+
+        assertNull(error.get());
+        assertTrue("Hits: " + hits[0], hits[0] > 100);
+    }
+}
@@ -0,0 +1,161 @@
+package com.polygraphene.alvr;
+
+// Predicts head pose at display time by extrapolating angular and linear velocity estimated from recent poses.
+// Velocity is measured over a short window and smoothed exponentially to suppress sensor noise.
+// Candidate model for offline evaluation in PosePredictorTest. The app sends the pose GVR predicts from its IMU.
+class PosePredictor {
+    // Velocity is measured between poses at least this far apart, to reduce noise of small differences.
+    static final long VELOCITY_WINDOW_NS = 20 * 1000 * 1000;
+    // Weight of the newest measurement in exponential smoothing of velocity.
+    static final float SMOOTHING = 0.5f;
+    // Error of longer prediction grows larger than the motion it compensates.
+    static final long MAX_HORIZON_NS = 100 * 1000 * 1000;
+    // Samples older than this are not used for velocity. (e.g. after tracking was paused)
+    static final long MAX_SAMPLE_AGE_NS = 200 * 1000 * 1000;
+    private static final int HISTORY = 8;
+
+    // Recent samples. Rotation quaternion and head position of headFromWorld.
+    private final float[] mQuaternions = new float[HISTORY * 4];
+    private final float[] mPositions = new float[HISTORY * 3];
+    private final long[] mTimes = new long[HISTORY];
+    // Index of the latest sample.
+    private int mLatest = 0;
+    private int mCount = 0;
+
+    // Smoothed angular velocity as rotation vector in rad/s, and linear velocity in m/s.
+    private final float[] mAngularVelocity = new float[3];
+    private final float[] mLinearVelocity = new float[3];
+    private boolean mHasVelocity = false;
+
+    // Work area
+    private final float[] mDelta = new float[4];
+    private final float[] mQuaternion = new float[4];
+    private final float[] mPosition = new float[3];
+
+    public void reset() {
+        mCount = 0;
+        mHasVelocity = false;
+    }
+
+    // Add headFromWorld matrix sampled at poseTime. Samples not newer than the latest one are ignored.
+    public void addSample(float[] matrix, long poseTime) {
+        if (mCount > 0) {
+            long latestTime = mTimes[mLatest];
+            if (poseTime <= latestTime) {
+                return;
+            }
+            if (poseTime - latestTime > MAX_SAMPLE_AGE_NS) {
+                reset();
+            }
+        }
+        mLatest = mCount == 0 ? 0 : (mLatest + 1) % HISTORY;
+        mCount = Math.min(mCount + 1, HISTORY);
+        PoseMath.toQuaternion(matrix, mQuaternion);
+        PoseMath.toPosition(matrix, mPosition);
+        System.arraycopy(mQuaternion, 0, mQuaternions, mLatest * 4, 4);
+        System.arraycopy(mPosition, 0, mPositions, mLatest * 3, 3);
+        mTimes[mLatest] = poseTime;
+
+        // Newest sample at least VELOCITY_WINDOW_NS older than the latest one.
+        int base = -1;
+        for (int i = 1; i < mCount; i++) {
+            int index = (mLatest - i + HISTORY) % HISTORY;
+            if (poseTime - mTimes[index] >= VELOCITY_WINDOW_NS) {
+                base = index;
+                break;
+            }
+        }
+        if (base == -1) {
+            return;
+        }
+        float dt = (poseTime - mTimes[base]) / 1e9f;
+
+        // Rotation from base to latest. delta = latest * conjugate(base)
+        float[] delta = mDelta;
+        delta[0] = -mQuaternions[base * 4];
+        delta[1] = -mQuaternions[base * 4 + 1];
+        delta[2] = -mQuaternions[base * 4 + 2];
+        delta[3] = mQuaternions[base * 4 + 3];
+        PoseMath.multiply(mQuaternion, delta, delta);
+        if (delta[3] < 0) {
+            // Take the shorter arc.
+            for (int i = 0; i < 4; i++) {
+                delta[i] = -delta[i];
+            }
+        }
+        float sin = (float) Math.sqrt(delta[0] * delta[0] + delta[1] * delta[1] + delta[2] * delta[2]);
+        // Rotation vector / dt. For small angle, 2 * atan2(sin, cos) / sin -> 2.
+        float scale = sin < 1e-6f ? 2 / dt : 2 * (float) Math.atan2(sin, delta[3]) / sin / dt;
+
+        float weight = mHasVelocity ? SMOOTHING : 1;
+        for (int i = 0; i < 3; i++) {
+            float angular = delta[i] * scale;
+            float linear = (mPosition[i] - mPositions[base * 3 + i]) / dt;
+            mAngularVelocity[i] += (angular - mAngularVelocity[i]) * weight;
+            mLinearVelocity[i] += (linear - mLinearVelocity[i]) * weight;
+        }
+        mHasVelocity = true;
+    }
+
+    public boolean hasVelocity() {
+        return mHasVelocity;
+    }
+
+    public long getLatestTime() {
+        return mCount == 0 ? -1 : mTimes[mLatest];
+    }
+
+    // Write headFromWorld matrix of the latest sample extrapolated to targetTime.
+    // Returns false and leaves matrix untouched if velocity is not known yet.
+    public boolean predict(long targetTime, float[] matrix) {
+        if (!mHasVelocity) {
+            return false;
+        }
+        float horizon = Math.max(0, Math.min(targetTime - mTimes[mLatest], MAX_HORIZON_NS)) / 1e9f;
+
+        // Rotate latest pose by angular velocity * horizon.
+        float rx = mAngularVelocity[0] * horizon;
+        float ry = mAngularVelocity[1] * horizon;
+        float rz = mAngularVelocity[2] * horizon;
+        float angle = (float) Math.sqrt(rx * rx + ry * ry + rz * rz);
+        float[] delta = mDelta;
+        if (angle < 1e-6f) {
+            delta[0] = rx / 2;
+            delta[1] = ry / 2;
+            delta[2] = rz / 2;
+            delta[3] = 1;
+        } else {
+            float s = (float) Math.sin(angle / 2) / angle;
+            delta[0] = rx * s;
+            delta[1] = ry * s;
+            delta[2] = rz * s;
+            delta[3] = (float) Math.cos(angle / 2);
+        }
+        System.arraycopy(mQuaternions, mLatest * 4, mQuaternion, 0, 4);
+        PoseMath.multiply(delta, mQuaternion, mQuaternion);
+        PoseMath.normalize(mQuaternion);
+
+        for (int i = 0; i < 3; i++) {
+            mPosition[i] = mPositions[mLatest * 3 + i] + mLinearVelocity[i] * horizon;
+        }
+        PoseMath.toMatrix(mQuaternion, mPosition, matrix);
+        return true;
+    }
+
+    // Predict like predict(targetTime, matrix), and also move position and orientation of tracking info
+    // (head in world, sent to server) of the latest sample by the same amount.
+    public boolean predict(long targetTime, float[] position, float[] orientation, float[] matrix) {
+        if (!predict(targetTime, matrix)) {
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            position[i] += mPosition[i] - mPositions[mLatest * 3 + i];
+        }
+        // Head in world is the inverse of headFromWorld rotation.
+        orientation[0] = -mQuaternion[0];
+        orientation[1] = -mQuaternion[1];
+        orientation[2] = -mQuaternion[2];
+        orientation[3] = mQuaternion[3];
+        return true;
+    }
+}
@@ -0,0 +1,202 @@
+package com.polygraphene.alvr;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+// Offline evaluation of PosePredictor against holding the latest pose. GVR's IMU based prediction, which the app
+// sends, does not run on host, so this shows nothing about PosePredictor compared with GVR.
+public class PosePredictorTest {
+    private static final long MS = 1000 * 1000;
+    // Prediction horizons evaluated on the traces.
+    private static final long[] HORIZONS_MS = {0, 10, 20, 30, 40, 50, 60, 80, 100};
+    // Traces in test resources. head_pose_trace.txt is synthetic. Add traces recorded on a device here to evaluate them.
+    private static final String[] TRACES = {"head_pose_trace.txt"};
+
+    // Error statistics of prediction to one horizon.
+    private static class Errors {
+        final double[] angles;
+        final double[] distances;
+        int count = 0;
+
+        Errors(int capacity) {
+            angles = new double[capacity];
+            distances = new double[capacity];
+        }
+
+        void add(float[] expected, float[] actual) {
+            angles[count] = HeadPoseTrace.angleDegrees(expected, actual);
+            distances[count] = HeadPoseTrace.distance(expected, actual);
+            count++;
+        }
+
+        static double mean(double[] values, int count) {
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += values[i];
+            }
+            return count == 0 ? 0 : sum / count;
+        }
+
+        static double percentile(double[] values, int count, double p) {
+            double[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return count == 0 ? 0 : sorted[Math.min(count - 1, (int) (count * p))];
+        }
+
+        double meanAngle() {
+            return mean(angles, count);
+        }
+
+        double meanDistance() {
+            return mean(distances, count);
+        }
+    }
+
+    // Replay trace through predictor and compare prediction of each horizon with the pose in the trace at
+    // the target time. Also compares with no prediction (the latest pose as is).
+    // Returns errors of {prediction, no prediction} for each horizon.
+    private static Errors[][] evaluate(HeadPoseTrace trace) {
+        PoseHistory truth = new PoseHistory(trace.size());
+        float[] matrix = new float[16];
+        for (int i = 0; i < trace.size(); i++) {
+            trace.headFromWorld(i, matrix);
+            truth.put(trace.frameIndices[i], matrix, trace.poseTimes[i]);
+        }
+
+        Errors[][] errors = new Errors[HORIZONS_MS.length][2];
+        for (int h = 0; h < HORIZONS_MS.length; h++) {
+            errors[h][0] = new Errors(trace.size());
+            errors[h][1] = new Errors(trace.size());
+        }
+        PosePredictor predictor = new PosePredictor();
+        float[] latest = new float[16];
+        float[] expected = new float[16];
+        float[] predicted = new float[16];
+        for (int i = 0; i < trace.size(); i++) {
+            trace.headFromWorld(i, latest);
+            predictor.addSample(latest, trace.poseTimes[i]);
+            if (!predictor.hasVelocity()) {
+                continue;
+            }
+            for (int h = 0; h < HORIZONS_MS.length; h++) {
+                long target = trace.poseTimes[i] + HORIZONS_MS[h] * MS;
+                if (truth.findByTime(target, expected) == PoseHistory.LOOKUP_FALLBACK) {
+                    // Beyond the end of trace.
+                    continue;
+                }
+                assertTrue(predictor.predict(target, predicted));
+                errors[h][0].add(expected, predicted);
+                errors[h][1].add(expected, latest);
+            }
+        }
+        return errors;
+    }
+
+    private static void report(String name, Errors[][] errors) {
+        System.out.println("Prediction error of " + name);
+        System.out.println(String.format("%8s %8s %12s %12s %12s %12s %12s", "Horizon", "Samples",
+                "Angle(deg)", "P95(deg)", "Hold(deg)", "Pos(mm)", "Hold(mm)"));
+        for (int h = 0; h < HORIZONS_MS.length; h++) {
+            Errors predicted = errors[h][0];
+            Errors hold = errors[h][1];
+            System.out.println(String.format("%6dms %8d %12.3f %12.3f %12.3f %12.2f %12.2f", HORIZONS_MS[h],
+                    predicted.count, predicted.meanAngle(),
+                    Errors.percentile(predicted.angles, predicted.count, 0.95), hold.meanAngle(),
+                    predicted.meanDistance() * 1000, hold.meanDistance() * 1000));
+        }
+    }
+
+    @Test
+    public void reportsErrorByHorizonOfTraces() throws Exception {
+        for (String name : TRACES) {
+            Errors[][] errors = evaluate(HeadPoseTrace.load(name));
+            report(name, errors);
+            for (int h = 0; h < HORIZONS_MS.length; h++) {
+                if (HORIZONS_MS[h] < 20) {
+                    continue;
+                }
+                // Prediction has to be clearly better than sending the latest pose as is.
+                assertTrue(name + " " + HORIZONS_MS[h] + "ms",
+                        errors[h][0].meanAngle() < errors[h][1].meanAngle() * 0.75);
+                assertTrue(name + " " + HORIZONS_MS[h] + "ms",
+                        errors[h][0].meanDistance() < errors[h][1].meanDistance());
+            }
+        }
+    }
+
+    @Test
+    public void extrapolatesConstantRotation() {
+        PosePredictor predictor = new PosePredictor();
+        float[] q = new float[4];
+        float[] position = new float[3];
+        float[] matrix = new float[16];
+        float[] expected = new float[16];
+        float[] predicted = new float[16];
+        // 90 deg/s around Y and 0.5 m/s along X. Samples at 72Hz.
+        double rate = Math.toRadians(90);
+        long interval = 1000L * 1000 * 1000 / 72;
+        assertFalse(predictor.predict(0, predicted));
+        for (int i = 0; i < 10; i++) {
+            pose(rate * i * interval / 1e9, 0.5 * i * interval / 1e9, q, position, matrix);
+            predictor.addSample(matrix, i * interval);
+        }
+        assertTrue(predictor.hasVelocity());
+        long target = 9 * interval + 50 * MS;
+        assertTrue(predictor.predict(target, predicted));
+        pose(rate * target / 1e9, 0.5 * target / 1e9, q, position, expected);
+        assertTrue(HeadPoseTrace.angleDegrees(expected, predicted) < 0.01);
+        assertTrue(HeadPoseTrace.distance(expected, predicted) < 0.0001);
+
+        // Horizon is capped.
+        pose(rate * (9 * interval + PosePredictor.MAX_HORIZON_NS) / 1e9,
+                0.5 * (9 * interval + PosePredictor.MAX_HORIZON_NS) / 1e9, q, position, expected);
+        assertTrue(predictor.predict(target + 1000 * MS, predicted));
+        assertTrue(HeadPoseTrace.angleDegrees(expected, predicted) < 0.01);
+
+        // Tracking info of the latest sample is moved by the same amount.
+        float[] trackingPosition = new float[]{0.5f * 9 * interval / 1e9f, 1.8f, 0};
+        float[] trackingOrientation = new float[4];
+        assertTrue(predictor.predict(target, trackingPosition, trackingOrientation, predicted));
+        assertEquals(0.5 * target / 1e9, trackingPosition[0], 0.0001);
+        assertEquals(1.8, trackingPosition[1], 0.0001);
+        // Head in world rotates around Y by the predicted angle.
+        assertEquals(Math.sin(rate * target / 1e9 / 2), Math.abs(trackingOrientation[1]), 0.0001);
+    }
+
+    @Test
+    public void restartsAfterPause() {
+        PosePredictor predictor = new PosePredictor();
+        float[] q = new float[4];
+        float[] position = new float[3];
+        float[] matrix = new float[16];
+        long interval = 1000L * 1000 * 1000 / 72;
+        for (int i = 0; i < 5; i++) {
+            pose(i * 0.1, 0, q, position, matrix);
+            predictor.addSample(matrix, i * interval);
+        }
+        assertTrue(predictor.hasVelocity());
+        // Old and duplicate samples are ignored.
+        predictor.addSample(matrix, 2 * interval);
+        assertEquals(4 * interval, predictor.getLatestTime());
+
+        // Velocity over a pause is meaningless.
+        predictor.addSample(matrix, 4 * interval + PosePredictor.MAX_SAMPLE_AGE_NS + 1);
+        assertFalse(predictor.hasVelocity());
+    }
+
+    // headFromWorld of head turned by yaw (rad) around Y and moved by x along X.
+    private static void pose(double yaw, double x, float[] q, float[] position, float[] matrix) {
+        // Inverse of head rotation.
+        q[0] = 0;
+        q[1] = (float) -Math.sin(yaw / 2);
+        q[2] = 0;
+        q[3] = (float) Math.cos(yaw / 2);
+        position[0] = (float) x;
+        position[1] = 0;
+        position[2] = 0;
+        PoseMath.toMatrix(q, position, matrix);
+    }
+}
@@ -0,0 +1,142 @@
+package com.polygraphene.alvr;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PoseSnapshotTest {
+    // Every field of pose k is derived from k, so a pose mixed from two publishes is detected.
+    // Values are exact in float for k < 2^20.
+    private static float field(long k, int i) {
+        return (float) (k & 0xFFFFF) + i * (1 << 20);
+    }
+
+    private static void publish(PoseSnapshot snapshot, long k, float[] matrix) {
+        for (int i = 0; i < 16; i++) {
+            matrix[i] = field(k, 7 + i);
+        }
+        snapshot.publish(field(k, 0), field(k, 1), field(k, 2),
+                field(k, 3), field(k, 4), field(k, 5), field(k, 6), matrix, k);
+    }
+
+    // Returns null if pose is consistent.
+    private static String check(long k, float[] position, float[] orientation, float[] matrix) {
+        for (int i = 0; i < 3; i++) {
+            if (position[i] != field(k, i)) {
+                return "position[" + i + "] of pose " + k + " was " + position[i];
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            if (orientation[i] != field(k, 3 + i)) {
+                return "orientation[" + i + "] of pose " + k + " was " + orientation[i];
+            }
+        }
+        for (int i = 0; i < 16; i++) {
+            if (matrix[i] != field(k, 7 + i)) {
+                return "matrix[" + i + "] of pose " + k + " was " + matrix[i];
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void returnsLatestPose() {
+        PoseSnapshot snapshot = new PoseSnapshot();
+        float[] position = new float[3];
+        float[] orientation = new float[4];
+        float[] matrix = new float[16];
+        float[] source = new float[16];
+
+        assertEquals(-1, snapshot.read(position, orientation, matrix));
+        assertEquals(0, snapshot.getReadSequence());
+
+        publish(snapshot, 1, source);
+        publish(snapshot, 2, source);
+        assertEquals(2, snapshot.read(position, orientation, matrix));
+        assertNull(check(2, position, orientation, matrix));
+        assertEquals(2, snapshot.getReadSequence());
+
+        // Same pose until next publish.
+        assertEquals(2, snapshot.read(position, orientation, matrix));
+        assertNull(check(2, position, orientation, matrix));
+
+        // Writer keeps its source array.
+        source[0] = -1;
+        publish(snapshot, 3, source);
+        assertEquals(3, snapshot.read(position, orientation, matrix));
+        assertNull(check(3, position, orientation, matrix));
+    }
+
+    @Test(timeout = 10000)
+    public void neverReturnsTornPoseUnderContention() throws Exception {
+        final PoseSnapshot snapshot = new PoseSnapshot();
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        // Reader runs until it has seen this many publishes or the time limit. On a single core, publishes
+        // interleave with reads only by preemption, so reader also yields to let the writer run mid-copy.
+        final long targetPoses = 100000;
+        final long durationNs = 2L * 1000 * 1000 * 1000;
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] matrix = new float[16];
+                // Wraps at 2^20 to keep fields exact. Reader never sees wrap in practice.
+                for (long k = 1; !stop.get(); k++) {
+                    publish(snapshot, k, matrix);
+                }
+            }
+        });
+
+        final AtomicReference<String> error = new AtomicReference<>();
+        final long[] distinctPoses = new long[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] position = new float[3];
+                float[] orientation = new float[4];
+                float[] matrix = new float[16];
+                long last = -1;
+                long distinct = 0;
+                long deadline = System.nanoTime() + durationNs;
+                for (long i = 0; distinct < targetPoses && System.nanoTime() < deadline; i++) {
+                    if (i % 1000 == 0) {
+                        Thread.yield();
+                    }
+                    long k = snapshot.read(position, orientation, matrix);
+                    if (k == -1) {
+                        continue;
+                    }
+                    String message = check(k, position, orientation, matrix);
+                    if (message == null && k < last) {
+                        message = "pose went back from " + last + " to " + k;
+                    }
+                    if (message == null && snapshot.getReadSequence() != k) {
+                        message = "sequence " + snapshot.getReadSequence() + " of pose " + k;
+                    }
+                    if (message != null) {
+                        error.set(message);
+                        break;
+                    }
+                    if (k != last) {
+                        distinct++;
+                    }
+                    last = k;
+                }
+                distinctPoses[0] = distinct;
+            }
+        });
+
+        writer.start();
+        reader.start();
+        reader.join();
+        stop.set(true);
+        writer.join();
+
+        assertNull(error.get());
+        // Reader has to observe many publishes for the test to be meaningful.
+        assertTrue("Distinct poses read: " + distinctPoses[0], distinctPoses[0] > 100);
+    }
+}
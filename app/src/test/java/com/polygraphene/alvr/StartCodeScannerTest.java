@@ -0,0 +1,99 @@
+package com.polygraphene.alvr;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class StartCodeScannerTest {
+    private static final int CODEC_H264 = 0;
+    private static final int CODEC_H265 = 1;
+
+    private static ByteBuffer buffer(int... bytes) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        for (int b : bytes) {
+            buf.put((byte) b);
+        }
+        return buf;
+    }
+
+    @Test
+    public void findsThreeAndFourByteStartCodes() {
+        // SPS(4-byte) PPS(4-byte) IDR(3-byte) slice(3-byte) in H.264.
+        ByteBuffer buf = buffer(
+                0, 0, 0, 1, 0x67, 0x42, 0x00, 0x1f,
+                0, 0, 0, 1, 0x68, 0xce,
+                0, 0, 1, 0x65, 0x88, 0x84, 0x00, 0x03, 0x00, 0x11, 0x22, 0x33, 0x44, 0x55,
+                0, 0, 1, 0x41, 0x9a);
+        StartCodeScanner scanner = new StartCodeScanner();
+
+        assertEquals(4, scanner.scan(buf, buf.capacity(), CODEC_H264, Integer.MAX_VALUE));
+        assertEquals(0, scanner.getStart(0));
+        assertEquals(4, scanner.getHeader(0));
+        assertEquals(7, scanner.getType(0));
+        assertEquals(8, scanner.getStart(1));
+        assertEquals(8, scanner.getType(1));
+        assertEquals(14, scanner.getStart(2));
+        assertEquals(17, scanner.getHeader(2));
+        assertEquals(5, scanner.getType(2));
+        assertEquals(28, scanner.getStart(3));
+        assertEquals(1, scanner.getType(3));
+
+        assertEquals(2, scanner.scan(buf, buf.capacity(), CODEC_H264, 2));
+        assertEquals(2, scanner.getCount());
+
+        assertEquals(8, StartCodeScanner.findStartCode(buf, 3, buf.capacity()));
+        assertEquals(14, StartCodeScanner.findStartCode(buf, 11, buf.capacity()));
+        assertEquals(-1, StartCodeScanner.findStartCode(buf, 29, buf.capacity()));
+    }
+
+    @Test
+    public void classifiesH265Types() {
+        ByteBuffer buf = buffer(0, 0, 0, 1, 32 << 1, 1, 0, 0, 1, 19 << 1, 1);
+        StartCodeScanner scanner = new StartCodeScanner();
+
+        assertEquals(2, scanner.scan(buf, buf.capacity(), CODEC_H265, Integer.MAX_VALUE));
+        assertEquals(32, scanner.getType(0));
+        assertEquals(19, scanner.getType(1));
+        assertEquals(32, StartCodeScanner.firstNalType(buf, buf.capacity(), CODEC_H265));
+        // 3-byte start code at head.
+        assertEquals(19, StartCodeScanner.firstNalType(buffer(0, 0, 1, 19 << 1, 1), 5, CODEC_H265));
+    }
+
+    @Test
+    public void ignoresStartCodeWithoutHeader() {
+        ByteBuffer buf = buffer(0, 0, 0, 1, 0x65, 0x10, 0, 0, 0, 1);
+        StartCodeScanner scanner = new StartCodeScanner();
+
+        assertEquals(1, scanner.scan(buf, buf.capacity(), CODEC_H264, Integer.MAX_VALUE));
+        assertEquals(-1, StartCodeScanner.firstNalType(buf, 4, CODEC_H264));
+        assertEquals(-1, StartCodeScanner.firstNalType(buffer(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12), 12, CODEC_H264));
+    }
+
+    @Test
+    public void reusesResultArraysAcrossFrames() {
+        // Many small NALs to grow arrays, with start codes at every alignment.
+        int units = 100;
+        ByteBuffer buf = ByteBuffer.allocateDirect(units * 10);
+        for (int i = 0; i < units; i++) {
+            buf.put(new byte[]{0, 0, 1, 0x41});
+            for (int j = 0; j < i % 7; j++) {
+                buf.put((byte) 0xff);
+            }
+        }
+        int length = buf.position();
+        StartCodeScanner scanner = new StartCodeScanner();
+
+        assertEquals(units, scanner.scan(buf, length, CODEC_H264, Integer.MAX_VALUE));
+        int expected = 0;
+        for (int i = 0; i < units; i++) {
+            assertEquals(expected, scanner.getStart(i));
+            assertEquals(1, scanner.getType(i));
+            expected += 4 + i % 7;
+        }
+
+        assertEquals(1, scanner.scan(buffer(0, 0, 0, 1, 0x67, 0x42), 6, CODEC_H264, Integer.MAX_VALUE));
+        assertEquals(7, scanner.getType(0));
+    }
+}
@@ -0,0 +1,126 @@
+package com.polygraphene.alvr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TrackingSchedulerTest {
+    private static final long MS = 1000 * 1000;
+    private static final long PERIOD = 1000L * 1000 * 1000 / 60;
+
+    @Test
+    public void locksPhaseToVsync() {
+        TrackingScheduler scheduler = new TrackingScheduler(60, 2 * MS);
+        long vsync = 10000 * MS;
+        scheduler.onVsync(vsync);
+
+        // Tick comes at vsync + offset.
+        long target = scheduler.computeNextTarget(vsync + MS);
+        assertTrue(scheduler.isPhaseLocked());
+        assertEquals(vsync + 2 * MS, target);
+
+        // Next ticks follow the same phase even if vsync is not updated every frame.
+        target = scheduler.computeNextTarget(target + 100 * 1000);
+        assertEquals(vsync + 2 * MS + PERIOD, target);
+
+        // Vsync drifted by 3ms. Phase follows without two ticks in one period.
+        vsync += 2 * PERIOD + 3 * MS;
+        scheduler.onVsync(vsync);
+        long next = scheduler.computeNextTarget(target + MS);
+        assertEquals(vsync + 2 * MS, next);
+        assertTrue(next - target >= PERIOD / 2);
+
+        // Offset can be changed. (Period estimate took the drift in)
+        scheduler.setOffset(5 * MS);
+        assertEquals(vsync + 5 * MS + scheduler.getPeriodNs(), scheduler.computeNextTarget(next + MS));
+        assertEquals(0, scheduler.getMissedTicks());
+    }
+
+    @Test
+    public void refinesPeriodFromVsync() {
+        TrackingScheduler scheduler = new TrackingScheduler(60, 0);
+        // Display actually runs at 59.5Hz.
+        long actual = (long) (1e9 / 59.5);
+        long vsync = 10000 * MS;
+        for (int i = 0; i < 200; i++) {
+            // Some vsyncs are not reported (render thread dropped frames).
+            if (i % 5 != 3) {
+                scheduler.onVsync(vsync);
+            }
+            scheduler.computeNextTarget(vsync + 100 * 1000);
+            vsync += actual;
+        }
+        assertEquals(actual, scheduler.getPeriodNs(), 20 * 1000);
+        // Outlier interval is ignored.
+        scheduler.onVsync(vsync + 7 * MS);
+        scheduler.computeNextTarget(vsync + 7 * MS);
+        assertEquals(actual, scheduler.getPeriodNs(), 20 * 1000);
+    }
+
+    @Test
+    public void runsFreeWithoutVsyncAndSkipsMissedSlots() {
+        TrackingScheduler scheduler = new TrackingScheduler(60, 2 * MS);
+        long now = 10000 * MS;
+        long target = scheduler.computeNextTarget(now);
+        assertFalse(scheduler.isPhaseLocked());
+        assertEquals(now, target);
+        assertEquals(target + PERIOD, scheduler.computeNextTarget(target + MS));
+        target += PERIOD;
+
+        // Tracking thread stalled for 3.7 periods. Missed slots are skipped instead of bursting.
+        long late = target + PERIOD * 37 / 10;
+        long next = scheduler.computeNextTarget(late);
+        assertEquals(target + 4 * PERIOD, next);
+        assertEquals(3, scheduler.getMissedTicks());
+
+        // Stale vsync is ignored.
+        scheduler.onVsync(next - TrackingScheduler.VSYNC_TIMEOUT_NS - MS);
+        assertEquals(next + PERIOD, scheduler.computeNextTarget(next));
+        assertFalse(scheduler.isPhaseLocked());
+    }
+
+    @Test
+    public void recordsJitterHistograms() {
+        TrackingScheduler scheduler = new TrackingScheduler(60, 0);
+        long target = 10000 * MS;
+        // Latency: 10us, 120us, 10ms
+        scheduler.recordTick(target, target + 10 * 1000);
+        scheduler.recordTick(target + PERIOD, target + PERIOD + 120 * 1000);
+        scheduler.recordTick(target + 2 * PERIOD, target + 2 * PERIOD + 10 * MS);
+        assertEquals(3, scheduler.getTicks());
+
+        long[] histogram = new long[TrackingScheduler.BUCKETS];
+        scheduler.getLatencyHistogram(histogram);
+        assertEquals(1, histogram[0]);
+        assertEquals(1, histogram[120 / TrackingScheduler.BUCKET_US]);
+        assertEquals(1, histogram[TrackingScheduler.BUCKETS - 1]);
+        assertEquals(TrackingScheduler.BUCKET_US, TrackingScheduler.percentile(histogram, 0.3));
+        assertEquals(TrackingScheduler.BUCKETS * TrackingScheduler.BUCKET_US,
+                TrackingScheduler.percentile(histogram, 0.99));
+
+        // Interval errors: 110us and 9880us
+        scheduler.getIntervalHistogram(histogram);
+        assertEquals(1, histogram[110 / TrackingScheduler.BUCKET_US]);
+        assertEquals(1, histogram[TrackingScheduler.BUCKETS - 1]);
+    }
+
+    @Test(timeout = 10000)
+    public void waitsUntilTick() {
+        TrackingScheduler scheduler = new TrackingScheduler(100, 0);
+        long previous = scheduler.waitNextTick();
+        for (int i = 0; i < 20; i++) {
+            long tick = scheduler.waitNextTick();
+            // Ticks are paced. Lateness goes to the histogram and is not asserted, as the host may be loaded.
+            assertTrue(tick - previous >= 10 * MS / 2);
+            previous = tick;
+        }
+        assertEquals(21, scheduler.getTicks());
+        long[] histogram = new long[TrackingScheduler.BUCKETS];
+        scheduler.getLatencyHistogram(histogram);
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        assertEquals(21, total);
+    }
+}